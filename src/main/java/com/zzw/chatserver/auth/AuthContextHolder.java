@@ -0,0 +1,31 @@
+package com.zzw.chatserver.auth;
+
+import com.zzw.chatserver.auth.entity.AuthPrincipal;
+
+/**
+ * 请求级认证上下文
+ * JWT前置过滤器认证成功后写入，请求处理完毕（过滤器finally）时清除；
+ * 未经过JWT过滤器的线程（登录、Socket事件等）读取结果为null，调用方需自行回退
+ */
+public final class AuthContextHolder {
+
+    private static final ThreadLocal<AuthPrincipal> CONTEXT = new ThreadLocal<>();
+
+    private AuthContextHolder() {
+    }
+
+    public static void set(AuthPrincipal principal) {
+        CONTEXT.set(principal);
+    }
+
+    /**
+     * @return 当前请求的认证主体，未认证时返回null
+     */
+    public static AuthPrincipal get() {
+        return CONTEXT.get();
+    }
+
+    public static void clear() {
+        CONTEXT.remove();
+    }
+}
@@ -0,0 +1,74 @@
+package com.zzw.chatserver.auth.entity;
+
+/**
+ * 当前请求的认证主体（不可变）
+ * 由JWT前置过滤器在认证时一次性解析，业务代码读取uid、角色、管理员身份时不再查询数据库
+ */
+public final class AuthPrincipal {
+
+    // 普通用户的uid，或超级用户sid的字符串形式
+    private final String uid;
+    private final String username;
+    // 角色编码（UserRoleEnum，超级用户固定为admin）
+    private final String role;
+    // 超级用户角色：0=超级管理员，1=普通管理员；普通用户为null
+    private final Integer superUserRole;
+    private final Integer status;
+
+    public AuthPrincipal(String uid, String username, String role, Integer superUserRole, Integer status) {
+        this.uid = uid;
+        this.username = username;
+        this.role = role;
+        this.superUserRole = superUserRole;
+        this.status = status;
+    }
+
+    /**
+     * 由UserDetailsService加载的认证用户构建
+     */
+    public static AuthPrincipal from(JwtAuthUser user) {
+        String uid = user.getUserId() != null ? user.getUserId().toHexString() : user.getUid();
+        return new AuthPrincipal(uid, user.getUsername(), user.getRole(), user.getSuperUserRole(), user.getStatus());
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public Integer getSuperUserRole() {
+        return superUserRole;
+    }
+
+    public Integer getStatus() {
+        return status;
+    }
+
+    /**
+     * 是否为超级用户（超级管理员或普通管理员）
+     */
+    public boolean isSuperUser() {
+        return superUserRole != null;
+    }
+
+    /**
+     * 是否为超级管理员
+     */
+    public boolean isSuperAdmin() {
+        return superUserRole != null && superUserRole == 0;
+    }
+
+    /**
+     * 是否为超级管理员或普通管理员
+     */
+    public boolean isSuperAdminOrAdmin() {
+        return superUserRole != null && (superUserRole == 0 || superUserRole == 1);
+    }
+}
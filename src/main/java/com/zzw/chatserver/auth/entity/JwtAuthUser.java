@@ -20,6 +20,9 @@ public class JwtAuthUser extends User implements UserDetails, Serializable {
     // Spring Security 所需的权限集合
     private Collection<? extends GrantedAuthority> authorities;
 
+    // 超级用户角色（0超级管理员，1普通管理员），普通用户为null
+    private Integer superUserRole;
+
     // 默认构造方法（保留，供框架反射使用）
     public JwtAuthUser() {
     }
@@ -122,4 +125,12 @@ public class JwtAuthUser extends User implements UserDetails, Serializable {
     public void setAuthorities(Collection<? extends GrantedAuthority> authorities) {
         this.authorities = authorities;
     }
+
+    public Integer getSuperUserRole() {
+        return superUserRole;
+    }
+
+    public void setSuperUserRole(Integer superUserRole) {
+        this.superUserRole = superUserRole;
+    }
 }
\ No newline at end of file
@@ -1,9 +1,12 @@
 package com.zzw.chatserver.config;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
 import org.springframework.data.mongodb.core.index.IndexOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 
@@ -12,6 +15,7 @@ import javax.annotation.Resource;
 /**
  * MongoDB索引配置类，启动时为消息集合创建复合索引，优化查询性能
  */
+@Slf4j
 @Configuration
 public class MongoIndexConfig {
 
@@ -30,6 +34,19 @@ public class MongoIndexConfig {
                 .on("receiverId", org.springframework.data.domain.Sort.Direction.ASC)
                 .on("isReadUser", org.springframework.data.domain.Sort.Direction.ASC)
                 .named("idx_single_receiver_isRead"));
+        // 已读水位线查询：roomId(升序) + _id(升序)
+        indexOps.ensureIndex(new Index()
+                .on("roomId", org.springframework.data.domain.Sort.Direction.ASC)
+                .on("_id", org.springframework.data.domain.Sort.Direction.ASC)
+                .named("idx_single_room_id"));
+        // 按房间序号排序、补洞与游标分页：roomId(升序) + seq(升序) + _id(升序)
+        // 末尾的_id与历史消息查询的排序(seq, _id)一致，避免无序号的历史消息在内存中排序
+        indexOps.ensureIndex(new Index()
+                .on("roomId", org.springframework.data.domain.Sort.Direction.ASC)
+                .on("seq", org.springframework.data.domain.Sort.Direction.ASC)
+                .on("_id", org.springframework.data.domain.Sort.Direction.ASC)
+                .named("idx_single_room_seq_id"));
+        dropIndexIfExists(indexOps, "idx_single_room_seq");
     }
 
     /**
@@ -44,5 +61,62 @@ public class MongoIndexConfig {
                 .on("roomId", org.springframework.data.domain.Sort.Direction.ASC)
                 .on("isReadUser", org.springframework.data.domain.Sort.Direction.ASC)
                 .named("idx_group_room_isRead"));
+        // 已读水位线查询：roomId(升序) + _id(升序)
+        indexOps.ensureIndex(new Index()
+                .on("roomId", org.springframework.data.domain.Sort.Direction.ASC)
+                .on("_id", org.springframework.data.domain.Sort.Direction.ASC)
+                .named("idx_group_room_id"));
+        // 按房间序号排序、补洞与游标分页：roomId(升序) + seq(升序) + _id(升序)
+        indexOps.ensureIndex(new Index()
+                .on("roomId", org.springframework.data.domain.Sort.Direction.ASC)
+                .on("seq", org.springframework.data.domain.Sort.Direction.ASC)
+                .on("_id", org.springframework.data.domain.Sort.Direction.ASC)
+                .named("idx_group_room_seq_id"));
+        dropIndexIfExists(indexOps, "idx_group_room_seq");
+    }
+
+    /**
+     * 初始化已读水位线集合索引
+     * 优化场景：按用户+房间查询/更新水位线，每个(用户,房间)仅一条
+     */
+    @Bean
+    public void initReadStateIndexes() {
+        IndexOperations indexOps = mongoTemplate.indexOps("readstates");
+        indexOps.ensureIndex(new Index()
+                .on("userId", org.springframework.data.domain.Sort.Direction.ASC)
+                .on("roomId", org.springframework.data.domain.Sort.Direction.ASC)
+                .unique()
+                .named("uk_readstate_user_room"));
+    }
+
+    /**
+     * 初始化好友关系集合索引
+     * 每个方向的好友关系仅一条：好友关系图已加载时添加好友不再先查库，由唯一索引拒绝重复记录
+     */
+    @Bean
+    public void initGoodFriendIndexes() {
+        IndexOperations indexOps = mongoTemplate.indexOps("goodfriends");
+        try {
+            indexOps.ensureIndex(new Index()
+                    .on("userM", org.springframework.data.domain.Sort.Direction.ASC)
+                    .on("userY", org.springframework.data.domain.Sort.Direction.ASC)
+                    .unique()
+                    .named("uk_goodfriend_m_y"));
+        } catch (DataIntegrityViolationException e) {
+            // 历史数据存在重复关系时无法建立唯一索引，需先清理重复记录；不阻止服务启动
+            log.error("好友关系唯一索引创建失败，请清理goodfriends中重复的(userM, userY)记录", e);
+        }
+    }
+
+    /**
+     * 删除已被新索引覆盖的旧索引（前缀相同，保留会浪费写入开销）
+     */
+    private void dropIndexIfExists(IndexOperations indexOps, String name) {
+        for (IndexInfo info : indexOps.getIndexInfo()) {
+            if (name.equals(info.getName())) {
+                indexOps.dropIndex(name);
+                return;
+            }
+        }
     }
 }
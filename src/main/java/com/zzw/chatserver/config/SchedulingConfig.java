@@ -0,0 +1,34 @@
+package com.zzw.chatserver.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * 定时任务配置
+ * 开启@Scheduled支持，并使用独立的调度线程池，避免某个耗时任务阻塞其他定时任务
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+
+    @Value("${chat.scheduling.pool-size:4}")
+    private int poolSize;
+
+    /**
+     * 定时任务调度线程池（Bean名称为taskScheduler时会被@Scheduled自动使用）
+     */
+    @Bean(name = "taskScheduler")
+    public ThreadPoolTaskScheduler taskScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadNamePrefix("chat-scheduler-"); // 线程名前缀（便于排查）
+        scheduler.setErrorHandler(t -> org.slf4j.LoggerFactory.getLogger(SchedulingConfig.class)
+                .error("定时任务执行异常", t));
+        scheduler.setWaitForTasksToCompleteOnShutdown(true);
+        scheduler.setAwaitTerminationSeconds(10);
+        return scheduler;
+    }
+}
@@ -5,7 +5,9 @@ import com.zzw.chatserver.filter.JwtLoginAuthFilter;
 import com.zzw.chatserver.filter.JwtPreAuthFilter;
 import com.zzw.chatserver.filter.KaptchaFilter;
 import com.zzw.chatserver.handler.ChatLogoutSuccessHandler;
+import com.zzw.chatserver.handler.JwtAuthCache;
 import com.zzw.chatserver.service.OnlineUserService;
+import com.zzw.chatserver.service.UserCacheService;
 import com.zzw.chatserver.utils.JwtUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -54,12 +56,18 @@ public class SecurityConfig{
     @Resource
     private OnlineUserService onlineUserService;
 
+    @Resource
+    private UserCacheService userCacheService;
+
     @Autowired
     private JwtUtils jwtUtils;
 
     @Autowired
     private ChatLogoutSuccessHandler chatLogoutSuccessHandler;
 
+    @Resource
+    private JwtAuthCache jwtAuthCache;
+
     @Autowired
     private UnAuthEntryPoint unAuthEntryPoint;
 
@@ -110,7 +118,7 @@ public class SecurityConfig{
                         UsernamePasswordAuthenticationFilter.class
                 )
                 .addFilterBefore(
-                        new JwtPreAuthFilter(jwtUtils, userDetailsService),
+                        new JwtPreAuthFilter(jwtUtils, userDetailsService, jwtAuthCache),
                         UsernamePasswordAuthenticationFilter.class
                 )
                 .addFilterAt(
@@ -119,7 +127,9 @@ public class SecurityConfig{
                                 mongoTemplate,
                                 onlineUserService,
                                 jwtUtils,
-                                objectRedisTemplate
+                                objectRedisTemplate,
+                                userCacheService,
+                                jwtAuthCache
                         ),
                         UsernamePasswordAuthenticationFilter.class
                 )
@@ -86,6 +86,7 @@ import com.corundumstudio.socketio.SocketIOServer;
 import com.corundumstudio.socketio.SocketConfig;
 import com.corundumstudio.socketio.Transport;
 import com.corundumstudio.socketio.annotation.SpringAnnotationScanner;
+import com.zzw.chatserver.handler.SocketAuthorizationListener;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -125,7 +126,7 @@ public class SocketIOConfig {
     private int maxConnections;
 
     @Bean("socketIOServer")
-    public SocketIOServer socketIOServer() {
+    public SocketIOServer socketIOServer(SocketAuthorizationListener socketAuthorizationListener) {
         com.corundumstudio.socketio.Configuration config = new com.corundumstudio.socketio.Configuration();
 
         // 动态线程池优化
@@ -154,6 +155,8 @@ public class SocketIOConfig {
         config.setMaxHttpContentLength(maxHttpContentLength);
         // 传输协议：仅启用WebSocket
         config.setTransports(Transport.WEBSOCKET);
+        // 握手时校验JWT，未通过认证的连接直接拒绝
+        config.setAuthorizationListener(socketAuthorizationListener);
 
         return new SocketIOServer(config);
     }
@@ -1,5 +1,7 @@
 package com.zzw.chatserver.controller;
 
+import com.zzw.chatserver.auth.AuthContextHolder;
+import com.zzw.chatserver.auth.entity.AuthPrincipal;
 import com.zzw.chatserver.common.R;
 import com.zzw.chatserver.common.UserRoleEnum;
 import com.zzw.chatserver.common.exception.BusinessException;
@@ -304,6 +306,10 @@ public class OrderController {
      * 获取当前登录用户ID（兼容JwtAuthUser/String类型的认证主体）
      */
     private String getCurrentUserId() {
+        AuthPrincipal current = AuthContextHolder.get();
+        if (current != null) {
+            return current.getUid();
+        }
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         if (authentication == null || authentication.getPrincipal() == null) {
             throw new BusinessException("用户未登录");
@@ -329,6 +335,10 @@ public class OrderController {
      * 判断当前登录用户是否为客服角色
      */
     private boolean isCurrentUserCustomerService() {
+        AuthPrincipal current = AuthContextHolder.get();
+        if (current != null) {
+            return UserRoleEnum.CUSTOMER_SERVICE.getCode().equals(current.getRole());
+        }
         String currentUserId = getCurrentUserId();
         User currentUser = userService.getUserInfo(currentUserId);
         if (currentUser == null) {
@@ -81,6 +81,33 @@ public class SingleMessageController {
         }
     }
 
+    /**
+     * 按房间序号游标分页获取单聊消息（补洞、翻页）
+     */
+    @GetMapping("/getMessagesBySeq")
+    @ApiOperation(value = "按序号分页获取单聊消息", notes = "afterSeq向后补洞，beforeSeq向前翻页，均不传返回最新消息；结果按序号升序，pageSize最大100")
+    public R getMessagesBySeq(
+            @ApiParam(value = "单聊房间ID", required = true)
+            @RequestParam @NotBlank(message = "房间ID不能为空") String roomId,
+
+            @ApiParam(value = "返回序号大于该值的消息")
+            @RequestParam(required = false) Long afterSeq,
+
+            @ApiParam(value = "返回序号小于该值的消息（afterSeq为空时生效）")
+            @RequestParam(required = false) Long beforeSeq,
+
+            @ApiParam(value = "每页条数（默认20，最大100）", example = "20")
+            @RequestParam(required = false, defaultValue = "20") @Positive(message = "每页条数必须为正整数") Integer pageSize) {
+        try {
+            List<SingleMessageResultVo> messages = singleMessageService.getMessagesBySeq(roomId, afterSeq, beforeSeq,
+                    Math.min(pageSize, 100));
+            return R.ok().data("messages", messages);
+        } catch (Exception e) {
+            log.error("按序号获取单聊消息系统异常（房间ID：{}）", roomId, e);
+            return R.error().message("获取消息失败，请稍后重试");
+        }
+    }
+
     /**
      * 标记消息为已读（用户切换会话后调用）
      */
@@ -1,5 +1,7 @@
 package com.zzw.chatserver.controller;
 
+import com.zzw.chatserver.auth.AuthContextHolder;
+import com.zzw.chatserver.auth.entity.AuthPrincipal;
 import com.zzw.chatserver.common.R;
 import com.zzw.chatserver.common.ResultEnum;
 import com.zzw.chatserver.common.UserRoleEnum;
@@ -9,6 +11,7 @@ import com.zzw.chatserver.pojo.SuperUser;
 import com.zzw.chatserver.pojo.User;
 import com.zzw.chatserver.pojo.vo.*;
 import com.zzw.chatserver.service.SuperUserService;
+import com.zzw.chatserver.service.UnreadCounterService;
 import com.zzw.chatserver.service.UserService;
 import com.zzw.chatserver.utils.ChatServerUtil;
 import com.zzw.chatserver.utils.RedisKeyUtil;
@@ -52,6 +55,9 @@ public class UserController {
     @Resource
     private SuperUserService superUserService;
 
+    @Resource
+    private UnreadCounterService unreadCounterService;
+
     @Value("${server.servlet.context-path}")
     private String contextPath;
 
@@ -246,6 +252,24 @@ public class UserController {
         }
     }
 
+    /**
+     * 获取当前用户各会话的未读数
+     */
+    @GetMapping("/getUnreadCounts")
+    @ApiOperation(value = "获取会话未读数", notes = "返回房间ID到未读数的映射，只包含有未读消息的会话")
+    public R getUnreadCounts() {
+        try {
+            String currentUserId = getCurrentUserId();
+            if (currentUserId == null) {
+                return R.error().message("未获取到当前用户信息");
+            }
+            return R.ok().data("unreadCounts", unreadCounterService.getUnreadCounts(currentUserId));
+        } catch (Exception e) {
+            log.error("获取会话未读数异常", e);
+            return R.error().message("获取未读数失败");
+        }
+    }
+
     /**
      * 修改好友备注信息
      */
@@ -447,6 +471,10 @@ public class UserController {
      * 获取当前登录用户的ID（通用方法，减少重复代码）
      */
     private String getCurrentUserId() {
+        AuthPrincipal current = AuthContextHolder.get();
+        if (current != null) {
+            return current.getUid();
+        }
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         if (authentication == null || !authentication.isAuthenticated()) {
             log.warn("当前用户未认证");
@@ -472,6 +500,10 @@ public class UserController {
      * 获取当前操作人ID（用于客服注册等场景，区分普通用户和超级用户）
      */
     private String getCurrentOperatorId() {
+        AuthPrincipal current = AuthContextHolder.get();
+        if (current != null) {
+            return current.getUid();
+        }
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         if (authentication == null || !authentication.isAuthenticated()
                 || !(authentication.getPrincipal() instanceof UserDetails)) {
@@ -6,13 +6,15 @@ import com.zzw.chatserver.auth.entity.JwtAuthUser;
 import com.zzw.chatserver.common.R;
 import com.zzw.chatserver.common.ResultEnum;
 import com.zzw.chatserver.common.UserStatusEnum;
+import com.zzw.chatserver.handler.JwtAuthCache;
 import com.zzw.chatserver.pojo.User;
 import com.zzw.chatserver.pojo.vo.LoginRequestVo;
 import com.zzw.chatserver.service.OnlineUserService;
+import com.zzw.chatserver.service.UserCacheService;
 import com.zzw.chatserver.utils.JwtUtils;
 import com.zzw.chatserver.utils.ResponseUtil;
-import com.zzw.chatserver.utils.SocketIoServerMapUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,6 +57,8 @@ public class JwtLoginAuthFilter extends UsernamePasswordAuthenticationFilter {
     private final OnlineUserService onlineUserService;
     private final JwtUtils jwtUtils;
     private final RedisTemplate<String, Object> redisTemplate; // Redis依赖用于计数
+    private final UserCacheService userCacheService; // 登录信息、冻结状态变更后失效用户资料缓存
+    private final JwtAuthCache jwtAuthCache; // 冻结账户后清除该用户的Token认证缓存
 
     // 线程本地存储（传递登录参数，避免request流重复读取）
     private final ThreadLocal<LoginRequestVo> loginRequestHolder = new ThreadLocal<>();
@@ -69,12 +73,16 @@ public class JwtLoginAuthFilter extends UsernamePasswordAuthenticationFilter {
                               MongoTemplate mongoTemplate,
                               OnlineUserService onlineUserService,
                               JwtUtils jwtUtils,
-                              RedisTemplate<String, Object> redisTemplate) {
+                              RedisTemplate<String, Object> redisTemplate,
+                              UserCacheService userCacheService,
+                              JwtAuthCache jwtAuthCache) {
         this.authenticationManager = authenticationManager;
         this.mongoTemplate = mongoTemplate;
         this.onlineUserService = onlineUserService;
         this.jwtUtils = jwtUtils;
         this.redisTemplate = redisTemplate;
+        this.userCacheService = userCacheService;
+        this.jwtAuthCache = jwtAuthCache;
         this.setFilterProcessesUrl(LOGIN_PROCESS_URL);
     }
 
@@ -293,6 +301,7 @@ public class JwtLoginAuthFilter extends UsernamePasswordAuthenticationFilter {
         }
 
         mongoTemplate.updateFirst(query, update, "users");
+        userCacheService.invalidate(uid);
         log.debug("更新用户登录信息，username: {}", username);
     }
 
@@ -360,8 +369,13 @@ public class JwtLoginAuthFilter extends UsernamePasswordAuthenticationFilter {
         Update update = new Update()
                 .set("status", UserStatusEnum.FREEZED.getCode())
                 .set("freezeTime", new Date());
+        query.fields().include("_id");
 
-        mongoTemplate.updateFirst(query, update, "users");
+        Document frozen = mongoTemplate.findAndModify(query, update, Document.class, "users");
+        if (frozen != null && frozen.getObjectId("_id") != null) {
+            userCacheService.invalidate(frozen.getObjectId("_id").toHexString());
+            jwtAuthCache.evictUser(frozen.getObjectId("_id").toHexString());
+        }
     }
 
     /**
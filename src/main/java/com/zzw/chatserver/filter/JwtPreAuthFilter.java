@@ -1,7 +1,8 @@
 package com.zzw.chatserver.filter;
 
+import com.zzw.chatserver.auth.AuthContextHolder;
+import com.zzw.chatserver.handler.JwtAuthCache;
 import com.zzw.chatserver.utils.JwtUtils;
-import io.jsonwebtoken.Claims;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -23,7 +24,9 @@ import java.util.List;
 
 /**
  * JWT前置认证过滤器
- * 用于拦截请求并验证JWT Token，将认证信息存入SecurityContext
+ * 用于拦截请求并验证JWT Token，将认证信息存入SecurityContext，
+ * 同时把解析出的认证主体写入请求级上下文（AuthContextHolder），请求结束时清除；
+ * 验签及加载用户信息的结果由JwtAuthCache缓存，命中时不再验签、不查询数据库
  */
 @Component
 public class JwtPreAuthFilter extends OncePerRequestFilter {
@@ -31,6 +34,7 @@ public class JwtPreAuthFilter extends OncePerRequestFilter {
     private static final Logger logger = LoggerFactory.getLogger(JwtPreAuthFilter.class);
     private final JwtUtils jwtUtils;
     private final UserDetailsService userDetailsService;
+    private final JwtAuthCache jwtAuthCache;
 
     // 定义需要排除的路径（无需JWT验证的接口）
     private static final List<String> EXCLUDE_PATHS = Arrays.asList(
@@ -42,9 +46,10 @@ public class JwtPreAuthFilter extends OncePerRequestFilter {
     @Value("${jwt.secret}")
     private String SECRET;
 
-    public JwtPreAuthFilter(JwtUtils jwtUtils, UserDetailsService userDetailsService) {
+    public JwtPreAuthFilter(JwtUtils jwtUtils, UserDetailsService userDetailsService, JwtAuthCache jwtAuthCache) {
         this.jwtUtils = jwtUtils;
         this.userDetailsService = userDetailsService;
+        this.jwtAuthCache = jwtAuthCache;
     }
 
     /**
@@ -78,15 +83,11 @@ public class JwtPreAuthFilter extends OncePerRequestFilter {
                 logger.warn("Authorization头格式错误：无Bearer前缀或长度不足，header={}", authHeader);
             }
 
-            // 用纯净Token解析
+            // 优先使用缓存的认证结果，未命中时验签并加载用户信息
             if (pureToken != null) {
-                Claims claims = jwtUtils.parseJwt(pureToken);
-                if (claims != null) {
-                    String userId = claims.get("userId", String.class);
-                    String username = claims.get("username", String.class);
-
-                    UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-
+                JwtAuthCache.Entry entry = jwtAuthCache.authenticate(pureToken, userDetailsService);
+                if (entry != null) {
+                    UserDetails userDetails = entry.getUserDetails();
                     UsernamePasswordAuthenticationToken authentication =
                             new UsernamePasswordAuthenticationToken(
                                     userDetails,
@@ -96,9 +97,10 @@ public class JwtPreAuthFilter extends OncePerRequestFilter {
                     authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
 
                     SecurityContextHolder.getContext().setAuthentication(authentication);
-                    logger.info("JWT认证成功，用户ID：{}，用户名：{}", userId, username);
-                } else {
-                    logger.warn("JWT解析失败，Token无效或已过期：{}", pureToken);
+                    if (entry.getPrincipal() != null) {
+                        AuthContextHolder.set(entry.getPrincipal());
+                    }
+                    logger.debug("JWT认证成功，用户名：{}", userDetails.getUsername());
                 }
             } else {
                 logger.debug("请求头中无有效Token，header：{}", authHeader);
@@ -106,9 +108,14 @@ public class JwtPreAuthFilter extends OncePerRequestFilter {
         } catch (Exception e) {
             logger.error("JWT认证过滤器处理异常", e);
             SecurityContextHolder.clearContext();
+            AuthContextHolder.clear();
         }
 
         // 继续执行过滤链
-        filterChain.doFilter(request, response);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            AuthContextHolder.clear();
+        }
     }
-}
\ No newline at end of file
+}
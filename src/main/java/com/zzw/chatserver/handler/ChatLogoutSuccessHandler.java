@@ -3,10 +3,12 @@ package com.zzw.chatserver.handler;
 import com.alibaba.fastjson.JSON;
 import com.zzw.chatserver.common.R;
 import com.zzw.chatserver.common.ResultEnum;
+import com.zzw.chatserver.utils.JwtUtils;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.web.authentication.logout.LogoutSuccessHandler;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.Resource;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -14,10 +16,19 @@ import java.io.IOException;
 
 @Component
 public class ChatLogoutSuccessHandler implements LogoutSuccessHandler {
+
+    @Resource
+    private JwtAuthCache jwtAuthCache;
+
     @Override
     public void onLogoutSuccess(HttpServletRequest request,
                                 HttpServletResponse response,
                                 Authentication authentication) throws IOException, ServletException {
+        // 退出登录时吊销当前Token，避免其在过期前继续通过认证
+        String authHeader = request.getHeader(JwtUtils.TOKEN_HEADER);
+        if (authHeader != null && authHeader.startsWith(JwtUtils.TOKEN_PREFIX)) {
+            jwtAuthCache.revoke(authHeader.substring(JwtUtils.TOKEN_PREFIX.length()).trim());
+        }
         response.getWriter().write(JSON.toJSONString(R.ok().resultEnum(ResultEnum.USER_LOGOUT_SUCCESS)));
     }
 }
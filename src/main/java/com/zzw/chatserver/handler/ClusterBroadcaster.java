@@ -0,0 +1,379 @@
+package com.zzw.chatserver.handler;
+
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.SocketIOServer;
+import com.zzw.chatserver.pojo.vo.ClusterEventBatchVo;
+import com.zzw.chatserver.pojo.vo.ClusterEventVo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 集群推送
+ * SocketIOServer只能看到连接在本JVM的客户端，跨节点的推送统一经由此类：
+ * - 本节点的接收者立即推送
+ * - 开启集群模式（chat.cluster.enabled=true）时，按路由索引（ClusterRouteIndex）找出持有接收者的其他节点，
+ *   事件进入本节点的发送队列，定时按目标节点分组、按批次发布到各节点自己的频道；
+ *   没有其他节点持有接收者时不入队，热点房间的大量消息在一个刷新窗口内合并为少量批次
+ * - 路由索引由本类维护：用户绑定/离线时由会话副本线程更新用户路由，本节点首次有成员加入房间时登记房间路由，
+ *   定时核对移除本节点已无成员的房间；路由变化广播给其他节点使其本地缓存失效
+ * - 路由索引不可用时退化为发布到全体节点的频道，由各节点自行判断是否持有接收者
+ */
+@Component
+@Slf4j
+public class ClusterBroadcaster {
+
+    public static final String TYPE_ROOM = "ROOM";
+    public static final String TYPE_USER = "USER";
+    // 路由变化通知：用户路由（target=uid）、房间路由（参数为房间ID列表）
+    private static final String TYPE_ROUTE_USER = "ROUTE_USER";
+    private static final String TYPE_ROUTE_ROOMS = "ROUTE_ROOMS";
+
+    @Resource
+    private SocketIOServer socketIOServer;
+    @Resource
+    private SessionStateRegistry sessionStateRegistry;
+    @Resource
+    private ClusterEventBus clusterEventBus;
+    @Resource
+    private ClusterRouteIndex clusterRouteIndex;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    // 单个批次最多包含的事件数
+    @Value("${chat.cluster.batch-size:200}")
+    private int batchSize;
+
+    // 发送队列容量（超出时由调用线程同步发布，不丢弃跨节点推送）
+    @Value("${chat.cluster.outbound-capacity:50000}")
+    private int outboundCapacity;
+
+    // 本节点ID（每次启动重新生成）
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Queue<Outbound> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outboundSize = new AtomicInteger();
+    // 事件类型 -> 处理器（ROOM/USER之外的扩展类型）
+    private final ConcurrentMap<String, Consumer<ClusterEventVo>> handlers = new ConcurrentHashMap<>();
+    // 已在路由索引中登记本节点的房间（登记与核对移除在同一把锁内，保证Redis写入顺序与本地集合一致）
+    private final Set<String> localRooms = ConcurrentHashMap.newKeySet();
+
+    private Counter publishedCounter;
+    private Counter receivedCounter;
+    private Counter overflowCounter;
+
+    /**
+     * 发送队列中的事件及其目标节点（null表示全体节点）
+     */
+    private static final class Outbound {
+        private final String node;
+        private final ClusterEventVo event;
+
+        Outbound(String node, ClusterEventVo event) {
+            this.node = node;
+            this.event = event;
+        }
+    }
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void init() {
+        publishedCounter = Counter.builder("cluster.events.published")
+                .description("发布到集群总线的事件数")
+                .register(meterRegistry);
+        receivedCounter = Counter.builder("cluster.events.received")
+                .description("从集群总线收到的其他节点事件数")
+                .register(meterRegistry);
+        overflowCounter = Counter.builder("cluster.events.overflow")
+                .description("发送队列已满改为同步发布的事件数")
+                .register(meterRegistry);
+        registerHandler(TYPE_ROUTE_USER, event -> clusterRouteIndex.invalidateUser(event.getTarget()));
+        registerHandler(TYPE_ROUTE_ROOMS, event ->
+                clusterRouteIndex.invalidateRooms((Collection<String>) event.getArgs().get(0)));
+        if (clusterEnabled) {
+            clusterEventBus.subscribe(this::onBatch);
+            clusterEventBus.subscribeNode(nodeId, this::onBatch);
+            log.info("集群推送已启用，节点ID={}", nodeId);
+        }
+    }
+
+    /**
+     * 停机时撤销本节点的房间路由
+     */
+    @PreDestroy
+    public void destroy() {
+        if (!clusterEnabled) {
+            return;
+        }
+        synchronized (localRooms) {
+            try {
+                clusterRouteIndex.removeRoomNode(new ArrayList<>(localRooms), nodeId);
+            } catch (Exception e) {
+                log.error("撤销本节点房间路由异常", e);
+            }
+            localRooms.clear();
+        }
+    }
+
+    /**
+     * 注册扩展事件类型的处理器（收到其他节点发布的该类型事件时调用）
+     */
+    public void registerHandler(String type, Consumer<ClusterEventVo> handler) {
+        handlers.put(type, handler);
+    }
+
+    /**
+     * 推送事件给房间内的客户端（所有节点）
+     * @param roomId 房间ID
+     * @param eventName 事件名
+     * @param excludeClientId 排除的客户端ID（通常为发送者，可为null）
+     * @param args 事件参数
+     */
+    public void sendToRoom(String roomId, String eventName, String excludeClientId, Object... args) {
+        deliverToRoom(roomId, eventName, excludeClientId, args);
+        if (!clusterEnabled) {
+            return;
+        }
+        ClusterEventVo event = new ClusterEventVo(TYPE_ROOM, roomId, eventName, excludeClientId, Arrays.asList(args));
+        Set<String> nodes;
+        try {
+            nodes = clusterRouteIndex.findRoomNodes(roomId);
+        } catch (Exception e) {
+            log.error("查询房间{}的路由异常，改为发布到全体节点", roomId, e);
+            enqueue(null, event);
+            return;
+        }
+        for (String node : nodes) {
+            if (!nodeId.equals(node)) {
+                enqueue(node, event);
+            }
+        }
+    }
+
+    /**
+     * 推送事件给指定用户（用户在本节点时直接推送，否则交给持有该用户的节点）
+     * @param uid 用户ID
+     * @param eventName 事件名
+     * @param args 事件参数
+     */
+    public void sendToUser(String uid, String eventName, Object... args) {
+        if (deliverToUser(uid, eventName, args) || !clusterEnabled) {
+            return;
+        }
+        ClusterEventVo event = new ClusterEventVo(TYPE_USER, uid, eventName, null, Arrays.asList(args));
+        String node;
+        try {
+            node = clusterRouteIndex.findUserNode(uid);
+        } catch (Exception e) {
+            log.error("查询用户{}的路由异常，改为发布到全体节点", uid, e);
+            enqueue(null, event);
+            return;
+        }
+        // 用户不在任何其他节点时不入队（离线消息由持久化与离线同步补齐）
+        if (node != null && !nodeId.equals(node)) {
+            enqueue(node, event);
+        }
+    }
+
+    /**
+     * 发布扩展类型的事件到其他节点（不做本节点推送）
+     */
+    public void publish(String type, String target, Object payload) {
+        if (clusterEnabled) {
+            enqueue(null, new ClusterEventVo(type, target, null, null, Collections.singletonList(payload)));
+        }
+    }
+
+    /**
+     * 登记本节点持有该用户的连接（会话副本线程在绑定脚本成功后调用）
+     */
+    public void bindUser(String uid) {
+        if (clusterEnabled && uid != null) {
+            clusterRouteIndex.bindUser(uid, nodeId);
+            publish(TYPE_ROUTE_USER, uid, null);
+        }
+    }
+
+    /**
+     * 用户已离线，撤销本节点的用户路由（会话副本线程在清理脚本确认离线后调用）
+     */
+    public void unbindUser(String uid) {
+        if (clusterEnabled && uid != null) {
+            clusterRouteIndex.unbindUser(uid, nodeId);
+            publish(TYPE_ROUTE_USER, uid, null);
+        }
+    }
+
+    /**
+     * 本节点的客户端加入了这些房间：首次有成员的房间登记到路由索引
+     */
+    public void joinRooms(Collection<String> roomIds) {
+        if (!clusterEnabled || roomIds == null || roomIds.isEmpty()) {
+            return;
+        }
+        List<String> added = new ArrayList<>();
+        synchronized (localRooms) {
+            for (String roomId : roomIds) {
+                if (roomId != null && localRooms.add(roomId)) {
+                    added.add(roomId);
+                }
+            }
+            if (added.isEmpty()) {
+                return;
+            }
+            try {
+                clusterRouteIndex.addRoomNode(added, nodeId);
+            } catch (Exception e) {
+                // 下次加入时重试登记
+                localRooms.removeAll(added);
+                log.error("登记房间路由异常，房间数={}", added.size(), e);
+                return;
+            }
+        }
+        publish(TYPE_ROUTE_ROOMS, null, added);
+    }
+
+    /**
+     * 定时核对房间路由：本节点已无成员的房间从路由索引中移除
+     */
+    @Scheduled(fixedDelayString = "${chat.cluster.route-reconcile-ms:60000}")
+    public void reconcileRooms() {
+        if (!clusterEnabled || localRooms.isEmpty()) {
+            return;
+        }
+        List<String> removed = new ArrayList<>();
+        synchronized (localRooms) {
+            for (String roomId : new ArrayList<>(localRooms)) {
+                if (!hasLocalMembers(roomId)) {
+                    localRooms.remove(roomId);
+                    removed.add(roomId);
+                }
+            }
+            if (removed.isEmpty()) {
+                return;
+            }
+            try {
+                clusterRouteIndex.removeRoomNode(removed, nodeId);
+            } catch (Exception e) {
+                // 保留登记，下一轮再核对
+                localRooms.addAll(removed);
+                log.error("移除房间路由异常，房间数={}", removed.size(), e);
+                return;
+            }
+        }
+        publish(TYPE_ROUTE_ROOMS, null, removed);
+        log.debug("移除本节点已无成员的房间路由{}个", removed.size());
+    }
+
+    /**
+     * 按目标节点分组、按批次发布发送队列中的事件
+     */
+    @Scheduled(fixedDelayString = "${chat.cluster.flush-interval-ms:20}")
+    public void flush() {
+        while (!outbound.isEmpty()) {
+            // 目标节点 -> 事件（null为全体节点），同一节点内保持入队顺序
+            Map<String, List<ClusterEventVo>> byNode = new LinkedHashMap<>();
+            int drained = 0;
+            Outbound item;
+            while (drained < batchSize && (item = outbound.poll()) != null) {
+                outboundSize.decrementAndGet();
+                drained++;
+                byNode.computeIfAbsent(item.node, key -> new ArrayList<>()).add(item.event);
+            }
+            if (drained == 0) {
+                return;
+            }
+            byNode.forEach(this::publishBatch);
+        }
+    }
+
+    private void enqueue(String node, ClusterEventVo event) {
+        if (outboundSize.incrementAndGet() > outboundCapacity) {
+            outboundSize.decrementAndGet();
+            // 队列已满时不丢弃，由调用线程直接发布（失去批量合并，但保证送达）
+            overflowCounter.increment();
+            publishBatch(node, Collections.singletonList(event));
+            return;
+        }
+        outbound.offer(new Outbound(node, event));
+    }
+
+    private void publishBatch(String node, List<ClusterEventVo> events) {
+        ClusterEventBatchVo batch = new ClusterEventBatchVo(nodeId, events);
+        if (node == null) {
+            clusterEventBus.publish(batch);
+        } else {
+            clusterEventBus.publish(node, batch);
+        }
+        publishedCounter.increment(events.size());
+    }
+
+    private void onBatch(ClusterEventBatchVo batch) {
+        if (nodeId.equals(batch.getNodeId()) || batch.getEvents() == null) {
+            return;
+        }
+        receivedCounter.increment(batch.getEvents().size());
+        for (ClusterEventVo event : batch.getEvents()) {
+            try {
+                Object[] args = event.getArgs() != null ? event.getArgs().toArray() : new Object[0];
+                if (TYPE_ROOM.equals(event.getType())) {
+                    deliverToRoom(event.getTarget(), event.getEventName(), event.getExcludeClientId(), args);
+                } else if (TYPE_USER.equals(event.getType())) {
+                    deliverToUser(event.getTarget(), event.getEventName(), args);
+                } else {
+                    Consumer<ClusterEventVo> handler = handlers.get(event.getType());
+                    if (handler != null) {
+                        handler.accept(event);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("处理集群事件异常，类型={}，目标={}", event.getType(), event.getTarget(), e);
+            }
+        }
+    }
+
+    private boolean hasLocalMembers(String roomId) {
+        Collection<SocketIOClient> clients = socketIOServer.getRoomOperations(roomId).getClients();
+        return clients != null && !clients.isEmpty();
+    }
+
+    private void deliverToRoom(String roomId, String eventName, String excludeClientId, Object[] args) {
+        Collection<SocketIOClient> clients = socketIOServer.getRoomOperations(roomId).getClients();
+        if (clients == null) {
+            return;
+        }
+        for (SocketIOClient client : clients) {
+            if (client != null && !client.getSessionId().toString().equals(excludeClientId)) {
+                client.sendEvent(eventName, args);
+            }
+        }
+    }
+
+    private boolean deliverToUser(String uid, String eventName, Object[] args) {
+        String clientId = sessionStateRegistry.getClientId(uid);
+        if (clientId == null) {
+            return false;
+        }
+        SocketIOClient client = socketIOServer.getClient(UUID.fromString(clientId));
+        if (client == null) {
+            return false;
+        }
+        client.sendEvent(eventName, args);
+        return true;
+    }
+}
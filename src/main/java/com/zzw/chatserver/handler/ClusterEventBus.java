@@ -0,0 +1,40 @@
+package com.zzw.chatserver.handler;
+
+import com.zzw.chatserver.pojo.vo.ClusterEventBatchVo;
+
+import java.util.function.Consumer;
+
+/**
+ * 集群事件总线
+ * 节点间转发Socket推送的传输层，实现：
+ * - RedisClusterEventBus：Redis发布/订阅（chat.cluster.enabled=true）
+ * - LocalClusterEventBus：进程内实现（单机部署与测试）
+ */
+public interface ClusterEventBus {
+
+    /**
+     * 发布一个事件批次到所有节点
+     * @param batch 事件批次
+     */
+    void publish(ClusterEventBatchVo batch);
+
+    /**
+     * 发布一个事件批次到指定节点（只有该节点的节点频道订阅者会收到）
+     * @param nodeId 目标节点ID
+     * @param batch 事件批次
+     */
+    void publish(String nodeId, ClusterEventBatchVo batch);
+
+    /**
+     * 订阅其他节点发布的事件批次
+     * @param consumer 批次处理逻辑
+     */
+    void subscribe(Consumer<ClusterEventBatchVo> consumer);
+
+    /**
+     * 订阅发往指定节点的事件批次
+     * @param nodeId 本节点ID
+     * @param consumer 批次处理逻辑
+     */
+    void subscribeNode(String nodeId, Consumer<ClusterEventBatchVo> consumer);
+}
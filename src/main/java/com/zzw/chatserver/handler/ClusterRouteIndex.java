@@ -0,0 +1,55 @@
+package com.zzw.chatserver.handler;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * 集群路由索引
+ * 记录用户和房间由哪些节点持有，跨节点推送只发给持有接收者的节点，实现：
+ * - RedisClusterRouteIndex：Redis存储 + 本地短期缓存（chat.cluster.enabled=true）
+ * - LocalClusterRouteIndex：进程内实现（单机部署与测试）
+ */
+public interface ClusterRouteIndex {
+
+    /**
+     * 记录用户连接在指定节点（覆盖旧节点）
+     */
+    void bindUser(String uid, String nodeId);
+
+    /**
+     * 用户已离线：仅当索引中仍是指定节点时删除（已迁移到新节点时保留）
+     */
+    void unbindUser(String uid, String nodeId);
+
+    /**
+     * 查询持有用户连接的节点
+     * @return 节点ID，用户不在任何节点时返回null
+     */
+    String findUserNode(String uid);
+
+    /**
+     * 记录指定节点上有这些房间的成员
+     */
+    void addRoomNode(Collection<String> roomIds, String nodeId);
+
+    /**
+     * 指定节点上已没有这些房间的成员
+     */
+    void removeRoomNode(Collection<String> roomIds, String nodeId);
+
+    /**
+     * 查询有房间成员的节点
+     * @return 节点ID集合（无则为空集合）
+     */
+    Set<String> findRoomNodes(String roomId);
+
+    /**
+     * 丢弃用户路由的本地缓存（其他节点通知路由已变化时调用）
+     */
+    void invalidateUser(String uid);
+
+    /**
+     * 丢弃房间路由的本地缓存（其他节点通知路由已变化时调用）
+     */
+    void invalidateRooms(Collection<String> roomIds);
+}
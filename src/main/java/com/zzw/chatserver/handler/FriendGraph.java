@@ -0,0 +1,311 @@
+package com.zzw.chatserver.handler;
+
+import com.zzw.chatserver.utils.ValidationUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 内存好友关系图
+ * 每个出现在好友关系中的用户分配一个本节点内的稠密整数下标，邻接表为按下标有序、去重的int数组，
+ * 好友判断为一次二分查找，好友列表直接由邻接数组还原，均不访问MongoDB。
+ * - 启动时全量加载goodfriends集合，之后由添加/删除好友实时增量维护（写时复制单个邻接数组）
+ * - 其他节点的变更通过集群总线（Redis发布/订阅）同步；定时全量重建兜底消息丢失，
+ *   重建期间的增量变更先记录，替换后重放，不会被旧快照覆盖
+ * - 加载完成前（或加载失败时）isReady()为false，调用方回退为数据库查询
+ */
+@Component
+@Slf4j
+public class FriendGraph {
+
+    // 集群事件类型：好友关系建立/解除（target=两个uid按字典序以"-"拼接，即单聊房间ID）
+    private static final String CLUSTER_TYPE_ADD = "FRIEND_EDGE_ADD";
+    private static final String CLUSTER_TYPE_REMOVE = "FRIEND_EDGE_REMOVE";
+    private static final int[] EMPTY = new int[0];
+
+    @Resource
+    private MongoTemplate mongoTemplate;
+
+    @Resource
+    private ClusterBroadcaster clusterBroadcaster;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // uid -> 下标
+    private Map<String, Integer> indexByUid = new HashMap<>();
+    // 下标 -> uid
+    private List<String> uidByIndex = new ArrayList<>();
+    // 下标 -> 有序好友下标数组
+    private int[][] adjacency = new int[0][];
+    // 重建期间的增量变更（{是否添加, uidA, uidB}），非重建期间为null
+    private List<Object[]> journal;
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void init() {
+        clusterBroadcaster.registerHandler(CLUSTER_TYPE_ADD, event -> applyRemote(event.getTarget(), true));
+        clusterBroadcaster.registerHandler(CLUSTER_TYPE_REMOVE, event -> applyRemote(event.getTarget(), false));
+        reload();
+    }
+
+    /**
+     * 是否已完成加载（未完成时调用方应回退为数据库查询）
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 两个用户是否为好友
+     */
+    public boolean areFriends(String uidA, String uidB) {
+        if (uidA == null || uidB == null) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            Integer a = indexByUid.get(uidA);
+            Integer b = indexByUid.get(uidB);
+            return a != null && b != null && Arrays.binarySearch(adjacency[a], b) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 用户的全部好友ID
+     */
+    public List<String> getFriendIds(String uid) {
+        if (uid == null) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            Integer index = indexByUid.get(uid);
+            if (index == null) {
+                return Collections.emptyList();
+            }
+            int[] friends = adjacency[index];
+            List<String> friendIds = new ArrayList<>(friends.length);
+            for (int friend : friends) {
+                friendIds.add(uidByIndex.get(friend));
+            }
+            return friendIds;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 建立好友关系（本节点立即生效，并通知其他节点）
+     */
+    public void addFriendship(String uidA, String uidB) {
+        if (apply(uidA, uidB, true)) {
+            clusterBroadcaster.publish(CLUSTER_TYPE_ADD, edgeKey(uidA, uidB), null);
+        }
+    }
+
+    /**
+     * 解除好友关系（本节点立即生效，并通知其他节点）
+     */
+    public void removeFriendship(String uidA, String uidB) {
+        if (apply(uidA, uidB, false)) {
+            clusterBroadcaster.publish(CLUSTER_TYPE_REMOVE, edgeKey(uidA, uidB), null);
+        }
+    }
+
+    /**
+     * 定时从MongoDB全量重建（兜底集群消息丢失）
+     */
+    @Scheduled(fixedDelayString = "${chat.friend-graph.reload-interval-ms:600000}",
+            initialDelayString = "${chat.friend-graph.reload-interval-ms:600000}")
+    public void reload() {
+        lock.writeLock().lock();
+        try {
+            journal = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Map<String, Integer> freshIndex = new HashMap<>();
+        List<String> freshUids = new ArrayList<>();
+        int[][] lists = new int[16][];
+        int[] counts = new int[16];
+        long edges = 0;
+        try {
+            Query query = new Query();
+            query.fields().include("userM").include("userY");
+            try (CloseableIterator<Document> cursor = mongoTemplate.stream(query, Document.class, "goodfriends")) {
+                while (cursor.hasNext()) {
+                    Document relation = cursor.next();
+                    Object userM = relation.get("userM");
+                    Object userY = relation.get("userY");
+                    if (!(userM instanceof ObjectId) || !(userY instanceof ObjectId) || userM.equals(userY)) {
+                        continue;
+                    }
+                    int a = indexOf(userM.toString(), freshIndex, freshUids);
+                    int b = indexOf(userY.toString(), freshIndex, freshUids);
+                    if (freshUids.size() > lists.length) {
+                        int capacity = Math.max(lists.length * 2, freshUids.size());
+                        lists = Arrays.copyOf(lists, capacity);
+                        counts = Arrays.copyOf(counts, capacity);
+                    }
+                    appendTo(lists, counts, a, b);
+                    appendTo(lists, counts, b, a);
+                    edges++;
+                }
+            }
+        } catch (Exception e) {
+            log.error("加载好友关系图异常，保留当前数据", e);
+            lock.writeLock().lock();
+            try {
+                journal = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return;
+        }
+
+        int[][] freshAdjacency = new int[freshUids.size()][];
+        for (int i = 0; i < freshAdjacency.length; i++) {
+            freshAdjacency[i] = lists[i] == null ? EMPTY : sortedDistinct(lists[i], counts[i]);
+        }
+
+        lock.writeLock().lock();
+        try {
+            indexByUid = freshIndex;
+            uidByIndex = freshUids;
+            adjacency = freshAdjacency;
+            List<Object[]> pending = journal;
+            journal = null;
+            for (Object[] change : pending) {
+                applyLocked((String) change[1], (String) change[2], (Boolean) change[0]);
+            }
+            ready = true;
+            log.info("好友关系图加载完成：用户{}个，关系记录{}条，重放增量{}条", freshUids.size(), edges, pending.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void applyRemote(String edgeKey, boolean add) {
+        if (!ValidationUtil.isValidSingleRoomId(edgeKey)) {
+            return;
+        }
+        String[] uids = edgeKey.split("-");
+        apply(uids[0], uids[1], add);
+    }
+
+    private boolean apply(String uidA, String uidB, boolean add) {
+        if (!ValidationUtil.isValidObjectId(uidA) || !ValidationUtil.isValidObjectId(uidB) || uidA.equals(uidB)) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            applyLocked(uidA, uidB, add);
+            if (journal != null) {
+                journal.add(new Object[]{add, uidA, uidB});
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 写锁内修改两个方向的邻接数组（写时复制，读者持有的旧数组不受影响）
+     */
+    private void applyLocked(String uidA, String uidB, boolean add) {
+        if (add) {
+            int a = indexOf(uidA, indexByUid, uidByIndex);
+            int b = indexOf(uidB, indexByUid, uidByIndex);
+            if (uidByIndex.size() > adjacency.length) {
+                int oldLength = adjacency.length;
+                adjacency = Arrays.copyOf(adjacency, Math.max(oldLength * 2, uidByIndex.size()));
+                Arrays.fill(adjacency, oldLength, adjacency.length, EMPTY);
+            }
+            adjacency[a] = insert(adjacency[a], b);
+            adjacency[b] = insert(adjacency[b], a);
+        } else {
+            Integer a = indexByUid.get(uidA);
+            Integer b = indexByUid.get(uidB);
+            if (a != null && b != null) {
+                adjacency[a] = remove(adjacency[a], b);
+                adjacency[b] = remove(adjacency[b], a);
+            }
+        }
+    }
+
+    private static int indexOf(String uid, Map<String, Integer> indexes, List<String> uids) {
+        Integer index = indexes.get(uid);
+        if (index == null) {
+            index = uids.size();
+            indexes.put(uid, index);
+            uids.add(uid);
+        }
+        return index;
+    }
+
+    private static void appendTo(int[][] lists, int[] counts, int owner, int value) {
+        int[] list = lists[owner];
+        if (list == null) {
+            list = new int[4];
+        } else if (counts[owner] == list.length) {
+            list = Arrays.copyOf(list, list.length * 2);
+        }
+        list[counts[owner]++] = value;
+        lists[owner] = list;
+    }
+
+    private static int[] sortedDistinct(int[] values, int count) {
+        int[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return distinct == sorted.length ? sorted : Arrays.copyOf(sorted, distinct);
+    }
+
+    private static int[] insert(int[] values, int value) {
+        int position = Arrays.binarySearch(values, value);
+        if (position >= 0) {
+            return values;
+        }
+        position = -position - 1;
+        int[] result = new int[values.length + 1];
+        System.arraycopy(values, 0, result, 0, position);
+        result[position] = value;
+        System.arraycopy(values, position, result, position + 1, values.length - position);
+        return result;
+    }
+
+    private static int[] remove(int[] values, int value) {
+        int position = Arrays.binarySearch(values, value);
+        if (position < 0) {
+            return values;
+        }
+        if (values.length == 1) {
+            return EMPTY;
+        }
+        int[] result = new int[values.length - 1];
+        System.arraycopy(values, 0, result, 0, position);
+        System.arraycopy(values, position + 1, result, position, values.length - position - 1);
+        return result;
+    }
+
+    private static String edgeKey(String uidA, String uidB) {
+        return uidA.compareTo(uidB) < 0 ? uidA + "-" + uidB : uidB + "-" + uidA;
+    }
+}
@@ -0,0 +1,171 @@
+package com.zzw.chatserver.handler;
+
+import com.zzw.chatserver.pojo.vo.ClientActivityVo;
+import com.zzw.chatserver.service.OnlineUserService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 心跳合并续期器
+ * 心跳事件只在内存中记录客户端最后活跃时间，不访问Redis；
+ * 后台定时任务挑出有新心跳且距上次续期已超过最小间隔的客户端，按批次管道续期，
+ * 续期频率与心跳频率解耦，Redis命令数只与在线客户端数/续期间隔相关
+ */
+@Component
+@Slf4j
+public class HeartbeatCoalescer {
+
+    // 绑定关系过期时间（毫秒）
+    @Value("${chat.heartbeat.expiration-ms:3600000}")
+    private long expirationMs;
+
+    // 同一客户端两次续期的最小间隔（毫秒），须明显小于过期时间
+    @Value("${chat.heartbeat.renew-min-interval-ms:300000}")
+    private long renewMinIntervalMs;
+
+    // 单次管道续期的客户端数
+    @Value("${chat.heartbeat.flush-batch-size:500}")
+    private int flushBatchSize;
+
+    @Resource
+    private OnlineUserService onlineUserService;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentMap<String, ClientActivity> activities = new ConcurrentHashMap<>();
+    private Counter heartbeatCounter;
+    private Counter renewedCounter;
+
+    /**
+     * 客户端活跃状态（uid在绑定时确定，时间戳由心跳线程与续期线程各自更新）
+     */
+    private static final class ClientActivity {
+        private final String uid;
+        private volatile long lastSeen;
+        private volatile long lastRenewed;
+
+        ClientActivity(String uid, long now) {
+            this.uid = uid;
+            this.lastSeen = now;
+            this.lastRenewed = now;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("socket.heartbeat.tracked", activities, Map::size)
+                .description("本节点记录心跳的客户端数")
+                .register(meterRegistry);
+        heartbeatCounter = Counter.builder("socket.heartbeat.received")
+                .description("本节点收到的心跳数")
+                .register(meterRegistry);
+        renewedCounter = Counter.builder("socket.heartbeat.renewed")
+                .description("批量续期的客户端数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 客户端绑定用户后开始记录（绑定时已写入过期时间，视为刚续期）
+     */
+    public void register(String clientId, String uid) {
+        if (clientId == null || uid == null) {
+            return;
+        }
+        activities.put(clientId, new ClientActivity(uid, System.currentTimeMillis()));
+    }
+
+    /**
+     * 记录一次心跳
+     * @return true=已记录，false=本节点无该客户端记录（需回源查询绑定关系）
+     */
+    public boolean touch(String clientId) {
+        ClientActivity activity = clientId == null ? null : activities.get(clientId);
+        if (activity == null) {
+            return false;
+        }
+        activity.lastSeen = System.currentTimeMillis();
+        heartbeatCounter.increment();
+        return true;
+    }
+
+    /**
+     * 客户端下线后停止记录
+     */
+    public void remove(String clientId) {
+        if (clientId != null) {
+            activities.remove(clientId);
+        }
+    }
+
+    /**
+     * 绑定关系过期时间（毫秒）
+     */
+    public long getExpirationMs() {
+        return expirationMs;
+    }
+
+    /**
+     * 定时批量续期
+     * 跳过最近已续期或续期后没有新心跳的客户端；续期失败的客户端保持原状态，下一轮重试
+     */
+    @Scheduled(fixedDelayString = "${chat.heartbeat.flush-interval-ms:5000}")
+    public void flush() {
+        long now = System.currentTimeMillis();
+        List<ClientActivityVo> batch = new ArrayList<>(flushBatchSize);
+        int renewed = 0;
+        for (Map.Entry<String, ClientActivity> entry : activities.entrySet()) {
+            ClientActivity activity = entry.getValue();
+            long lastSeen = activity.lastSeen;
+            if (lastSeen <= activity.lastRenewed || now - activity.lastRenewed < renewMinIntervalMs) {
+                continue;
+            }
+            batch.add(new ClientActivityVo(entry.getKey(), activity.uid, lastSeen));
+            if (batch.size() >= flushBatchSize) {
+                renewed += renewBatch(batch);
+                batch = new ArrayList<>(flushBatchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            renewed += renewBatch(batch);
+        }
+        if (renewed > 0) {
+            log.debug("心跳批量续期完成，续期客户端{}个", renewed);
+        }
+    }
+
+    private int renewBatch(List<ClientActivityVo> batch) {
+        try {
+            List<String> missingClientIds = onlineUserService.renewExpirationBatch(batch, expirationMs);
+            for (ClientActivityVo vo : batch) {
+                ClientActivity activity = activities.get(vo.getClientId());
+                if (activity != null) {
+                    activity.lastRenewed = vo.getLastActiveTime();
+                }
+            }
+            for (String clientId : missingClientIds) {
+                // 绑定关系已被清理（下线或过期清理），不再为其续期
+                activities.remove(clientId);
+                log.warn("客户端[{}]续期失败：绑定关系已不存在", clientId);
+            }
+            int renewed = batch.size() - missingClientIds.size();
+            renewedCounter.increment(renewed);
+            return renewed;
+        } catch (Exception e) {
+            log.error("心跳批量续期异常，批次大小={}", batch.size(), e);
+            return 0;
+        }
+    }
+}
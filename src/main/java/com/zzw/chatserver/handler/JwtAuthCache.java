@@ -0,0 +1,285 @@
+package com.zzw.chatserver.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.zzw.chatserver.auth.entity.AuthPrincipal;
+import com.zzw.chatserver.auth.entity.JwtAuthUser;
+import com.zzw.chatserver.utils.JwtUtils;
+import io.jsonwebtoken.Claims;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JWT认证结果缓存
+ * 已验签的Token及其加载好的UserDetails缓存在本地，直到Token过期（或达到本地最长保留时间），
+ * 命中时既不重复验签也不查询MongoDB。
+ * 缓存按jti索引：查询时只对Token载荷做Base64解码取出jti，再与缓存中已验签的Token原文做常量时间比较，
+ * 原文不一致（伪造或篡改的Token）一律视为未命中；另维护uid -> jti集合的索引，按用户清除时无需扫描整个缓存。
+ * 吊销：按jti写入Redis键 chat:jwt:revoked:{jti}（保留到Token过期），未命中缓存重新验签时检查；
+ * 吊销及用户状态变更（冻结等）同时通过集群总线通知所有节点立即清除本地缓存
+ */
+@Component
+@Slf4j
+public class JwtAuthCache {
+
+    private static final String PREFIX_REVOKED = "chat:jwt:revoked:";
+    // 集群事件类型：吊销Token（target=jti）
+    private static final String CLUSTER_TYPE_REVOKE = "JWT_REVOKE";
+    // 集群事件类型：用户状态变更，清除该用户的全部缓存（target=uid）
+    private static final String CLUSTER_TYPE_USER_EVICT = "JWT_USER_EVICT";
+
+    @Resource(name = "customStringRedisTemplate")
+    private RedisTemplate<String, String> stringRedisTemplate;
+
+    @Resource
+    private ClusterBroadcaster clusterBroadcaster;
+
+    @Resource
+    private JwtUtils jwtUtils;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    // 本地缓存的Token数上限
+    @Value("${chat.jwt-cache.size:100000}")
+    private long cacheSize;
+
+    // 本地最长保留时间（分钟），到期后重新加载用户信息（角色等变化最迟在此时间后生效）
+    @Value("${chat.jwt-cache.max-ttl-minutes:30}")
+    private long maxTtlMinutes;
+
+    // jti -> 认证结果
+    private Cache<String, Entry> cache;
+    // uid -> 该用户已缓存的jti集合
+    private final ConcurrentMap<String, Set<String>> jtisByUid = new ConcurrentHashMap<>();
+
+    /**
+     * 已认证的Token
+     */
+    public static final class Entry {
+        private final String token;
+        private final String jti;
+        private final String uid;
+        private final long expiresAt;
+        private final UserDetails userDetails;
+        private final AuthPrincipal principal;
+
+        private Entry(String token, String jti, String uid, long expiresAt, UserDetails userDetails,
+                      AuthPrincipal principal) {
+            this.token = token;
+            this.jti = jti;
+            this.uid = uid;
+            this.expiresAt = expiresAt;
+            this.userDetails = userDetails;
+            this.principal = principal;
+        }
+
+        public UserDetails getUserDetails() {
+            return userDetails;
+        }
+
+        public AuthPrincipal getPrincipal() {
+            return principal;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(maxTtlMinutes, TimeUnit.MINUTES)
+                .<String, Entry>removalListener(notification -> {
+                    Entry removed = notification.getValue();
+                    if (notification.getCause() != RemovalCause.REPLACED && removed != null && removed.uid != null) {
+                        unindex(removed.uid, removed.jti);
+                    }
+                })
+                .build();
+        clusterBroadcaster.registerHandler(CLUSTER_TYPE_REVOKE, event -> evictLocalByJti(event.getTarget()));
+        clusterBroadcaster.registerHandler(CLUSTER_TYPE_USER_EVICT, event -> evictLocalByUid(event.getTarget()));
+    }
+
+    /**
+     * 认证Token：优先使用缓存，未命中时验签、检查吊销、加载用户信息并写入缓存
+     * （HTTP请求的JWT过滤器与Socket握手共用）
+     * @param token Token原文（不含Bearer前缀）
+     * @param userDetailsService 未命中缓存时加载用户信息
+     * @return 认证结果；Token无效、已吊销或账号不可用时返回null
+     */
+    public Entry authenticate(String token, UserDetailsService userDetailsService) {
+        Entry entry = get(token);
+        if (entry != null) {
+            return entry;
+        }
+        Claims claims = jwtUtils.parseJwt(token);
+        if (claims == null) {
+            log.warn("JWT解析失败，Token无效或已过期：{}", token);
+            return null;
+        }
+        if (isRevoked(claims)) {
+            log.warn("JWT已被吊销，jti：{}", claims.getId());
+            return null;
+        }
+        String userId = claims.get("userId", String.class);
+        String username = claims.get("username", String.class);
+        UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+        if (!userDetails.isEnabled()) {
+            log.warn("账号状态不可用，拒绝JWT认证，用户ID：{}，用户名：{}", userId, username);
+            return null;
+        }
+        log.info("JWT验签并加载用户成功，用户ID：{}，用户名：{}", userId, username);
+        return put(token, claims, userDetails);
+    }
+
+    /**
+     * 查询已缓存的认证结果
+     * @param token Token原文（不含Bearer前缀）
+     * @return 认证结果，未缓存或已过期时返回null
+     */
+    public Entry get(String token) {
+        String jti = peekJti(token);
+        Entry entry = jti != null ? cache.getIfPresent(jti) : null;
+        if (entry == null || !MessageDigest.isEqual(entry.token.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8))) {
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            cache.invalidate(jti);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 缓存验签通过的Token
+     * @param token Token原文
+     * @param claims 验签后的Claims
+     * @param userDetails 加载的用户信息
+     * @return 认证结果
+     */
+    public Entry put(String token, Claims claims, UserDetails userDetails) {
+        AuthPrincipal principal = userDetails instanceof JwtAuthUser
+                ? AuthPrincipal.from((JwtAuthUser) userDetails)
+                : null;
+        String uid = principal != null ? principal.getUid() : claims.get("userId", String.class);
+        long expiresAt = claims.getExpiration() != null ? claims.getExpiration().getTime() : Long.MAX_VALUE;
+        String jti = claims.getId();
+        Entry entry = new Entry(token, jti, uid, expiresAt, userDetails, principal);
+        if (jti == null) {
+            // 没有jti的Token无法索引，不缓存
+            return entry;
+        }
+        if (uid == null) {
+            cache.put(jti, entry);
+            return entry;
+        }
+        Set<String> jtis = jtisByUid.computeIfAbsent(uid, key -> ConcurrentHashMap.newKeySet());
+        jtis.add(jti);
+        cache.put(jti, entry);
+        if (jtisByUid.get(uid) != jtis) {
+            // 写入期间该用户被清除，刚写入的结果可能基于清除前的用户状态
+            cache.invalidate(jti);
+        }
+        return entry;
+    }
+
+    /**
+     * Token是否已被吊销（仅在未命中本地缓存时调用）
+     */
+    public boolean isRevoked(Claims claims) {
+        return claims.getId() != null && Boolean.TRUE.equals(stringRedisTemplate.hasKey(PREFIX_REVOKED + claims.getId()));
+    }
+
+    /**
+     * 吊销Token（退出登录等），所有节点立即失效
+     * @param token Token原文（不含Bearer前缀）
+     */
+    public void revoke(String token) {
+        Claims claims = jwtUtils.parseJwt(token);
+        if (claims == null || claims.getId() == null) {
+            // 无法解析的Token本身就不会通过认证
+            return;
+        }
+        long ttlMillis = claims.getExpiration() != null
+                ? claims.getExpiration().getTime() - System.currentTimeMillis()
+                : TimeUnit.DAYS.toMillis(1);
+        if (ttlMillis > 0) {
+            stringRedisTemplate.opsForValue().set(PREFIX_REVOKED + claims.getId(), "1", ttlMillis, TimeUnit.MILLISECONDS);
+        }
+        cache.invalidate(claims.getId());
+        clusterBroadcaster.publish(CLUSTER_TYPE_REVOKE, claims.getId(), claims.getId());
+        log.debug("吊销Token，jti={}", claims.getId());
+    }
+
+    /**
+     * 用户状态变更后清除该用户的全部认证缓存（所有节点），下次请求重新加载用户信息
+     * @param uid 用户ID
+     */
+    public void evictUser(String uid) {
+        if (uid == null) {
+            return;
+        }
+        evictLocalByUid(uid);
+        clusterBroadcaster.publish(CLUSTER_TYPE_USER_EVICT, uid, uid);
+    }
+
+    private void evictLocalByJti(String jti) {
+        if (jti != null) {
+            cache.invalidate(jti);
+        }
+    }
+
+    private void evictLocalByUid(String uid) {
+        Set<String> jtis = uid != null ? jtisByUid.remove(uid) : null;
+        if (jtis != null) {
+            cache.invalidateAll(jtis);
+        }
+    }
+
+    private void unindex(String uid, String jti) {
+        Set<String> jtis = jtisByUid.get(uid);
+        if (jtis != null) {
+            jtis.remove(jti);
+            if (jtis.isEmpty()) {
+                jtisByUid.remove(uid, jtis);
+            }
+        }
+    }
+
+    /**
+     * 不验签地读取Token载荷中的jti（仅用作缓存键，命中后仍需与已验签的原文比较）
+     */
+    private String peekJti(String token) {
+        if (token == null) {
+            return null;
+        }
+        int first = token.indexOf('.');
+        int second = first < 0 ? -1 : token.indexOf('.', first + 1);
+        if (second < 0) {
+            return null;
+        }
+        try {
+            JsonNode jti = objectMapper.readTree(Base64.getUrlDecoder().decode(token.substring(first + 1, second))).get("jti");
+            return jti != null && jti.isTextual() ? jti.asText() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.zzw.chatserver.handler;
+
+import com.zzw.chatserver.pojo.vo.ClusterEventBatchVo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 进程内集群事件总线
+ * 单机部署时使用：发布的批次同步交给本进程的订阅者（订阅者按节点ID忽略自己发布的批次），
+ * 测试中可在同一进程内创建多个订阅者模拟多节点
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "chat.cluster.enabled", havingValue = "false", matchIfMissing = true)
+public class LocalClusterEventBus implements ClusterEventBus {
+
+    private final List<Consumer<ClusterEventBatchVo>> subscribers = new CopyOnWriteArrayList<>();
+    // 节点ID -> 该节点频道的订阅者
+    private final ConcurrentMap<String, List<Consumer<ClusterEventBatchVo>>> nodeSubscribers = new ConcurrentHashMap<>();
+
+    @Override
+    public void publish(ClusterEventBatchVo batch) {
+        deliver(subscribers, batch);
+    }
+
+    @Override
+    public void publish(String nodeId, ClusterEventBatchVo batch) {
+        List<Consumer<ClusterEventBatchVo>> targets = nodeSubscribers.get(nodeId);
+        if (targets != null) {
+            deliver(targets, batch);
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<ClusterEventBatchVo> consumer) {
+        subscribers.add(consumer);
+    }
+
+    @Override
+    public void subscribeNode(String nodeId, Consumer<ClusterEventBatchVo> consumer) {
+        nodeSubscribers.computeIfAbsent(nodeId, key -> new CopyOnWriteArrayList<>()).add(consumer);
+    }
+
+    private void deliver(List<Consumer<ClusterEventBatchVo>> targets, ClusterEventBatchVo batch) {
+        for (Consumer<ClusterEventBatchVo> subscriber : targets) {
+            try {
+                subscriber.accept(batch);
+            } catch (Exception e) {
+                log.error("处理集群事件批次异常，来源节点={}", batch.getNodeId(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.zzw.chatserver.handler;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 进程内集群路由索引
+ * 单机部署时使用；测试中多个节点共用同一实例模拟共享的Redis索引
+ */
+@Component
+@ConditionalOnProperty(name = "chat.cluster.enabled", havingValue = "false", matchIfMissing = true)
+public class LocalClusterRouteIndex implements ClusterRouteIndex {
+
+    // uid -> 节点ID
+    private final ConcurrentMap<String, String> userNodes = new ConcurrentHashMap<>();
+    // 房间ID -> 节点ID集合
+    private final ConcurrentMap<String, Set<String>> roomNodes = new ConcurrentHashMap<>();
+
+    @Override
+    public void bindUser(String uid, String nodeId) {
+        userNodes.put(uid, nodeId);
+    }
+
+    @Override
+    public void unbindUser(String uid, String nodeId) {
+        userNodes.remove(uid, nodeId);
+    }
+
+    @Override
+    public String findUserNode(String uid) {
+        return userNodes.get(uid);
+    }
+
+    @Override
+    public void addRoomNode(Collection<String> roomIds, String nodeId) {
+        for (String roomId : roomIds) {
+            roomNodes.computeIfAbsent(roomId, key -> ConcurrentHashMap.newKeySet()).add(nodeId);
+        }
+    }
+
+    @Override
+    public void removeRoomNode(Collection<String> roomIds, String nodeId) {
+        for (String roomId : roomIds) {
+            roomNodes.computeIfPresent(roomId, (key, nodes) -> {
+                nodes.remove(nodeId);
+                return nodes.isEmpty() ? null : nodes;
+            });
+        }
+    }
+
+    @Override
+    public Set<String> findRoomNodes(String roomId) {
+        Set<String> nodes = roomNodes.get(roomId);
+        return nodes != null ? new HashSet<>(nodes) : Collections.emptySet();
+    }
+
+    @Override
+    public void invalidateUser(String uid) {
+        // 无本地缓存
+    }
+
+    @Override
+    public void invalidateRooms(Collection<String> roomIds) {
+        // 无本地缓存
+    }
+}
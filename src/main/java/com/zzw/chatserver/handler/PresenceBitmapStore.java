@@ -0,0 +1,350 @@
+package com.zzw.chatserver.handler;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 在线状态位图存储
+ * 每个用户首次上线时分配一个稠密整数下标（uid -> index 哈希，永久不变），
+ * 在线状态保存在Redis位图中（第index位=1表示在线），1000万用户约1.25MB；
+ * 位图的置位/清零由在线绑定Lua脚本原子完成（脚本在session-replicator线程上异步执行），本类负责：
+ * - 本地镜像：定时拉取整个位图，在线判断与批量过滤都是本地位运算
+ * - 本地覆盖层：本节点（及集群广播来的）上下线变化先记入覆盖层，读取时优先于镜像；
+ *   镜像刷新不会清掉覆盖层，只有在对应脚本已写入Redis、且写入之后才发起的一次刷新完成时才移除该条目，
+ *   避免刷新读到脚本执行前的旧位图而把刚上线的用户"刷成"离线
+ * - 下标缓存：uid -> index 只增不改，可放心本地缓存；
+ *   尚未分配下标的uid也短暂缓存（视为离线），避免对从未上线的用户每次判断都访问Redis
+ * 其他节点的上下线变化在下一次镜像刷新后可见（chat.presence.bitmap-refresh-ms）
+ */
+@Component
+@Slf4j
+public class PresenceBitmapStore {
+
+    // 在线位图
+    public static final String KEY_ONLINE_BITMAP = "chat:online:bitmap";
+    // uid -> 位图下标
+    public static final String KEY_UID_TO_INDEX = "chat:presence:uid:index";
+    // 位图下标 -> uid
+    public static final String KEY_INDEX_TO_UID = "chat:presence:index:uid";
+    // 位图下标分配序列
+    public static final String KEY_INDEX_SEQ = "chat:presence:index:seq";
+    // uid -> 在线状态版本号（由绑定/清理脚本在每次上下线翻转时递增）
+    public static final String KEY_PRESENCE_VERSION = "chat:presence:version";
+
+    @Resource(name = "customStringRedisTemplate")
+    private RedisTemplate<String, String> stringRedisTemplate;
+
+    // uid -> 下标 本地缓存的最大条目数
+    @Value("${chat.presence.index-cache-size:1000000}")
+    private long indexCacheSize;
+
+    // 未分配下标的uid缓存时间（毫秒），与镜像刷新间隔同量级，其他节点的首次上线在此之后可见
+    @Value("${chat.presence.missing-index-ttl-ms:2000}")
+    private long missingIndexTtlMs;
+
+    private Cache<String, Integer> indexCache;
+    private Cache<String, Boolean> missingIndexCache;
+    private final ReentrantReadWriteLock mirrorLock = new ReentrantReadWriteLock();
+    private BitSet mirror = new BitSet();
+    // 尚未被镜像刷新确认的本地上下线变化
+    private final ConcurrentMap<String, LocalChange> overlay = new ConcurrentHashMap<>();
+    // 镜像刷新序号，每次发起GET前递增
+    private final AtomicLong refreshEpoch = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        indexCache = CacheBuilder.newBuilder().maximumSize(indexCacheSize).build();
+        missingIndexCache = CacheBuilder.newBuilder()
+                .maximumSize(indexCacheSize)
+                .expireAfterWrite(missingIndexTtlMs, TimeUnit.MILLISECONDS)
+                .build();
+        refreshMirror();
+    }
+
+    /**
+     * 定时用Redis位图覆盖本地镜像
+     */
+    @Scheduled(fixedDelayString = "${chat.presence.bitmap-refresh-ms:2000}")
+    public void refreshMirror() {
+        long started = refreshEpoch.incrementAndGet();
+        try {
+            byte[] bitmap = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                    connection.get(KEY_ONLINE_BITMAP.getBytes(StandardCharsets.UTF_8)));
+            BitSet fresh = fromRedisBitmap(bitmap);
+            mirrorLock.writeLock().lock();
+            try {
+                mirror = fresh;
+            } finally {
+                mirrorLock.writeLock().unlock();
+            }
+            // 本次GET发起前已写入Redis的变化已包含在新镜像中，可以移除
+            for (Map.Entry<String, LocalChange> entry : overlay.entrySet()) {
+                long confirmed = entry.getValue().confirmedEpoch;
+                if (confirmed >= 0 && confirmed < started) {
+                    overlay.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (Exception e) {
+            log.error("刷新在线位图镜像异常", e);
+        }
+    }
+
+    /**
+     * 本节点用户上线，立即记入覆盖层（Redis位图稍后由异步执行的绑定脚本置位）
+     *
+     * @return 本次变化，脚本执行完成后交给 {@link #confirmReplicated}
+     */
+    public LocalChange markOnline(String uid) {
+        return recordChange(uid, true);
+    }
+
+    /**
+     * 本节点用户下线，立即记入覆盖层（Redis位图稍后由异步执行的清理脚本清零）
+     *
+     * @return 本次变化，脚本执行完成后交给 {@link #confirmReplicated}
+     */
+    public LocalChange markOffline(String uid) {
+        return recordChange(uid, false);
+    }
+
+    /**
+     * 对应的Redis脚本已执行完成：此后发起的镜像刷新会读到该变化，届时从覆盖层移除
+     * 若期间该uid又有新的变化，旧变化的确认不影响新变化
+     */
+    public void confirmReplicated(String uid, LocalChange change) {
+        if (uid != null && change != null && overlay.get(uid) == change) {
+            change.confirmedEpoch = refreshEpoch.get();
+        }
+    }
+
+    /**
+     * 撤销尚未被新变化覆盖的本地变化，该uid的在线状态回到以镜像为准
+     */
+    public void discard(String uid, LocalChange change) {
+        if (uid != null && change != null) {
+            overlay.remove(uid, change);
+        }
+    }
+
+    /**
+     * 其他节点广播来的上下线变化：对方已写入Redis，按已确认记入覆盖层，下一次刷新后以镜像为准
+     */
+    public void applyRemote(String uid, boolean online) {
+        confirmReplicated(uid, recordChange(uid, online));
+    }
+
+    /**
+     * 判断用户是否在线（本地位运算）
+     */
+    public boolean isOnline(String uid) {
+        if (uid == null) {
+            return false;
+        }
+        LocalChange change = overlay.get(uid);
+        if (change != null) {
+            return change.online;
+        }
+        Integer index = findIndex(uid, true);
+        if (index == null) {
+            // 从未上线过的用户没有下标
+            return false;
+        }
+        mirrorLock.readLock().lock();
+        try {
+            return mirror.get(index);
+        } finally {
+            mirrorLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 批量过滤出在线的用户（下标缓存未命中的部分一次HMGET补齐）
+     */
+    public Set<String> filterOnline(Collection<String> uids) {
+        if (uids == null || uids.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> online = new HashSet<>();
+        List<String> rest = new ArrayList<>(uids.size());
+        for (String uid : uids) {
+            if (uid == null) {
+                continue;
+            }
+            LocalChange change = overlay.get(uid);
+            if (change == null) {
+                rest.add(uid);
+            } else if (change.online) {
+                online.add(uid);
+            }
+        }
+        if (rest.isEmpty()) {
+            return online;
+        }
+        Map<String, Integer> indexes = findIndexes(rest);
+        mirrorLock.readLock().lock();
+        try {
+            for (Map.Entry<String, Integer> entry : indexes.entrySet()) {
+                if (mirror.get(entry.getValue())) {
+                    online.add(entry.getKey());
+                }
+            }
+        } finally {
+            mirrorLock.readLock().unlock();
+        }
+        return online;
+    }
+
+    /**
+     * 在线用户数（Redis BITCOUNT，全局准确值）
+     */
+    public int countOnline() {
+        Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.bitCount(KEY_ONLINE_BITMAP.getBytes(StandardCharsets.UTF_8)));
+        return count != null ? count.intValue() : 0;
+    }
+
+    /**
+     * 全部在线用户ID（遍历镜像置位下标，再按批次HMGET反查uid）
+     */
+    public Set<String> getOnlineUids() {
+        List<String> indexFields = new ArrayList<>();
+        mirrorLock.readLock().lock();
+        try {
+            for (int i = mirror.nextSetBit(0); i >= 0; i = mirror.nextSetBit(i + 1)) {
+                indexFields.add(String.valueOf(i));
+            }
+        } finally {
+            mirrorLock.readLock().unlock();
+        }
+        Set<String> uids = new HashSet<>(indexFields.size());
+        for (int from = 0; from < indexFields.size(); from += 1000) {
+            List<Object> fields = new ArrayList<>(indexFields.subList(from, Math.min(from + 1000, indexFields.size())));
+            List<Object> values = stringRedisTemplate.opsForHash().multiGet(KEY_INDEX_TO_UID, fields);
+            for (Object value : values) {
+                if (value != null) {
+                    uids.add(value.toString());
+                }
+            }
+        }
+        for (Map.Entry<String, LocalChange> entry : overlay.entrySet()) {
+            if (entry.getValue().online) {
+                uids.add(entry.getKey());
+            } else {
+                uids.remove(entry.getKey());
+            }
+        }
+        return uids;
+    }
+
+    private LocalChange recordChange(String uid, boolean online) {
+        if (uid == null) {
+            return null;
+        }
+        LocalChange change = new LocalChange(online);
+        overlay.put(uid, change);
+        // 首次上线的用户下标由绑定脚本分配，覆盖层移除后需重新查询，不能沿用"未分配"缓存
+        missingIndexCache.invalidate(uid);
+        return change;
+    }
+
+    /**
+     * 覆盖层中的一次上下线变化
+     */
+    public static final class LocalChange {
+        private final boolean online;
+        // 脚本执行完成时的刷新序号，-1表示尚未写入Redis
+        // （写入失败时保持-1，本节点的判断比Redis副本更准确，直到该uid发生下一次变化）
+        private volatile long confirmedEpoch = -1;
+
+        private LocalChange(boolean online) {
+            this.online = online;
+        }
+    }
+
+    /**
+     * @param useMissingCache 是否使用（并写入）未分配下标的缓存
+     */
+    private Integer findIndex(String uid, boolean useMissingCache) {
+        if (uid == null) {
+            return null;
+        }
+        Integer index = indexCache.getIfPresent(uid);
+        if (index != null) {
+            return index;
+        }
+        if (useMissingCache && missingIndexCache.getIfPresent(uid) != null) {
+            return null;
+        }
+        Object value = stringRedisTemplate.opsForHash().get(KEY_UID_TO_INDEX, uid);
+        if (value == null) {
+            if (useMissingCache) {
+                missingIndexCache.put(uid, Boolean.TRUE);
+            }
+            return null;
+        }
+        index = Integer.valueOf(value.toString());
+        indexCache.put(uid, index);
+        missingIndexCache.invalidate(uid);
+        return index;
+    }
+
+    private Map<String, Integer> findIndexes(Collection<String> uids) {
+        Map<String, Integer> indexes = new HashMap<>(uids.size());
+        List<Object> missing = new ArrayList<>();
+        for (String uid : uids) {
+            if (uid == null) {
+                continue;
+            }
+            Integer index = indexCache.getIfPresent(uid);
+            if (index != null) {
+                indexes.put(uid, index);
+            } else if (missingIndexCache.getIfPresent(uid) == null) {
+                missing.add(uid);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<Object> values = stringRedisTemplate.opsForHash().multiGet(KEY_UID_TO_INDEX, missing);
+            for (int i = 0; i < missing.size() && i < values.size(); i++) {
+                String uid = missing.get(i).toString();
+                if (values.get(i) != null) {
+                    Integer index = Integer.valueOf(values.get(i).toString());
+                    indexCache.put(uid, index);
+                    indexes.put(uid, index);
+                } else {
+                    missingIndexCache.put(uid, Boolean.TRUE);
+                }
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Redis位图按字节从高位到低位编号（第0位是首字节最高位），BitSet.valueOf按低位优先，需逐字节翻转
+     */
+    private static BitSet fromRedisBitmap(byte[] bitmap) {
+        if (bitmap == null || bitmap.length == 0) {
+            return new BitSet();
+        }
+        byte[] reversed = new byte[bitmap.length];
+        for (int i = 0; i < bitmap.length; i++) {
+            reversed[i] = (byte) (Integer.reverse(bitmap[i] & 0xff) >>> 24);
+        }
+        return BitSet.valueOf(reversed);
+    }
+}
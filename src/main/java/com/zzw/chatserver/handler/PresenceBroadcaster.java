@@ -0,0 +1,203 @@
+package com.zzw.chatserver.handler;
+
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.SocketIOServer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.zzw.chatserver.pojo.vo.ClusterEventVo;
+import com.zzw.chatserver.pojo.vo.PresenceDeltaVo;
+import com.zzw.chatserver.pojo.vo.PresenceSnapshotVo;
+import com.zzw.chatserver.service.OnlineUserService;
+import com.zzw.chatserver.service.PresenceAudienceService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 在线状态增量推送
+ * 上线/下线只记录到待推送表（同一用户在一个窗口内多次变化只保留最后状态），
+ * 定时任务每个防抖窗口合并成presenceDelta事件推送；
+ * 推送范围限定为变化用户的好友和同群成员（PresenceAudienceService），
+ * 按接收者合并后每个接收者每个窗口最多收到一条事件，代价为O(变化用户的关系数)；
+ * 需要全量时由客户端发送presenceSnapshot事件按需获取（同样只包含其关系范围内的在线用户）；
+ * 集群模式下每个窗口的状态变化整体发布一次，各节点只为自己持有的接收者计算并推送；
+ * 每次变化带有绑定/清理脚本在Redis中分配的per-uid版本号（每次上下线翻转递增），
+ * 本地记录与其他节点发布的变化都只接受比已见版本更新的状态，
+ * 旧节点迟到的下线不会覆盖新节点已发布的上线
+ */
+@Component
+@Slf4j
+public class PresenceBroadcaster {
+
+    public static final String EVENT_PRESENCE_DELTA = "presenceDelta";
+    public static final String EVENT_PRESENCE_SNAPSHOT = "presenceSnapshot";
+    // 集群事件类型：一个窗口内的状态变化（uid -> 带符号的版本号，正数=上线，负数=下线）
+    private static final String CLUSTER_TYPE_PRESENCE = "PRESENCE";
+
+    @Resource
+    private SocketIOServer socketIOServer;
+    @Resource
+    private OnlineUserService onlineUserService;
+    @Resource
+    private PresenceAudienceService presenceAudienceService;
+    @Resource
+    private SessionStateRegistry sessionStateRegistry;
+    @Resource
+    private ClusterBroadcaster clusterBroadcaster;
+    @Resource
+    private PresenceBitmapStore presenceBitmapStore;
+
+    // 已见版本号本地缓存的最大条目数（淘汰后该用户的下一次变化总会被接受）
+    @Value("${chat.presence.version-cache-size:1000000}")
+    private long versionCacheSize;
+
+    // uid -> 待推送的最新状态（带符号的版本号，正数=上线，负数=下线）
+    private final ConcurrentMap<String, Long> pending = new ConcurrentHashMap<>();
+    // uid -> 已接受的最高版本号
+    private Cache<String, Long> versions;
+
+    @PostConstruct
+    public void init() {
+        versions = CacheBuilder.newBuilder().maximumSize(versionCacheSize).build();
+        clusterBroadcaster.registerHandler(CLUSTER_TYPE_PRESENCE, this::onClusterPresence);
+    }
+
+    /**
+     * 记录用户上线
+     * @param version 绑定脚本分配的在线状态版本号
+     */
+    public void markOnline(String uid, long version) {
+        if (uid != null && accept(uid, version)) {
+            pending.put(uid, version);
+        }
+    }
+
+    /**
+     * 记录用户下线
+     * @param version 清理脚本分配的在线状态版本号
+     */
+    public void markOffline(String uid, long version) {
+        if (uid != null && accept(uid, version)) {
+            pending.put(uid, -version);
+        }
+    }
+
+    /**
+     * 生成指定用户可见范围内的在线快照
+     * @param uid 请求快照的用户ID
+     */
+    public PresenceSnapshotVo snapshot(String uid) {
+        long timestamp = System.currentTimeMillis();
+        Set<String> online = onlineUserService.filterOnlineUids(presenceAudienceService.getAudience(uid));
+        return new PresenceSnapshotVo(new ArrayList<>(online), timestamp);
+    }
+
+    /**
+     * 按防抖窗口合并推送增量
+     */
+    @Scheduled(fixedDelayString = "${chat.presence.debounce-ms:300}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, Long> changes = new HashMap<>();
+        for (Map.Entry<String, Long> entry : pending.entrySet()) {
+            // 按值移除，推送期间又发生的变化保留到下一个窗口
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        clusterBroadcaster.publish(CLUSTER_TYPE_PRESENCE, null, changes);
+        deliver(changes);
+    }
+
+    /**
+     * 其他节点发布的状态变化：丢弃不比已见版本新的变化，其余同步本地位图镜像并推送给本节点的接收者
+     */
+    @SuppressWarnings("unchecked")
+    private void onClusterPresence(ClusterEventVo event) {
+        // 经JSON传输后数值可能被解析为Integer或Long
+        Map<String, Number> received = (Map<String, Number>) event.getArgs().get(0);
+        Map<String, Long> changes = new HashMap<>();
+        for (Map.Entry<String, Number> entry : received.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                continue;
+            }
+            long signedVersion = entry.getValue().longValue();
+            if (accept(entry.getKey(), Math.abs(signedVersion))) {
+                presenceBitmapStore.applyRemote(entry.getKey(), signedVersion > 0);
+                changes.put(entry.getKey(), signedVersion);
+            }
+        }
+        if (!changes.isEmpty()) {
+            deliver(changes);
+        }
+    }
+
+    /**
+     * 版本号比该用户已接受的最高版本新时记录并返回true
+     */
+    private boolean accept(String uid, long version) {
+        if (version <= 0) {
+            return false;
+        }
+        boolean[] accepted = new boolean[1];
+        versions.asMap().compute(uid, (key, seen) -> {
+            if (seen != null && seen >= version) {
+                return seen;
+            }
+            accepted[0] = true;
+            return version;
+        });
+        return accepted[0];
+    }
+
+    private void deliver(Map<String, Long> changes) {
+        // 接收者uid -> 该接收者可见的增量
+        Map<String, PresenceDeltaVo> deltas = new HashMap<>();
+        long timestamp = System.currentTimeMillis();
+        for (Map.Entry<String, Long> entry : changes.entrySet()) {
+            String uid = entry.getKey();
+            boolean online = entry.getValue() > 0;
+            try {
+                for (String recipient : presenceAudienceService.getAudience(uid)) {
+                    // 只推送给连接在本节点的接收者
+                    if (sessionStateRegistry.get(recipient) == null) {
+                        continue;
+                    }
+                    PresenceDeltaVo delta = deltas.computeIfAbsent(recipient,
+                            key -> new PresenceDeltaVo(new ArrayList<>(), new ArrayList<>(), timestamp));
+                    (online ? delta.getOnline() : delta.getOffline()).add(uid);
+                }
+            } catch (Exception e) {
+                log.error("计算用户{}的在线状态推送范围异常", uid, e);
+            }
+        }
+
+        for (Map.Entry<String, PresenceDeltaVo> entry : deltas.entrySet()) {
+            SessionStateRegistry.SessionState state = sessionStateRegistry.get(entry.getKey());
+            if (state == null) {
+                continue;
+            }
+            try {
+                SocketIOClient client = socketIOServer.getClient(UUID.fromString(state.getClientId()));
+                if (client != null) {
+                    client.sendEvent(EVENT_PRESENCE_DELTA, entry.getValue());
+                }
+            } catch (Exception e) {
+                log.error("推送在线状态增量异常，接收者={}", entry.getKey(), e);
+            }
+        }
+        log.debug("推送在线状态增量，接收者{}个", deltas.size());
+    }
+}
@@ -0,0 +1,355 @@
+package com.zzw.chatserver.handler;
+
+import com.zzw.chatserver.pojo.vo.ReadWatermarkVo;
+import com.zzw.chatserver.service.ReadStateService;
+import com.zzw.chatserver.service.UnreadCounterService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 已读确认聚合器
+ * confirmReceive只把消息ID按用户合并到内存缓冲区（重复、重叠的ID自然去重），
+ * 后台按固定窗口统一处理：单聊、群聊各一次按_id回表校验归属，每个(用户, 房间)取最大消息ID，
+ * 最后以一次无序bulkWrite推进所有已读水位，并用一次聚合刷新受影响房间的未读计数；缓冲区满时由调用方回退为同步处理。
+ * 服务端自身产生的已读（如接收者在线时收到的新消息）归属已知，直接按水位缓冲，不回表校验。
+ * 回表查不到的消息ID（仍在WAL队列中尚未落库）以及写入失败的整批确认会合并回缓冲区，
+ * 在重试窗口内由后续轮次重试，超出窗口后丢弃
+ */
+@Component
+@Slf4j
+public class ReadAckAggregator {
+
+    // 缓冲区最多容纳的消息ID数，超出时拒绝缓冲
+    @Value("${chat.read-ack.max-pending-ids:200000}")
+    private int maxPendingIds;
+
+    // 单次回表查询的消息ID数
+    @Value("${chat.read-ack.query-batch-size:1000}")
+    private int queryBatchSize;
+
+    // 确认的重试窗口（毫秒）：自首次提交起超过该时间仍未能写入的确认被丢弃，应大于WAL落库延迟
+    @Value("${chat.read-ack.retry-window-ms:10000}")
+    private long retryWindowMs;
+
+    @Resource
+    private MongoTemplate mongoTemplate;
+    @Resource
+    private ReadStateService readStateService;
+    @Resource
+    private UnreadCounterService unreadCounterService;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentMap<String, PendingAck> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingIds = new AtomicInteger();
+    private DistributionSummary flushSizeSummary;
+    private Timer flushLagTimer;
+    private Counter failedCounter;
+    private Counter droppedCounter;
+
+    /**
+     * 单个用户待处理的已读确认（只在ConcurrentHashMap.compute内修改）
+     */
+    private static final class PendingAck {
+        private long firstSubmitted = System.currentTimeMillis();
+        private final Set<ObjectId> singleIds = new HashSet<>();
+        private final Map<String, Set<ObjectId>> groupIds = new HashMap<>();
+        // 已确认归属的水位：房间ID -> 已读到的消息
+        private final Map<String, ReadWatermarkVo> watermarks = new HashMap<>();
+    }
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("readack.pending.ids", pendingIds, AtomicInteger::get)
+                .description("已读确认缓冲区中的消息ID数")
+                .register(meterRegistry);
+        flushSizeSummary = DistributionSummary.builder("readack.flush.size")
+                .description("单次批量写入的已读水位数")
+                .register(meterRegistry);
+        flushLagTimer = Timer.builder("readack.flush.lag")
+                .description("已读确认从提交到写入MongoDB的延迟")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("readack.flush.failed")
+                .description("批量写入失败的已读确认用户数")
+                .register(meterRegistry);
+        droppedCounter = Counter.builder("readack.dropped")
+                .description("超出重试窗口仍未能写入而丢弃的已读确认用户数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 提交已读确认
+     * @param uid 确认的用户
+     * @param singleMessageIds 单聊消息ID
+     * @param groupMessageIds 房间ID -> 群聊消息ID
+     * @return true=已缓冲，false=缓冲区已满（调用方需同步处理）
+     */
+    public boolean submit(String uid, List<String> singleMessageIds, Map<String, List<String>> groupMessageIds) {
+        if (pendingIds.get() >= maxPendingIds) {
+            return false;
+        }
+        pending.compute(uid, (key, ack) -> {
+            PendingAck target = ack != null ? ack : new PendingAck();
+            if (singleMessageIds != null) {
+                for (String id : singleMessageIds) {
+                    if (id != null && ObjectId.isValid(id) && target.singleIds.add(new ObjectId(id))) {
+                        pendingIds.incrementAndGet();
+                    }
+                }
+            }
+            if (groupMessageIds != null) {
+                for (Map.Entry<String, List<String>> entry : groupMessageIds.entrySet()) {
+                    if (entry.getKey() == null || entry.getValue() == null) {
+                        continue;
+                    }
+                    Set<ObjectId> roomIds = target.groupIds.computeIfAbsent(entry.getKey(), room -> new HashSet<>());
+                    for (String id : entry.getValue()) {
+                        if (id != null && ObjectId.isValid(id) && roomIds.add(new ObjectId(id))) {
+                            pendingIds.incrementAndGet();
+                        }
+                    }
+                }
+            }
+            return target;
+        });
+        return true;
+    }
+
+    /**
+     * 提交已确认归属的已读水位（无需回表校验，也不影响未读计数）
+     * @param uid 用户ID
+     * @param roomId 房间ID
+     * @param watermark 已读到的消息
+     * @return true=已缓冲，false=缓冲区已满（调用方需同步处理）
+     */
+    public boolean submitWatermark(String uid, String roomId, ReadWatermarkVo watermark) {
+        if (uid == null || roomId == null || watermark == null || watermark.getMessageId() == null) {
+            return true;
+        }
+        if (pendingIds.get() >= maxPendingIds) {
+            return false;
+        }
+        pending.compute(uid, (key, ack) -> {
+            PendingAck target = ack != null ? ack : new PendingAck();
+            if (!target.watermarks.containsKey(roomId)) {
+                pendingIds.incrementAndGet();
+            }
+            target.watermarks.merge(roomId, watermark, ReadWatermarkVo::later);
+            return target;
+        });
+        return true;
+    }
+
+    /**
+     * 定时批量处理缓冲的已读确认
+     */
+    @Scheduled(fixedDelayString = "${chat.read-ack.flush-interval-ms:200}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        // 逐个移除，移除之后的新确认进入新的缓冲条目，由下一轮处理
+        Map<String, PendingAck> drained = new HashMap<>();
+        for (String uid : new ArrayList<>(pending.keySet())) {
+            PendingAck ack = pending.remove(uid);
+            if (ack != null) {
+                drained.put(uid, ack);
+                pendingIds.addAndGet(-(ack.singleIds.size() + ack.watermarks.size()
+                        + ack.groupIds.values().stream().mapToInt(Set::size).sum()));
+            }
+        }
+        if (drained.isEmpty()) {
+            return;
+        }
+
+        try {
+            Map<String, Map<String, ReadWatermarkVo>> watermarks = new HashMap<>();
+            Map<String, PendingAck> unresolved = new HashMap<>();
+            resolveSingle(drained, watermarks, unresolved);
+            resolveGroup(drained, watermarks, unresolved);
+            // 只有客户端确认的(用户, 房间)需要刷新未读计数，已确认归属的水位不影响未读数
+            Map<String, Set<String>> refreshRooms = new HashMap<>();
+            for (Map.Entry<String, Map<String, ReadWatermarkVo>> userEntry : watermarks.entrySet()) {
+                refreshRooms.put(userEntry.getKey(), new HashSet<>(userEntry.getValue().keySet()));
+            }
+            for (Map.Entry<String, PendingAck> entry : drained.entrySet()) {
+                for (Map.Entry<String, ReadWatermarkVo> room : entry.getValue().watermarks.entrySet()) {
+                    advance(watermarks, entry.getKey(), room.getKey(), room.getValue());
+                }
+            }
+            int written = readStateService.markReadBatch(watermarks);
+            flushSizeSummary.record(written);
+
+            long now = System.currentTimeMillis();
+            for (PendingAck ack : drained.values()) {
+                flushLagTimer.record(now - ack.firstSubmitted, TimeUnit.MILLISECONDS);
+            }
+            unreadCounterService.refreshBatch(refreshRooms);
+            log.debug("已读确认批量写入完成：用户{}个，水位{}条，待重试{}个", drained.size(), written, unresolved.size());
+            // 水位已写入，只有查不到的消息ID留待下一轮
+            drained = unresolved;
+        } catch (Exception e) {
+            failedCounter.increment(drained.size());
+            log.error("已读确认批量写入异常，用户数={}", drained.size(), e);
+        }
+        requeue(drained);
+    }
+
+    /**
+     * 将未能写入的确认合并回缓冲区，超出重试窗口的丢弃
+     */
+    private void requeue(Map<String, PendingAck> retries) {
+        long expireBefore = System.currentTimeMillis() - retryWindowMs;
+        for (Map.Entry<String, PendingAck> entry : retries.entrySet()) {
+            PendingAck retry = entry.getValue();
+            if (retry.firstSubmitted < expireBefore) {
+                droppedCounter.increment();
+                log.debug("用户{}的已读确认超出重试窗口，已丢弃", entry.getKey());
+                continue;
+            }
+            pending.compute(entry.getKey(), (key, ack) -> {
+                PendingAck target = ack != null ? ack : new PendingAck();
+                target.firstSubmitted = Math.min(target.firstSubmitted, retry.firstSubmitted);
+                for (ObjectId id : retry.singleIds) {
+                    if (target.singleIds.add(id)) {
+                        pendingIds.incrementAndGet();
+                    }
+                }
+                for (Map.Entry<String, Set<ObjectId>> room : retry.groupIds.entrySet()) {
+                    Set<ObjectId> roomIds = target.groupIds.computeIfAbsent(room.getKey(), r -> new HashSet<>());
+                    for (ObjectId id : room.getValue()) {
+                        if (roomIds.add(id)) {
+                            pendingIds.incrementAndGet();
+                        }
+                    }
+                }
+                for (Map.Entry<String, ReadWatermarkVo> room : retry.watermarks.entrySet()) {
+                    if (!target.watermarks.containsKey(room.getKey())) {
+                        pendingIds.incrementAndGet();
+                    }
+                    target.watermarks.merge(room.getKey(), room.getValue(), ReadWatermarkVo::later);
+                }
+                return target;
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * 单聊：回表取roomId与receiverId，只认接收者是确认用户的消息；查不到的ID放入unresolved待重试
+     */
+    private void resolveSingle(Map<String, PendingAck> drained, Map<String, Map<String, ReadWatermarkVo>> watermarks,
+                               Map<String, PendingAck> unresolved) {
+        List<ObjectId> ids = new ArrayList<>();
+        for (PendingAck ack : drained.values()) {
+            ids.addAll(ack.singleIds);
+        }
+        Set<ObjectId> found = new HashSet<>();
+        for (Document message : findByIds(ids, "singlemessages", "receiverId")) {
+            ObjectId id = message.getObjectId("_id");
+            found.add(id);
+            String receiverId = message.getString("receiverId");
+            PendingAck ack = receiverId == null ? null : drained.get(receiverId);
+            if (ack != null && ack.singleIds.contains(id)) {
+                advance(watermarks, receiverId, message.getString("roomId"), toWatermark(message));
+            }
+        }
+        for (Map.Entry<String, PendingAck> entry : drained.entrySet()) {
+            for (ObjectId id : entry.getValue().singleIds) {
+                if (!found.contains(id)) {
+                    unresolvedOf(unresolved, entry).singleIds.add(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * 群聊：回表取roomId，只认确实属于确认时声明的房间的消息；查不到的ID放入unresolved待重试
+     */
+    private void resolveGroup(Map<String, PendingAck> drained, Map<String, Map<String, ReadWatermarkVo>> watermarks,
+                              Map<String, PendingAck> unresolved) {
+        List<ObjectId> ids = new ArrayList<>();
+        for (PendingAck ack : drained.values()) {
+            for (Set<ObjectId> roomIds : ack.groupIds.values()) {
+                ids.addAll(roomIds);
+            }
+        }
+        Map<ObjectId, Document> messageById = new HashMap<>();
+        for (Document message : findByIds(ids, "groupmessages", null)) {
+            messageById.put(message.getObjectId("_id"), message);
+        }
+        for (Map.Entry<String, PendingAck> entry : drained.entrySet()) {
+            for (Map.Entry<String, Set<ObjectId>> room : entry.getValue().groupIds.entrySet()) {
+                for (ObjectId id : room.getValue()) {
+                    Document message = messageById.get(id);
+                    if (message == null) {
+                        unresolvedOf(unresolved, entry).groupIds
+                                .computeIfAbsent(room.getKey(), key -> new HashSet<>()).add(id);
+                    } else if (room.getKey().equals(message.getString("roomId"))) {
+                        advance(watermarks, entry.getKey(), room.getKey(), toWatermark(message));
+                    }
+                }
+            }
+        }
+    }
+
+    private PendingAck unresolvedOf(Map<String, PendingAck> unresolved, Map.Entry<String, PendingAck> entry) {
+        return unresolved.computeIfAbsent(entry.getKey(), key -> {
+            PendingAck retry = new PendingAck();
+            retry.firstSubmitted = entry.getValue().firstSubmitted;
+            return retry;
+        });
+    }
+
+    private List<Document> findByIds(List<ObjectId> ids, String collection, String extraField) {
+        List<Document> result = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += queryBatchSize) {
+            List<ObjectId> batch = ids.subList(from, Math.min(from + queryBatchSize, ids.size()));
+            Query query = Query.query(Criteria.where("_id").in(batch));
+            query.fields().include("roomId").include("seq");
+            if (extraField != null) {
+                query.fields().include(extraField);
+            }
+            result.addAll(mongoTemplate.find(query, Document.class, collection));
+        }
+        return result;
+    }
+
+    private void advance(Map<String, Map<String, ReadWatermarkVo>> watermarks, String uid, String roomId,
+                         ReadWatermarkVo watermark) {
+        if (roomId == null) {
+            return;
+        }
+        watermarks.computeIfAbsent(uid, key -> new HashMap<>()).merge(roomId, watermark, ReadWatermarkVo::later);
+    }
+
+    private static ReadWatermarkVo toWatermark(Document message) {
+        Object seq = message.get("seq");
+        return new ReadWatermarkVo(message.getObjectId("_id"), seq instanceof Number ? ((Number) seq).longValue() : null);
+    }
+}
@@ -0,0 +1,86 @@
+package com.zzw.chatserver.handler;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zzw.chatserver.pojo.vo.ClusterEventBatchVo;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.function.Consumer;
+
+/**
+ * 基于Redis发布/订阅的集群事件总线（Redisson RTopic）
+ * 批次按JSON字符串发布，事件参数在接收端还原为Map/List后原样推送给客户端；
+ * 除全体节点共用的频道外，每个节点另有自己的节点频道（频道名:node:节点ID），定向事件只发布到目标节点
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "chat.cluster.enabled", havingValue = "true")
+public class RedisClusterEventBus implements ClusterEventBus {
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    // 发布/订阅频道
+    @Value("${chat.cluster.channel:chat:cluster:events}")
+    private String channel;
+
+    private RTopic topic;
+
+    @PostConstruct
+    public void init() {
+        topic = redissonClient.getTopic(channel, StringCodec.INSTANCE);
+        log.info("集群事件总线已启用，频道={}", channel);
+    }
+
+    @Override
+    public void publish(ClusterEventBatchVo batch) {
+        try {
+            topic.publish(objectMapper.writeValueAsString(batch));
+        } catch (Exception e) {
+            log.error("发布集群事件批次失败，事件数={}", batch.getEvents().size(), e);
+        }
+    }
+
+    @Override
+    public void publish(String nodeId, ClusterEventBatchVo batch) {
+        try {
+            nodeTopic(nodeId).publish(objectMapper.writeValueAsString(batch));
+        } catch (Exception e) {
+            log.error("发布集群事件批次到节点{}失败，事件数={}", nodeId, batch.getEvents().size(), e);
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<ClusterEventBatchVo> consumer) {
+        listen(topic, consumer);
+    }
+
+    @Override
+    public void subscribeNode(String nodeId, Consumer<ClusterEventBatchVo> consumer) {
+        listen(nodeTopic(nodeId), consumer);
+    }
+
+    private RTopic nodeTopic(String nodeId) {
+        return redissonClient.getTopic(channel + ":node:" + nodeId, StringCodec.INSTANCE);
+    }
+
+    private void listen(RTopic source, Consumer<ClusterEventBatchVo> consumer) {
+        source.addListener(String.class, (ch, message) -> {
+            try {
+                consumer.accept(objectMapper.readValue(message, ClusterEventBatchVo.class));
+            } catch (Exception e) {
+                log.error("处理集群事件批次异常", e);
+            }
+        });
+    }
+}
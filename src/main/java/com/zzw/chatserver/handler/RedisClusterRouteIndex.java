@@ -0,0 +1,143 @@
+package com.zzw.chatserver.handler;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于Redis的集群路由索引
+ * - 用户路由：哈希 uid -> 节点ID，由会话副本线程在绑定/清理脚本成功后写入
+ * - 房间路由：每个房间一个节点ID集合，节点首次有成员加入房间时写入、定时核对后移除
+ * 查询结果在本地缓存chat.cluster.route-cache-ms，路由变化时写入方广播失效通知，缓存只兜底通知丢失的情况
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "chat.cluster.enabled", havingValue = "true")
+public class RedisClusterRouteIndex implements ClusterRouteIndex {
+
+    // uid -> 节点ID
+    private static final String KEY_USER_NODE = "chat:cluster:user:node";
+    // 房间ID -> 节点ID集合
+    private static final String PREFIX_ROOM_NODES = "chat:cluster:room:nodes:";
+    private static final DefaultRedisScript<Long> COMPARE_DELETE_SCRIPT = new DefaultRedisScript<>();
+
+    static {
+        COMPARE_DELETE_SCRIPT.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/hash_compare_delete.lua")));
+        COMPARE_DELETE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource(name = "customStringRedisTemplate")
+    private RedisTemplate<String, String> stringRedisTemplate;
+
+    // 路由查询结果本地缓存时间（毫秒）
+    @Value("${chat.cluster.route-cache-ms:1000}")
+    private long routeCacheMs;
+
+    // 路由本地缓存的最大条目数
+    @Value("${chat.cluster.route-cache-size:100000}")
+    private long routeCacheSize;
+
+    // uid -> 节点ID（用户不在任何节点时为空字符串）
+    private Cache<String, String> userCache;
+    private Cache<String, Set<String>> roomCache;
+
+    @PostConstruct
+    public void init() {
+        userCache = CacheBuilder.newBuilder()
+                .maximumSize(routeCacheSize)
+                .expireAfterWrite(routeCacheMs, TimeUnit.MILLISECONDS)
+                .build();
+        roomCache = CacheBuilder.newBuilder()
+                .maximumSize(routeCacheSize)
+                .expireAfterWrite(routeCacheMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Override
+    public void bindUser(String uid, String nodeId) {
+        stringRedisTemplate.opsForHash().put(KEY_USER_NODE, uid, nodeId);
+        userCache.invalidate(uid);
+    }
+
+    @Override
+    public void unbindUser(String uid, String nodeId) {
+        stringRedisTemplate.execute(COMPARE_DELETE_SCRIPT, Collections.singletonList(KEY_USER_NODE), uid, nodeId);
+        userCache.invalidate(uid);
+    }
+
+    @Override
+    public String findUserNode(String uid) {
+        String nodeId = userCache.getIfPresent(uid);
+        if (nodeId == null) {
+            Object value = stringRedisTemplate.opsForHash().get(KEY_USER_NODE, uid);
+            nodeId = value != null ? value.toString() : "";
+            userCache.put(uid, nodeId);
+        }
+        return nodeId.isEmpty() ? null : nodeId;
+    }
+
+    @Override
+    public void addRoomNode(Collection<String> roomIds, String nodeId) {
+        updateRoomNodes(roomIds, nodeId, true);
+    }
+
+    @Override
+    public void removeRoomNode(Collection<String> roomIds, String nodeId) {
+        updateRoomNodes(roomIds, nodeId, false);
+    }
+
+    @Override
+    public Set<String> findRoomNodes(String roomId) {
+        Set<String> nodes = roomCache.getIfPresent(roomId);
+        if (nodes == null) {
+            Set<String> members = stringRedisTemplate.opsForSet().members(PREFIX_ROOM_NODES + roomId);
+            nodes = members != null ? Collections.unmodifiableSet(new HashSet<>(members)) : Collections.emptySet();
+            roomCache.put(roomId, nodes);
+        }
+        return nodes;
+    }
+
+    @Override
+    public void invalidateUser(String uid) {
+        userCache.invalidate(uid);
+    }
+
+    @Override
+    public void invalidateRooms(Collection<String> roomIds) {
+        roomCache.invalidateAll(roomIds);
+    }
+
+    private void updateRoomNodes(Collection<String> roomIds, String nodeId, boolean add) {
+        if (roomIds.isEmpty()) {
+            return;
+        }
+        byte[] member = nodeId.getBytes(StandardCharsets.UTF_8);
+        // 登录时一次加入的房间可能很多，流水线批量写入
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String roomId : roomIds) {
+                byte[] key = (PREFIX_ROOM_NODES + roomId).getBytes(StandardCharsets.UTF_8);
+                if (add) {
+                    connection.sAdd(key, member);
+                } else {
+                    connection.sRem(key, member);
+                }
+            }
+            return null;
+        });
+        roomCache.invalidateAll(roomIds);
+    }
+}
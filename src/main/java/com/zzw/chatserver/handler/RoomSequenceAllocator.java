@@ -0,0 +1,142 @@
+package com.zzw.chatserver.handler;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.zzw.chatserver.utils.ValidationUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 房间消息序号分配器
+ * 每个房间一个Redis计数器 chat:seq:{roomId}，节点每次用INCRBY租用一段序号缓存在内存中，
+ * 段内分配不访问Redis；同一房间的消息由同一通道顺序处理，因此本节点内序号随消息到达严格递增。
+ * 租约被淘汰或节点重启时未用完的序号会被跳过，客户端按序号补洞时服务端只返回实际存在的消息；
+ * 计数器丢失时以MongoDB中该房间已持久化的最大序号为起点重新计数。
+ * 注意：段租用只保证单节点内序号与到达顺序一致；多个节点各持一段时，同一房间的序号会在节点间交错，
+ * 因此开启集群模式时段大小固定为1，每条消息都从Redis计数器原子取号，序号即全局分配顺序
+ */
+@Component
+@Slf4j
+public class RoomSequenceAllocator {
+
+    private static final String PREFIX_SEQ = "chat:seq:";
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT = new DefaultRedisScript<>();
+
+    static {
+        LEASE_SCRIPT.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/seq_lease.lua")));
+        LEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource(name = "customStringRedisTemplate")
+    private RedisTemplate<String, String> stringRedisTemplate;
+
+    @Resource
+    private MongoTemplate mongoTemplate;
+
+    // 每次租用的序号段大小（1表示每条消息都访问Redis，序号无空洞）
+    @Value("${chat.sequence.block-size:100}")
+    private int blockSize;
+
+    // 本地缓存的房间租约数上限
+    @Value("${chat.sequence.lease-cache-size:100000}")
+    private long leaseCacheSize;
+
+    // 房间租约闲置多久后淘汰（分钟）
+    @Value("${chat.sequence.lease-idle-minutes:30}")
+    private long leaseIdleMinutes;
+
+    // 是否开启集群模式（开启时段大小固定为1）
+    @Value("${chat.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    private Cache<String, Lease> leases;
+
+    /**
+     * 房间序号段租约：[next, end]
+     */
+    private static final class Lease {
+        private long next = 1;
+        private long end = 0;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (clusterEnabled && blockSize > 1) {
+            log.info("集群模式下房间序号段大小由{}调整为1，保证多节点间序号与分配顺序一致", blockSize);
+            blockSize = 1;
+        }
+        leases = CacheBuilder.newBuilder()
+                .maximumSize(leaseCacheSize)
+                .expireAfterAccess(leaseIdleMinutes, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * 分配房间内的下一个序号
+     * @param roomId 房间ID
+     * @return 序号（从1开始，房间内单调递增）
+     */
+    public long next(String roomId) {
+        Lease lease;
+        try {
+            lease = leases.get(roomId, Lease::new);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("获取房间序号租约失败", e);
+        }
+        synchronized (lease) {
+            if (lease.next > lease.end) {
+                long end = leaseBlock(roomId);
+                lease.next = end - blockSize + 1;
+                lease.end = end;
+            }
+            return lease.next++;
+        }
+    }
+
+    /**
+     * 从Redis租用一段序号，返回段上界
+     */
+    private long leaseBlock(String roomId) {
+        String key = PREFIX_SEQ + roomId;
+        String size = String.valueOf(blockSize);
+        Long end = stringRedisTemplate.execute(LEASE_SCRIPT, Collections.singletonList(key), size, "");
+        if (end == null || end < 0) {
+            long persisted = findMaxPersistedSeq(roomId);
+            log.info("房间{}序号计数器不存在，从已持久化的最大序号{}开始", roomId, persisted);
+            end = stringRedisTemplate.execute(LEASE_SCRIPT, Collections.singletonList(key), size, String.valueOf(persisted));
+        }
+        if (end == null) {
+            throw new IllegalStateException("租用房间序号失败：" + roomId);
+        }
+        return end;
+    }
+
+    private long findMaxPersistedSeq(String roomId) {
+        String collection = ValidationUtil.isValidSingleRoomId(roomId) ? "singlemessages" : "groupmessages";
+        Query query = Query.query(Criteria.where("roomId").is(roomId).and("seq").ne(null))
+                .with(Sort.by(Sort.Direction.DESC, "seq"))
+                .limit(1);
+        query.fields().include("seq");
+        Document latest = mongoTemplate.findOne(query, Document.class, collection);
+        if (latest == null || !(latest.get("seq") instanceof Number)) {
+            return 0;
+        }
+        return ((Number) latest.get("seq")).longValue();
+    }
+}
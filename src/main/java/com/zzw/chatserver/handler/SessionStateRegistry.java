@@ -0,0 +1,107 @@
+package com.zzw.chatserver.handler;
+
+import com.zzw.chatserver.pojo.vo.SimpleUser;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 用户会话状态机（本节点）
+ * 每个uid一条状态：ONLINE(当前clientId)，OFFLINE即不存在；另按clientId保存客户端绑定的用户信息。
+ * 状态切换通过ConcurrentHashMap按key原子更新完成，只在内存中比较并替换，
+ * 不同用户之间互不竞争，且任何状态切换都不会持有锁做Redis/Mongo调用。
+ * 连接在本JVM内的会话以此为准（在线判断、推送路由都读这里），
+ * Redis中的绑定关系只是供其他节点查询的异步副本（由OnlineUserServiceImpl后台写入）
+ */
+@Component
+@Slf4j
+public class SessionStateRegistry {
+
+    private final ConcurrentMap<String, SessionState> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SimpleUser> clients = new ConcurrentHashMap<>();
+
+    /**
+     * 不可变的会话状态快照
+     */
+    public static final class SessionState {
+        private final String clientId;
+
+        SessionState(String clientId) {
+            this.clientId = clientId;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+    }
+
+    /**
+     * 将用户切换为ONLINE并绑定到新客户端
+     * @param simpleUser 用户信息
+     * @param clientId 新客户端ID
+     * @return 被顶替的旧客户端ID（无旧客户端或为同一客户端时返回null）
+     */
+    public String bind(SimpleUser simpleUser, String clientId) {
+        clients.put(clientId, simpleUser);
+        String[] replaced = new String[1];
+        sessions.compute(simpleUser.getUid(), (key, current) -> {
+            if (current != null && current.clientId.equals(clientId)) {
+                // 同一客户端重复上线（onConnect后又goOnline），保持原状态
+                return current;
+            }
+            replaced[0] = current != null ? current.clientId : null;
+            return new SessionState(clientId);
+        });
+        return replaced[0];
+    }
+
+    /**
+     * 客户端下线：移除客户端绑定，仅当该客户端仍是用户的当前客户端时才切换为OFFLINE
+     * @param uid 用户ID（为null时按客户端绑定的用户解析）
+     * @param clientId 下线的客户端ID
+     * @return 下线前的会话状态（客户端已被顶替或用户本就离线时返回null）
+     */
+    public SessionState unbind(String uid, String clientId) {
+        SimpleUser removedUser = clients.remove(clientId);
+        String resolvedUid = uid != null ? uid : (removedUser != null ? removedUser.getUid() : null);
+        if (resolvedUid == null) {
+            return null;
+        }
+        SessionState[] removed = new SessionState[1];
+        sessions.computeIfPresent(resolvedUid, (key, current) -> {
+            if (current.clientId.equals(clientId)) {
+                removed[0] = current;
+                return null;
+            }
+            return current;
+        });
+        return removed[0];
+    }
+
+    /**
+     * 查询用户当前会话状态
+     * @return 会话状态（离线返回null）
+     */
+    public SessionState get(String uid) {
+        return uid == null ? null : sessions.get(uid);
+    }
+
+    /**
+     * 查询本节点客户端绑定的用户
+     * @return 用户信息（客户端不在本节点时返回null）
+     */
+    public SimpleUser getUser(String clientId) {
+        return clientId == null ? null : clients.get(clientId);
+    }
+
+    /**
+     * 查询用户在本节点的客户端
+     * @return 客户端ID（用户不在本节点时返回null）
+     */
+    public String getClientId(String uid) {
+        SessionState state = get(uid);
+        return state != null ? state.clientId : null;
+    }
+}
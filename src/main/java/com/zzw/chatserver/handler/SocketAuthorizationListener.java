@@ -0,0 +1,96 @@
+package com.zzw.chatserver.handler;
+
+import com.corundumstudio.socketio.AuthorizationListener;
+import com.corundumstudio.socketio.HandshakeData;
+import com.zzw.chatserver.auth.entity.AuthPrincipal;
+import com.zzw.chatserver.utils.JwtUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.Resource;
+
+/**
+ * Socket.IO握手认证
+ * 握手时校验JWT（URL参数token或Authorization请求头），与HTTP请求共用JwtAuthCache，
+ * 通常在登录后的HTTP请求中已缓存，握手不再验签、不查询数据库；
+ * 握手参数同时携带uid时必须与Token中的用户一致
+ */
+@Component
+@Slf4j
+public class SocketAuthorizationListener implements AuthorizationListener {
+
+    private static final String PARAM_TOKEN = "token";
+    private static final String PARAM_UID = "uid";
+
+    @Resource
+    private JwtAuthCache jwtAuthCache;
+
+    @Resource
+    @Qualifier("userDetailsServiceImpl")
+    private UserDetailsService userDetailsService;
+
+    // 是否要求Socket握手携带有效Token（关闭时仅用于兼容未升级的客户端）
+    @Value("${chat.socket-auth.enabled:true}")
+    private boolean enabled;
+
+    @Override
+    public boolean isAuthorized(HandshakeData data) {
+        if (!enabled) {
+            return true;
+        }
+        AuthPrincipal principal = resolve(data);
+        if (principal == null) {
+            log.warn("Socket握手认证失败：Token无效，address={}", data.getAddress());
+            return false;
+        }
+        String uid = data.getSingleUrlParam(PARAM_UID);
+        if (!StringUtils.isEmpty(uid) && !uid.equals(principal.getUid())) {
+            log.warn("Socket握手认证失败：uid参数{}与Token用户{}不一致", uid, principal.getUid());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 解析握手携带的Token对应的认证主体
+     * @return 认证主体，Token缺失或无效时返回null
+     */
+    public AuthPrincipal resolve(HandshakeData data) {
+        String token = extractToken(data);
+        if (token == null) {
+            return null;
+        }
+        try {
+            JwtAuthCache.Entry entry = jwtAuthCache.authenticate(token, userDetailsService);
+            return entry == null ? null : entry.getPrincipal();
+        } catch (Exception e) {
+            log.error("Socket握手Token认证异常", e);
+            return null;
+        }
+    }
+
+    /**
+     * 是否要求握手认证
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private String extractToken(HandshakeData data) {
+        String token = data.getSingleUrlParam(PARAM_TOKEN);
+        if (StringUtils.isEmpty(token) && data.getHttpHeaders() != null) {
+            String authHeader = data.getHttpHeaders().get(JwtUtils.TOKEN_HEADER);
+            if (authHeader != null && authHeader.startsWith(JwtUtils.TOKEN_PREFIX)) {
+                token = authHeader.substring(JwtUtils.TOKEN_PREFIX.length());
+            }
+        }
+        if (token != null && token.startsWith(JwtUtils.TOKEN_PREFIX)) {
+            token = token.substring(JwtUtils.TOKEN_PREFIX.length());
+        }
+        return StringUtils.isEmpty(token) ? null : token.trim();
+    }
+}
@@ -0,0 +1,138 @@
+package com.zzw.chatserver.handler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Socket事件分发器
+ * 将SocketIO事件按uid/roomId哈希到固定的单线程执行通道（lane），
+ * 同一key的事件在同一通道内按到达顺序执行，netty I/O线程只负责投递不再阻塞。
+ * 每个通道队列有界，队列深度与拒绝次数通过Micrometer暴露（/actuator/metrics）。
+ */
+@Component
+@Slf4j
+public class SocketEventDispatcher {
+
+    @Value("${socketio.dispatch.lanes:0}")
+    private int laneCount;
+
+    @Value("${socketio.dispatch.laneQueueCapacity:2000}")
+    private int laneQueueCapacity;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private ThreadPoolExecutor[] lanes;
+    private Counter rejectedCounter;
+    private final AtomicInteger rejectedTotal = new AtomicInteger();
+
+    @PostConstruct
+    public void init() {
+        if (laneCount <= 0) {
+            // 未配置时默认CPU核心数*2（事件处理以Redis/Mongo等待为主）
+            laneCount = Runtime.getRuntime().availableProcessors() * 2;
+        }
+        lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            final int laneIndex = i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(laneQueueCapacity),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "socket-lane-" + laneIndex);
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+            Gauge.builder("socket.dispatch.queue.depth", lanes[i], executor -> executor.getQueue().size())
+                    .tag("lane", String.valueOf(i))
+                    .description("Socket事件通道排队数")
+                    .register(meterRegistry);
+        }
+        rejectedCounter = Counter.builder("socket.dispatch.rejected")
+                .description("通道队列已满被拒绝的Socket事件数")
+                .register(meterRegistry);
+        log.info("Socket事件分发器启动：通道数={}，单通道队列容量={}", laneCount, laneQueueCapacity);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        for (ThreadPoolExecutor lane : lanes) {
+            try {
+                if (!lane.awaitTermination(5, TimeUnit.SECONDS)) {
+                    lane.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lane.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * 投递事件到key对应的通道
+     * @param key 排序键（uid或roomId），同一key保证顺序执行
+     * @param eventName 事件名（用于日志）
+     * @param task 事件处理逻辑
+     * @return true=已投递，false=通道队列已满被拒绝
+     */
+    public boolean dispatch(String key, String eventName, Runnable task) {
+        ThreadPoolExecutor lane = lanes[laneIndex(key)];
+        try {
+            lane.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("处理Socket事件{}异常，key={}", eventName, key, e);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            int total = rejectedTotal.incrementAndGet();
+            log.warn("Socket事件通道已满，拒绝事件{}，key={}，排队数={}，累计拒绝={}",
+                    eventName, key, lane.getQueue().size(), total);
+            return false;
+        }
+    }
+
+    /**
+     * 当前所有通道的排队事件总数
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            depth += lane.getQueue().size();
+        }
+        return depth;
+    }
+
+    /**
+     * 累计被拒绝的事件数
+     */
+    public int getRejectedCount() {
+        return rejectedTotal.get();
+    }
+
+    private int laneIndex(String key) {
+        if (key == null) {
+            return 0;
+        }
+        // 扰动高位，避免ObjectId前缀（时间戳）相近导致分布不均
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % lanes.length;
+    }
+}
@@ -1495,9 +1495,18 @@ import com.corundumstudio.socketio.SocketIOServer;
 import com.corundumstudio.socketio.annotation.OnConnect;
 import com.corundumstudio.socketio.annotation.OnDisconnect;
 import com.corundumstudio.socketio.annotation.OnEvent;
+import com.zzw.chatserver.auth.entity.AuthPrincipal;
 import com.zzw.chatserver.common.ConstValueEnum;
 import com.zzw.chatserver.common.UserRoleEnum;
 import com.zzw.chatserver.filter.SensitiveFilter;
+import com.zzw.chatserver.handler.ClusterBroadcaster;
+import com.zzw.chatserver.handler.HeartbeatCoalescer;
+import com.zzw.chatserver.handler.PresenceBroadcaster;
+import com.zzw.chatserver.handler.ReadAckAggregator;
+import com.zzw.chatserver.handler.RoomSequenceAllocator;
+import com.zzw.chatserver.handler.SessionStateRegistry;
+import com.zzw.chatserver.handler.SocketAuthorizationListener;
+import com.zzw.chatserver.handler.SocketEventDispatcher;
 import com.zzw.chatserver.pojo.*;
 import com.zzw.chatserver.pojo.vo.*;
 import com.zzw.chatserver.service.*;
@@ -1507,8 +1516,6 @@ import com.zzw.chatserver.utils.ValidationUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.bson.types.ObjectId;
 import org.springframework.beans.BeanUtils;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
@@ -1520,26 +1527,23 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * SocketIO事件监听器
  * 处理客户端连接、断开、消息发送等事件，负责消息转发、离线消息推送、在线状态管理等
+ * 所有事件由SocketEventDispatcher按uid/roomId投递到有序执行通道处理，netty I/O线程不做阻塞调用
  */
 @Component
 @Transactional(rollbackFor = Throwable.class)
 @Slf4j
 public class SocketIoListener {
 
-    // 同步锁，保证在线用户操作的线程安全
-    private final ReentrantLock onlineUserLock = new ReentrantLock();
-
     // 事件名称常量
-    private static final String EVENT_ONLINE_USER = "onlineUser";
     private static final String EVENT_RECONNECT_SUCCESS = "reconnectSuccess";
-    private static final String EVENT_OFFLINE_SINGLE_MSG = "offlineSingleMessages";
-    private static final String EVENT_OFFLINE_GROUP_MSG_PREFIX = "offlineGroupMessages_";
+    private static final String EVENT_OFFLINE_SYNC_CHUNK = "offlineSyncChunk";
     private static final String EVENT_SEND_FAILED = "sendFailed";
+    private static final String EVENT_SEND_PENDING = "sendPending";
     private static final String EVENT_RECEIVE_MSG = "receiveMessage";
     private static final String EVENT_JOIN_FAILED = "joinFailed";
     private static final String EVENT_IS_READ_MSG = "isReadMsg";
@@ -1549,6 +1553,11 @@ public class SocketIoListener {
     private static final String EVENT_RECEIVE_DEL_FRIEND = "receiveDelGoodFriend";
     private static final String EVENT_RECEIVE_QUIT_GROUP = "receiveQuitGroup";
     private static final String EVENT_CONFIRM_RECEIVE = "confirmReceive";
+    private static final String EVENT_UNREAD_COUNTS = "unreadCounts";
+    private static final String EVENT_SYNC_SINCE_RESULT = "syncSinceResult";
+    private static final String SYNC_MODE_DELTA = "delta";
+    // 客户端会话中保存握手认证主体的键
+    private static final String CLIENT_KEY_PRINCIPAL = "principal";
 
     // 错误信息常量
     private static final String ERR_INVALID_ROOM_ID = "房间ID格式错误";
@@ -1558,11 +1567,10 @@ public class SocketIoListener {
     private static final String ERR_SENDER_NOT_EXIST = "发送者信息不存在";
     private static final String ERR_PARAM_INCOMPLETE = "参数不完整";
     private static final String ERR_NOT_FRIEND = "非好友关系，无法发送消息";
+    private static final String ERR_VALIDATE_MSG_INVALID = "验证消息不存在或已处理";
+    private static final String ERR_NOT_ROOM_MEMBER = "不是该会话的成员";
     private static final String ERR_SERVER_EXCEPTION = "服务器异常，请稍后重试";
-
-    // 心跳和过期时间常量
-    private static final long HEARTBEAT_EXPIRATION_MS = 3600000; // 1小时过期
-    private static final long HEARTBEAT_INTERVAL_MS = 1800000; // 30分钟心跳间隔
+    private static final String ERR_SERVER_BUSY = "服务器繁忙，请稍后重试";
 
     /** 统一时间格式化器（避免解析异常） */
     private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter
@@ -1589,29 +1597,58 @@ public class SocketIoListener {
     private OnlineUserService onlineUserService;
     @Resource
     private SysService sysService;
+    @Resource
+    private MessagePersistService messagePersistService;
+    @Resource
+    private SocketEventDispatcher socketEventDispatcher;
+    @Resource
+    private SessionStateRegistry sessionStateRegistry;
+
+    @Resource
+    private ClusterBroadcaster clusterBroadcaster;
+
+    @Resource
+    private RoomMembershipService roomMembershipService;
+
+    @Resource
+    private OfflineSyncService offlineSyncService;
+    @Resource
+    private ReadStateService readStateService;
+    @Resource
+    private UnreadCounterService unreadCounterService;
+    @Resource
+    private InboxService inboxService;
+    @Resource
+    private HeartbeatCoalescer heartbeatCoalescer;
+    @Resource
+    private PresenceBroadcaster presenceBroadcaster;
+    @Resource
+    private RoomSequenceAllocator roomSequenceAllocator;
+    @Resource
+    private ReadAckAggregator readAckAggregator;
+    @Resource
+    private SocketAuthorizationListener socketAuthorizationListener;
 
     /**
-     * 定时清理过期的客户端绑定（每小时执行一次）
+     * 定时增量清理过期的客户端绑定
+     * 每轮只按活动时间有序集合取出已过期的客户端并分批清理，间隔由chat.presence.sweep-interval-ms配置
      */
-    @Scheduled(fixedRate = 3600000)
+    @Scheduled(fixedDelayString = "${chat.presence.sweep-interval-ms:60000}",
+            initialDelayString = "${chat.presence.sweep-interval-ms:60000}")
     public void cleanExpiredClients() {
         try {
-            onlineUserLock.lock();
-            int cleanedCount = onlineUserService.cleanExpiredClients(HEARTBEAT_EXPIRATION_MS);
-            log.info("定时清理过期客户端完成，清理数量：{}", cleanedCount);
-            if (cleanedCount > 0) {
-                broadcastOnlineUser();
+            List<String> offlineUids = onlineUserService.cleanExpiredClients(heartbeatCoalescer.getExpirationMs());
+            if (!offlineUids.isEmpty()) {
+                log.info("定时清理过期客户端完成，离线用户数量：{}", offlineUids.size());
             }
         } catch (Exception e) {
             log.error("定时清理过期客户端失败", e);
-        } finally {
-            onlineUserLock.unlock();
         }
     }
 
     /**
      * 客户端断开连接事件
-     * 清理用户在线状态，更新在线时长，广播在线用户变化
+     * 清理用户在线状态，更新在线时长，记录下线增量
      */
     @OnDisconnect
     public void onDisconnect(SocketIOClient client) {
@@ -1620,12 +1657,19 @@ public class SocketIoListener {
             return;
         }
 
+        Runnable task = () -> doDisconnect(client);
+        // 断开事件不可丢弃（否则残留在线状态），通道已满时退化为当前线程执行
+        if (!socketEventDispatcher.dispatch(userKey(client), "disconnect", task)) {
+            task.run();
+        }
+    }
+
+    private void doDisconnect(SocketIOClient client) {
         try {
             String clientId = client.getSessionId().toString();
             log.info("客户端断开连接，clientId: {}", clientId);
             cleanLoginInfo(clientId);
             log.info("连接关闭，url参数: {}", client.getHandshakeData().getUrlParams());
-            broadcastOnlineUser();
         } catch (Exception e) {
             log.error("处理客户端断开连接异常", e);
         }
@@ -1641,10 +1685,18 @@ public class SocketIoListener {
             log.warn("客户端连接：客户端为空，跳过处理");
             return;
         }
+        // 握手已通过认证，此处命中认证缓存，把认证主体保存到客户端会话，之后的事件直接读取
+        AuthPrincipal principal = socketAuthorizationListener.resolve(client.getHandshakeData());
+        if (principal != null) {
+            client.set(CLIENT_KEY_PRINCIPAL, principal);
+        }
+        dispatchByUser(client, "connect", () -> doConnect(client));
+    }
 
+    private void doConnect(SocketIOClient client) {
         try {
-            // 提取URL参数中的uid
-            String uid = extractUidFromParams(client.getHandshakeData().getUrlParams());
+            // 取握手认证得到的uid
+            String uid = sessionUid(client);
             log.info("客户端连接/重连，UID: {}", uid);
 
             if (uid != null) {
@@ -1657,13 +1709,7 @@ public class SocketIoListener {
                 // 绑定客户端与用户
                 SimpleUser simpleUser = new SimpleUser();
                 BeanUtils.copyProperties(user, simpleUser);
-
-                onlineUserLock.lock();
-                try {
-                    onlineUserService.addClientIdToSimpleUser(client.getSessionId().toString(), simpleUser);
-                } finally {
-                    onlineUserLock.unlock();
-                }
+                bindClient(client.getSessionId().toString(), simpleUser);
 
                 // 重新加入历史房间
                 joinUserRooms(client, uid);
@@ -1677,17 +1723,50 @@ public class SocketIoListener {
     }
 
     /**
-     * 提取URL参数中的uid
+     * 客户端的排序键：优先使用会话中的uid，保证同一用户的事件按序执行
      */
-    private String extractUidFromParams(Map<String, List<String>> urlParams) {
-        if (urlParams == null || !urlParams.containsKey("uid") || urlParams.get("uid").isEmpty()) {
+    private String userKey(SocketIOClient client) {
+        if (client == null) {
             return null;
         }
-        return urlParams.get("uid").get(0);
+        String uid = sessionUid(client);
+        return StringUtils.isEmpty(uid) ? client.getSessionId().toString() : uid;
+    }
+
+    /**
+     * 客户端会话绑定的用户ID（握手认证时确定，O(1)读取，不可由事件参数伪造）
+     * 未启用握手认证时兼容旧客户端，退化为握手参数中的uid
+     */
+    private String sessionUid(SocketIOClient client) {
+        AuthPrincipal principal = client.get(CLIENT_KEY_PRINCIPAL);
+        if (principal != null) {
+            return principal.getUid();
+        }
+        return socketAuthorizationListener.isEnabled() ? null : client.getHandshakeData().getSingleUrlParam("uid");
+    }
+
+    /**
+     * 按用户投递事件到有序执行通道（不阻塞netty I/O线程）
+     */
+    private void dispatchByUser(SocketIOClient client, String eventName, Runnable task) {
+        dispatchOrReject(client, userKey(client), eventName, task);
     }
 
     /**
-     * 让客户端加入用户参与的所有房间（单聊+群聊）
+     * 按房间投递事件到有序执行通道，保证同一房间内消息顺序；roomId为空时退化为按用户
+     */
+    private void dispatchByRoom(SocketIOClient client, String roomId, String eventName, Runnable task) {
+        dispatchOrReject(client, StringUtils.isEmpty(roomId) ? userKey(client) : roomId, eventName, task);
+    }
+
+    private void dispatchOrReject(SocketIOClient client, String key, String eventName, Runnable task) {
+        if (!socketEventDispatcher.dispatch(key, eventName, task) && client != null) {
+            client.sendEvent(EVENT_SEND_FAILED, ERR_SERVER_BUSY);
+        }
+    }
+
+    /**
+     * 让客户端加入用户参与的群聊房间（单聊按用户直接投递，不再使用房间）
      */
     private void joinUserRooms(SocketIOClient client, String uid) {
         List<String> roomIds = getRoomsByUid(uid);
@@ -1701,49 +1780,24 @@ public class SocketIoListener {
                 log.info("用户{}重新加入房间：{}", uid, roomId);
             }
         }
+        // 本节点首次有成员的房间登记到集群路由索引
+        clusterBroadcaster.joinRooms(roomIds);
     }
 
     /**
-     * 查询用户参与的所有房间ID（单聊+群聊）
+     * 查询用户参与的群聊房间ID（会话成员索引，本地缓存/Redis命中时不查询MongoDB）
      */
     private List<String> getRoomsByUid(String uid) {
-        List<String> roomIds = new ArrayList<>();
         if (uid == null) {
             log.warn("查询房间：uid为空，返回空列表");
-            return roomIds;
+            return Collections.emptyList();
         }
-
         try {
-            // 单聊房间（基于好友关系）
-            List<MyFriendListResultVo> friends = goodFriendService.getMyFriendsList(uid);
-            if (friends != null && !friends.isEmpty()) {
-                for (MyFriendListResultVo friend : friends) {
-                    if (friend != null && !StringUtils.isEmpty(friend.getRoomId())) {
-                        roomIds.add(friend.getRoomId());
-                    }
-                }
-            }
-
-            // 群聊房间（基于用户加入的群组）
-            User user = userService.getUserInfo(uid);
-            if (user != null && !StringUtils.isEmpty(user.getUsername())) {
-                List<MyGroupResultVo> myGroups = groupUserService.getGroupUsersByUserName(user.getUsername());
-                if (myGroups != null && !myGroups.isEmpty()) {
-                    for (MyGroupResultVo group : myGroups) {
-                        if (group != null && group.getGroupId() != null) {
-                            // 显式转换为字符串，避免ObjectId直接toString的问题
-                            roomIds.add(group.getGroupId().toString());
-                        }
-                    }
-                }
-            } else {
-                log.warn("查询群聊房间：用户信息不存在，uid={}", uid);
-            }
+            return roomMembershipService.getMembership(uid).getGroupIds();
         } catch (Exception e) {
             log.error("查询用户房间列表异常，uid={}", uid, e);
+            return Collections.emptyList();
         }
-
-        return roomIds;
     }
 
     /**
@@ -1756,16 +1810,18 @@ public class SocketIoListener {
         }
 
         try {
-            onlineUserLock.lock();
-            try {
-                SimpleUser simpleUser = onlineUserService.getSimpleUserByClientId(clientId);
-                if (simpleUser != null) {
-                    onlineUserService.removeClientAndUidInSet(clientId, simpleUser.getUid());
+            heartbeatCoalescer.remove(clientId);
+            SimpleUser simpleUser = onlineUserService.getSimpleUserByClientId(clientId);
+            if (simpleUser != null) {
+                String uid = simpleUser.getUid();
+                // 先在本地状态机中切换为OFFLINE（Redis副本后台清理并记录下线增量），再执行Mongo操作
+                boolean wentOffline = onlineUserService.removeClientAndUidInSet(clientId, uid);
+                // 客户端已被同一用户的新连接顶替时，用户仍在线，不结算在线时长
+                boolean superseded = !wentOffline && sessionStateRegistry.get(uid) != null;
+                if (!superseded) {
                     long onlineTime = DateUtil.getTimeDelta(Date.from(Instant.parse(simpleUser.getLastLoginTime())), new Date());
-                    userService.updateOnlineTime(onlineTime, simpleUser.getUid());
+                    userService.updateOnlineTime(onlineTime, uid);
                 }
-            } finally {
-                onlineUserLock.unlock();
             }
             printOnlineUserCount();
         } catch (Exception e) {
@@ -1784,23 +1840,16 @@ public class SocketIoListener {
         }
     }
 
-    /**
-     * 广播在线用户列表
-     */
-    private void broadcastOnlineUser() {
-        try {
-            socketIOServer.getBroadcastOperations().sendEvent(EVENT_ONLINE_USER, onlineUserService.getOnlineUidSet());
-        } catch (Exception e) {
-            log.error("广播在线用户列表异常", e);
-        }
-    }
-
     /**
      * 用户上线事件
      * 处理用户在线状态绑定、离线消息推送
      */
     @OnEvent("goOnline")
     public void goOnline(SocketIOClient client, User user) {
+        dispatchByUser(client, "goOnline", () -> doGoOnline(client, user));
+    }
+
+    private void doGoOnline(SocketIOClient client, User user) {
         try {
             // 参数校验
             if (!validateClientAndUser(client, user)) {
@@ -1809,27 +1858,26 @@ public class SocketIoListener {
             }
             String clientId = client.getSessionId().toString();
             String uid = user.getUid();
+            if (!validateSenderIdentity(client, uid)) {
+                client.sendEvent(EVENT_SEND_FAILED, ERR_IDENTITY_VERIFY_FAILED);
+                return;
+            }
             log.info("用户上线，user：{}", user);
 
-            // 处理重连时的旧客户端清理
-            cleanOldClientBinding(uid, clientId);
-
-            // 绑定新的客户端与用户
+            // 绑定新的客户端与用户（重连时顺带清理旧客户端）
             SimpleUser simpleUser = new SimpleUser();
             BeanUtils.copyProperties(user, simpleUser);
-
-            onlineUserLock.lock();
-            try {
-                onlineUserService.addClientIdToSimpleUser(clientId, simpleUser);
-            } finally {
-                onlineUserLock.unlock();
-            }
+            bindClient(clientId, simpleUser);
 
             printOnlineUserCount();
-            broadcastOnlineUser();
+            // 上线时只向当前客户端发送其关系范围内的在线快照，其他客户端通过增量事件感知
+            client.sendEvent(PresenceBroadcaster.EVENT_PRESENCE_SNAPSHOT, presenceBroadcaster.snapshot(uid));
 
-            // 推送离线消息（不立即标记为已读，等待客户端确认）
-            pushOfflineMessages(client, uid);
+            // 推送离线消息（不立即标记为已读，等待客户端确认）；
+            // 握手参数sync=delta的客户端改为按各房间游标发送syncSince事件增量同步
+            if (!SYNC_MODE_DELTA.equals(client.getHandshakeData().getSingleUrlParam("sync"))) {
+                pushOfflineMessages(client, uid);
+            }
         } catch (Exception e) {
             log.error("处理用户上线事件异常", e);
             if (client != null) {
@@ -1843,15 +1891,29 @@ public class SocketIoListener {
      */
     @OnEvent(EVENT_CONFIRM_RECEIVE)
     public void confirmReceive(SocketIOClient client, MessageConfirmVo confirmVo) {
+        dispatchByUser(client, EVENT_CONFIRM_RECEIVE, () -> doConfirmReceive(client, confirmVo));
+    }
+
+    private void doConfirmReceive(SocketIOClient client, MessageConfirmVo confirmVo) {
         try {
             if (client == null || confirmVo == null || StringUtils.isEmpty(confirmVo.getUserId())) {
                 log.warn("消息确认：客户端或确认信息不完整");
                 return;
             }
+            // 只能确认自己收到的消息
+            if (!validateSenderIdentity(client, confirmVo.getUserId())) {
+                return;
+            }
 
-            log.info("收到消息确认，userId={}, singleMessageIds={}, groupMessageIds={}",
+            log.debug("收到消息确认，userId={}, singleMessageIds={}, groupMessageIds={}",
                     confirmVo.getUserId(), confirmVo.getSingleMessageIds(), confirmVo.getGroupMessageIds());
 
+            // 交给聚合器按窗口合并后批量写入；缓冲区已满时同步处理
+            if (readAckAggregator.submit(confirmVo.getUserId(), confirmVo.getSingleMessageIds(),
+                    confirmVo.getGroupMessageIds())) {
+                return;
+            }
+
             // 标记单聊消息为已读
             if (confirmVo.getSingleMessageIds() != null && !confirmVo.getSingleMessageIds().isEmpty()) {
                 singleMessageService.markMessagesAsRead(confirmVo.getUserId(), confirmVo.getSingleMessageIds());
@@ -1880,99 +1942,151 @@ public class SocketIoListener {
     }
 
     /**
-     * 清理用户旧的客户端绑定（重连场景）
+     * 绑定客户端与用户
+     * 先在本地会话状态机中原子切换（不持锁、无网络调用），再写Redis并清理被顶替的旧客户端
      */
-    private void cleanOldClientBinding(String uid, String newClientId) {
-        try {
-            onlineUserLock.lock();
+    private void bindClient(String clientId, SimpleUser simpleUser) {
+        String uid = simpleUser.getUid();
+        String oldClientId = sessionStateRegistry.bind(simpleUser, clientId);
+        if (oldClientId == null) {
+            // 本节点无旧会话时，旧客户端可能位于其他节点或重启前
+            oldClientId = onlineUserService.getClientIdByUid(uid);
+        }
+        if (oldClientId != null && !oldClientId.equals(clientId)) {
+            heartbeatCoalescer.remove(oldClientId);
             try {
-                String oldClientId = onlineUserService.getClientIdByUid(uid);
-                if (oldClientId != null && !oldClientId.equals(newClientId)) {
-                    onlineUserService.removeClientAndUidInSet(oldClientId, uid);
-                    log.info("清理用户[{}]的旧客户端绑定：{}", uid, oldClientId);
-                }
-            } finally {
-                onlineUserLock.unlock();
+                onlineUserService.removeClientAndUidInSet(oldClientId, uid);
+                log.info("清理用户[{}]的旧客户端绑定：{}", uid, oldClientId);
+            } catch (Exception e) {
+                log.error("清理用户旧客户端绑定异常，uid={}", uid, e);
             }
-        } catch (Exception e) {
-            log.error("清理用户旧客户端绑定异常，uid={}", uid, e);
         }
+        // 上下线增量由在线服务在Redis脚本确认后带版本号记录，同一窗口内只保留版本最新的状态
+        onlineUserService.addClientIdToSimpleUser(clientId, simpleUser);
+        heartbeatCoalescer.register(clientId, uid);
     }
 
     /**
-     * 推送离线消息（单聊+群聊）
+     * 推送离线消息（单聊+群聊，分片推送，不立即标记为已读，等待客户端确认）
      */
     private void pushOfflineMessages(SocketIOClient client, String uid) {
         try {
-            log.info("用户{}上线，开始推送离线消息", uid);
-
-            // 推送单聊离线消息
-            pushOfflineSingleMessages(client, uid);
-
-            // 推送群聊离线消息
-            pushOfflineGroupMessages(client, uid);
+            log.info("用户{}上线，开始同步离线消息", uid);
+            offlineSyncService.sync(uid, null, chunk -> client.sendEvent(EVENT_OFFLINE_SYNC_CHUNK, chunk));
         } catch (Exception e) {
             log.error("推送离线消息异常，uid={}", uid, e);
         }
     }
 
     /**
-     * 推送单聊离线消息（不立即标记为已读）
+     * 离线消息续传事件（客户端携带上一个分片的续传令牌继续拉取）
      */
-    private void pushOfflineSingleMessages(SocketIOClient client, String uid) {
+    @OnEvent("offlineSync")
+    public void offlineSync(SocketIOClient client, OfflineSyncRequestVo requestVo) {
+        dispatchByUser(client, "offlineSync", () -> doOfflineSync(client, requestVo));
+    }
+
+    private void doOfflineSync(SocketIOClient client, OfflineSyncRequestVo requestVo) {
         try {
-            List<SingleMessageResultVo> offlineMsgs = singleMessageService.getUnreadMessages(uid);
-            if (offlineMsgs != null && !offlineMsgs.isEmpty()) {
-                client.sendEvent(EVENT_OFFLINE_SINGLE_MSG, offlineMsgs);
-                log.info("推送单聊离线消息{}条给用户{}", offlineMsgs.size(), uid);
-                // 不立即标记为已读，等待客户端确认
+            if (!validateClientAndRequest(client, requestVo) || StringUtils.isEmpty(requestVo.getContinuationToken())) {
+                log.warn("离线消息续传：客户端或续传令牌为空");
+                client.sendEvent(EVENT_SEND_FAILED, ERR_PARAM_INCOMPLETE);
+                return;
             }
+            String uid = sessionUid(client);
+            if (uid == null) {
+                log.warn("离线消息续传：客户端{}未绑定用户", client.getSessionId());
+                return;
+            }
+            offlineSyncService.sync(uid, requestVo.getContinuationToken(),
+                    chunk -> client.sendEvent(EVENT_OFFLINE_SYNC_CHUNK, chunk));
+        } catch (IllegalArgumentException e) {
+            log.warn("离线消息续传令牌非法：{}", requestVo.getContinuationToken());
+            client.sendEvent(EVENT_SEND_FAILED, ERR_PARAM_INCOMPLETE);
         } catch (Exception e) {
-            log.error("推送单聊离线消息异常，uid={}", uid, e);
+            log.error("处理离线消息续传事件异常", e);
+            if (client != null) {
+                client.sendEvent(EVENT_SEND_FAILED, ERR_SERVER_EXCEPTION);
+            }
         }
     }
 
     /**
-     * 推送群聊离线消息（不立即标记为已读）
+     * 重连增量同步事件
+     * 客户端携带各房间最后一条消息ID，只返回之后的消息（每个房间有批量上限，落后过多时返回标记）
      */
-    private void pushOfflineGroupMessages(SocketIOClient client, String uid) {
+    @OnEvent("syncSince")
+    public void syncSince(SocketIOClient client, SyncSinceRequestVo requestVo) {
+        dispatchByUser(client, "syncSince", () -> doSyncSince(client, requestVo));
+    }
+
+    private void doSyncSince(SocketIOClient client, SyncSinceRequestVo requestVo) {
         try {
-            List<String> userGroupRooms = getRoomsByUid(uid);
-            if (userGroupRooms == null || userGroupRooms.isEmpty()) {
+            if (!validateClientAndRequest(client, requestVo) || requestVo.getCursors() == null) {
+                log.warn("重连增量同步：客户端或游标为空");
+                client.sendEvent(EVENT_SEND_FAILED, ERR_PARAM_INCOMPLETE);
                 return;
             }
-            for (String roomId : userGroupRooms) {
-                if (roomId == null) continue;
-                List<GroupMessageResultVo> offlineMsgs = groupMessageService.getUnreadGroupMessages(roomId, uid);
-                if (offlineMsgs != null && !offlineMsgs.isEmpty()) {
-                    client.sendEvent(EVENT_OFFLINE_GROUP_MSG_PREFIX + roomId, offlineMsgs);
-                    log.info("推送群聊[{}]离线消息{}条给用户{}", roomId, offlineMsgs.size(), uid);
-                    // 不立即标记为已读，等待客户端确认
-                }
+            String uid = sessionUid(client);
+            if (uid == null) {
+                log.warn("重连增量同步：客户端{}未绑定用户", client.getSessionId());
+                return;
             }
+            client.sendEvent(EVENT_SYNC_SINCE_RESULT, offlineSyncService.syncSince(uid, requestVo.getCursors()));
         } catch (Exception e) {
-            log.error("推送群聊离线消息异常，uid={}", uid, e);
+            log.error("处理重连增量同步事件异常", e);
+            if (client != null) {
+                client.sendEvent(EVENT_SEND_FAILED, ERR_SERVER_EXCEPTION);
+            }
+        }
+    }
+
+    /**
+     * 未读计数事件（返回各会话未读数，用于渲染角标）
+     */
+    @OnEvent("getUnreadCounts")
+    public void getUnreadCounts(SocketIOClient client) {
+        dispatchByUser(client, "getUnreadCounts", () -> doGetUnreadCounts(client));
+    }
+
+    private void doGetUnreadCounts(SocketIOClient client) {
+        try {
+            String uid = sessionUid(client);
+            if (uid == null) {
+                log.warn("获取未读计数：客户端[{}]未绑定用户", client.getSessionId());
+                return;
+            }
+            client.sendEvent(EVENT_UNREAD_COUNTS, unreadCounterService.getUnreadCounts(uid));
+        } catch (Exception e) {
+            log.error("获取未读计数异常", e);
+            client.sendEvent(EVENT_SEND_FAILED, ERR_SERVER_EXCEPTION);
         }
     }
 
     /**
      * 客户端心跳事件
-     * 延长用户在线状态过期时间
+     * 只在内存中记录最后活跃时间，由HeartbeatCoalescer后台批量续期；
+     * 本节点没有该客户端记录时（如节点重启后）才投递到通道回源查询并续期
      */
     @OnEvent("heartbeat")
     public void handleHeartbeat(SocketIOClient client) {
+        if (client != null && heartbeatCoalescer.touch(client.getSessionId().toString())) {
+            return;
+        }
+        dispatchByUser(client, "heartbeat", () -> doHeartbeat(client));
+    }
+
+    private void doHeartbeat(SocketIOClient client) {
         try {
             String clientId = client.getSessionId().toString();
             SimpleUser user = onlineUserService.getSimpleUserByClientId(clientId);
             if (user != null) {
-                onlineUserLock.lock();
-                try {
-                    onlineUserService.renewExpiration(clientId, user.getUid(), HEARTBEAT_EXPIRATION_MS);
-                } finally {
-                    onlineUserLock.unlock();
-                }
+                long expirationMs = heartbeatCoalescer.getExpirationMs();
+                onlineUserService.renewExpiration(clientId, user.getUid(), expirationMs);
+                // 之后的心跳走内存记录
+                heartbeatCoalescer.register(clientId, user.getUid());
                 log.debug("客户端[{}]心跳续期成功，用户：{}，过期时间：{}ms",
-                        clientId, user.getUid(), HEARTBEAT_EXPIRATION_MS);
+                        clientId, user.getUid(), expirationMs);
             } else {
                 log.warn("客户端[{}]心跳验证失败：未找到绑定用户", clientId);
             }
@@ -1981,12 +2095,38 @@ public class SocketIoListener {
         }
     }
 
+    /**
+     * 在线状态快照事件
+     * 客户端重连或发现增量不连续时主动拉取好友与同群成员的在线状态
+     */
+    @OnEvent("presenceSnapshot")
+    public void presenceSnapshot(SocketIOClient client) {
+        dispatchByUser(client, "presenceSnapshot", () -> doPresenceSnapshot(client));
+    }
+
+    private void doPresenceSnapshot(SocketIOClient client) {
+        try {
+            String uid = sessionUid(client);
+            if (uid == null) {
+                log.warn("获取在线状态快照：客户端[{}]未绑定用户", client.getSessionId());
+                return;
+            }
+            client.sendEvent(PresenceBroadcaster.EVENT_PRESENCE_SNAPSHOT, presenceBroadcaster.snapshot(uid));
+        } catch (Exception e) {
+            log.error("发送在线状态快照异常", e);
+        }
+    }
+
     /**
      * 用户主动离开事件
-     * 清理在线状态，广播在线用户变化
+     * 清理在线状态，记录下线增量
      */
     @OnEvent("leave")
     public void leave(SocketIOClient client) {
+        dispatchByUser(client, "leave", () -> doLeave(client));
+    }
+
+    private void doLeave(SocketIOClient client) {
         try {
             if (client == null) {
                 log.warn("用户离开：客户端为空，跳过处理");
@@ -1994,7 +2134,6 @@ public class SocketIoListener {
             }
             log.info("用户离开，clientId：{}", client.getSessionId());
             cleanLoginInfo(client.getSessionId().toString());
-            broadcastOnlineUser();
         } catch (Exception e) {
             log.error("处理用户离开事件异常", e);
         }
@@ -2006,6 +2145,11 @@ public class SocketIoListener {
      */
     @OnEvent("isReadMsg")
     public void isReadMsg(SocketIOClient client, UserIsReadMsgRequestVo requestVo) {
+        dispatchByRoom(client, requestVo == null ? null : requestVo.getRoomId(),
+                "isReadMsg", () -> doIsReadMsg(client, requestVo));
+    }
+
+    private void doIsReadMsg(SocketIOClient client, UserIsReadMsgRequestVo requestVo) {
         try {
             // 参数校验
             if (!validateClientAndRequest(client, requestVo) || StringUtils.isEmpty(requestVo.getRoomId())) {
@@ -2017,6 +2161,9 @@ public class SocketIoListener {
                 log.error("消息已读标记失败：房间ID格式非法，roomId={}", requestVo.getRoomId());
                 return;
             }
+            if (!verifyRoomActor(client, requestVo.getRoomId(), null, true)) {
+                return;
+            }
             log.info("消息已读标记，requestVo：{}", requestVo);
 
             // 发送给房间内其他客户端
@@ -2034,6 +2181,10 @@ public class SocketIoListener {
      */
     @OnEvent("join")
     public void join(SocketIOClient client, CurrentConversationVo conversationVo) {
+        dispatchByUser(client, "join", () -> doJoin(client, conversationVo));
+    }
+
+    private void doJoin(SocketIOClient client, CurrentConversationVo conversationVo) {
         try {
             if (conversationVo == null || StringUtils.isEmpty(conversationVo.getRoomId())) {
                 log.warn("加入房间：房间ID为空");
@@ -2047,8 +2198,14 @@ public class SocketIoListener {
                 client.sendEvent(EVENT_JOIN_FAILED, ERR_INVALID_ROOM_ID);
                 return;
             }
+            // 单聊消息按用户投递，加入单聊房间只会增加房间索引内存
+            if (ValidationUtil.isValidSingleRoomId(roomId)) {
+                log.debug("单聊会话无需加入房间，roomId：{}", roomId);
+                return;
+            }
             log.info("加入房间，roomId：{}，conversationVo：{}", roomId, conversationVo);
             client.joinRoom(roomId);
+            clusterBroadcaster.joinRooms(Collections.singletonList(roomId));
         } catch (Exception e) {
             log.error("处理加入房间事件异常", e);
             if (client != null) {
@@ -2063,6 +2220,11 @@ public class SocketIoListener {
      */
     @OnEvent("sendNewMessage")
     public void sendNewMessage(SocketIOClient client, NewMessageVo newMessageVo) {
+        dispatchByRoom(client, newMessageVo == null ? null : newMessageVo.getRoomId(),
+                "sendNewMessage", () -> doSendNewMessage(client, newMessageVo));
+    }
+
+    private void doSendNewMessage(SocketIOClient client, NewMessageVo newMessageVo) {
         try {
             // 基础参数校验
             if (!validateNewMessageParams(client, newMessageVo)) {
@@ -2072,11 +2234,11 @@ public class SocketIoListener {
             String roomId = newMessageVo.getRoomId();
             log.info("处理新消息，senderId={}, roomId={}", senderId, roomId);
 
-            // 身份验证（防止会话劫持）
-//            if (!validateSenderIdentity(senderId)) {
-//                client.sendEvent(EVENT_SEND_FAILED, ERR_IDENTITY_VERIFY_FAILED);
-//                return;
-//            }
+            // 身份验证（防止伪造发送者）
+            if (!validateSenderIdentity(client, senderId)) {
+                client.sendEvent(EVENT_SEND_FAILED, ERR_IDENTITY_VERIFY_FAILED);
+                return;
+            }
 
             // ========== 消息防篡改校验 ==========
             String message = newMessageVo.getMessage();
@@ -2114,11 +2276,25 @@ public class SocketIoListener {
             // 处理已读用户列表（发送者默认已读+在线接收者）
             handleReadUsers(newMessageVo);
 
-            // 保存消息到数据库
-            saveMessageToDb(newMessageVo);
-
-            // 转发消息给房间内其他客户端
-            sendToOtherClients(client, roomId, EVENT_RECEIVE_MSG, newMessageVo);
+            // 保存消息到数据库，按ack模式确认后转发消息给房间内其他客户端
+            CompletableFuture<Void> committed = saveMessageToDb(newMessageVo);
+            if (committed.isDone() && !committed.isCompletedExceptionally()) {
+                sendToOtherClients(client, roomId, EVENT_RECEIVE_MSG, newMessageVo);
+                return;
+            }
+            // MONGO模式：不占用房间通道等待组提交，确认后回到房间通道转发，保持房间内消息顺序
+            committed.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    // 消息仍保留在WAL中，会在重启后重放写入，客户端不应重发
+                    log.warn("消息落库未确认，保留在WAL中待重放，roomId={}", roomId, error);
+                    client.sendEvent(EVENT_SEND_PENDING, newMessageVo.getSeq());
+                    return;
+                }
+                Runnable forward = () -> sendToOtherClients(client, roomId, EVENT_RECEIVE_MSG, newMessageVo);
+                if (!socketEventDispatcher.dispatch(roomId, "forwardCommitted", forward)) {
+                    forward.run();
+                }
+            });
         } catch (Exception e) {
             log.error("处理发送新消息事件异常", e);
             if (client != null) {
@@ -2161,25 +2337,14 @@ public class SocketIoListener {
     }
 
     /**
-     * 验证发送者身份（与SecurityContext中的身份匹配）
+     * 验证发送者身份（与客户端会话中握手认证得到的uid匹配）
      */
-    private boolean validateSenderIdentity(String senderId) {
-        // 获取认证信息前添加空值检查
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        if (authentication == null) {
-            log.error("身份验证失败：未找到有效的认证信息");
-            return false;
-        }
-
-        String actualUserId = authentication.getName();
-        // 进一步检查用户名是否为空
+    private boolean validateSenderIdentity(SocketIOClient client, String senderId) {
+        String actualUserId = sessionUid(client);
         if (actualUserId == null) {
-            log.error("身份验证失败：认证信息中的用户名为空");
+            log.error("身份验证失败：客户端[{}]未绑定认证用户", client.getSessionId());
             return false;
         }
-
-        System.out.println("actualUserId：" + actualUserId);
-
         if (!actualUserId.equals(senderId)) {
             log.warn("会话劫持风险：{} 尝试伪造发送者 {}", actualUserId, senderId);
             return false;
@@ -2187,6 +2352,62 @@ public class SocketIoListener {
         return true;
     }
 
+    /**
+     * 处理好友/加群申请前的校验：操作者须是会话用户本人，且库中的申请仍未处理、类型一致、接收者正是该用户
+     * 校验通过后以库中记录覆盖客户端提交的发送者/接收者/房间/群信息；返回null表示已拒绝并通知客户端
+     */
+    private ValidateMessage loadPendingValidateMessage(SocketIOClient client, ValidateMessageResponseVo validateMessage,
+                                                       int validateType) {
+        if (!validateSenderIdentity(client, validateMessage.getReceiverId())) {
+            client.sendEvent(EVENT_SEND_FAILED, ERR_IDENTITY_VERIFY_FAILED);
+            return null;
+        }
+        String uid = validateMessage.getReceiverId();
+        ValidateMessage stored = validateMessageService.findValidateMessageById(validateMessage.getId());
+        if (stored == null || !Integer.valueOf(0).equals(stored.getStatus())
+                || !Integer.valueOf(validateType).equals(stored.getValidateType())
+                || stored.getSenderId() == null || stored.getReceiverId() == null
+                || !uid.equals(stored.getReceiverId().toHexString())
+                || (validateType == 1 && stored.getGroupId() == null)) {
+            log.warn("处理验证消息被拒绝：用户{}无权处理验证消息{}或该消息已处理", uid, validateMessage.getId());
+            client.sendEvent(EVENT_SEND_FAILED, ERR_VALIDATE_MSG_INVALID);
+            return null;
+        }
+        validateMessage.setSenderId(stored.getSenderId().toHexString());
+        validateMessage.setSenderName(stored.getSenderName());
+        validateMessage.setRoomId(stored.getRoomId());
+        validateMessage.setValidateType(stored.getValidateType());
+        if (stored.getGroupId() != null) {
+            String title = validateMessage.getGroupInfo() == null ? null : validateMessage.getGroupInfo().getTitle();
+            validateMessage.setGroupInfo(new SimpleGroup(stored.getGroupId().toHexString(), title));
+        }
+        return stored;
+    }
+
+    /**
+     * 房间事件的操作者校验：会话必须绑定用户，客户端声明的操作者须与会话用户一致（未声明时不校验），
+     * requireMember为true时会话用户还须属于该房间（单聊为房间ID的一方，群聊为群成员）
+     */
+    private boolean verifyRoomActor(SocketIOClient client, String roomId, String claimedUid, boolean requireMember) {
+        String uid = sessionUid(client);
+        if (StringUtils.isEmpty(uid) || (!StringUtils.isEmpty(claimedUid) && !validateSenderIdentity(client, claimedUid))) {
+            log.warn("房间事件身份校验失败：会话用户{}，声明用户{}，roomId={}", uid, claimedUid, roomId);
+            client.sendEvent(EVENT_SEND_FAILED, ERR_IDENTITY_VERIFY_FAILED);
+            return false;
+        }
+        if (!requireMember) {
+            return true;
+        }
+        boolean member = ValidationUtil.isValidSingleRoomId(roomId)
+                ? Arrays.asList(roomId.split("-")).contains(uid)
+                : getRoomsByUid(uid).contains(roomId);
+        if (!member) {
+            log.warn("房间事件被拒绝：用户{}不属于房间{}", uid, roomId);
+            client.sendEvent(EVENT_SEND_FAILED, ERR_NOT_ROOM_MEMBER);
+        }
+        return member;
+    }
+
     /**
      * 消息安全处理（XSS防御+敏感词过滤）
      */
@@ -2308,25 +2529,44 @@ public class SocketIoListener {
 
     /**
      * 保存消息到数据库（单聊/群聊区分处理）
+     * 经持久化管道写WAL后异步组提交，确认时机由chat.persist.ack-mode决定；
+     * 保存前分配房间内序号（转发给其他客户端的消息同样携带该序号）
+     * @return 消息按ack模式确认后完成的Future
      */
-    private void saveMessageToDb(NewMessageVo newMessageVo) {
+    private CompletableFuture<Void> saveMessageToDb(NewMessageVo newMessageVo) {
+        CompletableFuture<Void> committed = CompletableFuture.completedFuture(null);
+        newMessageVo.setSeq(roomSequenceAllocator.next(newMessageVo.getRoomId()));
         if (ConstValueEnum.FRIEND.equals(newMessageVo.getConversationType())) {
             // 保存单聊消息
             SingleMessage singleMessage = new SingleMessage();
             BeanUtils.copyProperties(newMessageVo, singleMessage);
             singleMessage.setSenderId(new ObjectId(newMessageVo.getSenderId()));
             singleMessage.setTime(formatTime(Instant.now()));
-            singleMessageService.addNewSingleMessage(singleMessage);
+            committed = messagePersistService.persistSingleMessage(singleMessage);
             log.debug("保存单聊消息：{}", singleMessage.getId());
+            // 接收者在线时推进其已读水位线（随已读确认按窗口批量写入，缓冲区满时同步写入）
+            if (newMessageVo.getIsReadUser() != null
+                    && newMessageVo.getIsReadUser().contains(newMessageVo.getReceiverId())) {
+                ReadWatermarkVo watermark = new ReadWatermarkVo(singleMessage.getId(), singleMessage.getSeq());
+                if (!readAckAggregator.submitWatermark(newMessageVo.getReceiverId(), newMessageVo.getRoomId(), watermark)) {
+                    readStateService.markRead(newMessageVo.getReceiverId(), newMessageVo.getRoomId(), watermark);
+                }
+            } else {
+                unreadCounterService.incrementSingle(newMessageVo.getReceiverId(), newMessageVo.getRoomId());
+                inboxService.appendSingle(newMessageVo.getReceiverId(), newMessageVo.getRoomId(), singleMessage.getId());
+            }
         } else if (ConstValueEnum.GROUP.equals(newMessageVo.getConversationType())) {
             // 保存群聊消息
             GroupMessage groupMessage = new GroupMessage();
             BeanUtils.copyProperties(newMessageVo, groupMessage);
             groupMessage.setSenderId(new ObjectId(newMessageVo.getSenderId()));
             groupMessage.setTime(formatTime(Instant.now()));
-            groupMessageService.addNewGroupMessage(groupMessage);
+            committed = messagePersistService.persistGroupMessage(groupMessage);
             log.debug("保存群聊消息：{}", groupMessage.getId());
+            unreadCounterService.incrementGroup(newMessageVo.getRoomId(), newMessageVo.getSenderId());
+            inboxService.appendGroup(newMessageVo.getRoomId(), newMessageVo.getSenderId(), groupMessage.getId());
         }
+        return committed;
     }
 
     /**
@@ -2404,11 +2644,20 @@ public class SocketIoListener {
      */
     @OnEvent("sendValidateMessage")
     public void sendValidateMessage(SocketIOClient client, ValidateMessage validateMessage) {
+        dispatchByUser(client, "sendValidateMessage", () -> doSendValidateMessage(client, validateMessage));
+    }
+
+    private void doSendValidateMessage(SocketIOClient client, ValidateMessage validateMessage) {
         try {
             if (!validateClientAndRequest(client, validateMessage)) {
                 log.warn("发送验证消息：客户端或消息为空");
                 return;
             }
+            if (validateMessage.getSenderId() == null
+                    || !validateSenderIdentity(client, validateMessage.getSenderId().toHexString())) {
+                client.sendEvent(EVENT_SEND_FAILED, ERR_IDENTITY_VERIFY_FAILED);
+                return;
+            }
             log.info("处理验证消息：senderId={}, roomId={}",
                     validateMessage.getSenderId(), validateMessage.getRoomId());
 
@@ -2459,11 +2708,18 @@ public class SocketIoListener {
      */
     @OnEvent("sendAgreeFriendValidate")
     public void sendAgreeFriendValidate(SocketIOClient client, ValidateMessageResponseVo validateMessage) {
+        dispatchByUser(client, "sendAgreeFriendValidate", () -> doSendAgreeFriendValidate(client, validateMessage));
+    }
+
+    private void doSendAgreeFriendValidate(SocketIOClient client, ValidateMessageResponseVo validateMessage) {
         try {
             if (!validateClientAndRequest(client, validateMessage)) {
                 log.warn("同意好友请求：客户端或消息为空");
                 return;
             }
+            if (loadPendingValidateMessage(client, validateMessage, 0) == null) {
+                return;
+            }
             log.info("同意好友请求：senderId={}, receiverId={}",
                     validateMessage.getSenderId(), validateMessage.getReceiverId());
 
@@ -2512,11 +2768,18 @@ public class SocketIoListener {
      */
     @OnEvent("sendDisAgreeFriendValidate")
     public void sendDisAgreeFriendValidate(SocketIOClient client, ValidateMessageResponseVo validateMessage) {
+        dispatchByUser(client, "sendDisAgreeFriendValidate", () -> doSendDisAgreeFriendValidate(client, validateMessage));
+    }
+
+    private void doSendDisAgreeFriendValidate(SocketIOClient client, ValidateMessageResponseVo validateMessage) {
         try {
             if (!validateClientAndRequest(client, validateMessage)) {
                 log.warn("拒绝好友请求：客户端或消息为空");
                 return;
             }
+            if (loadPendingValidateMessage(client, validateMessage, 0) == null) {
+                return;
+            }
             log.info("拒绝好友请求：id={}", validateMessage.getId());
             validateMessageService.changeFriendValidateNewsStatus(validateMessage.getId(), 2);
         } catch (Exception e) {
@@ -2532,6 +2795,10 @@ public class SocketIoListener {
      */
     @OnEvent("sendDelGoodFriend")
     public void sendDelGoodFriend(SocketIOClient client, CurrentConversationVo conversationVo) {
+        dispatchByUser(client, "sendDelGoodFriend", () -> doSendDelGoodFriend(client, conversationVo));
+    }
+
+    private void doSendDelGoodFriend(SocketIOClient client, CurrentConversationVo conversationVo) {
         try {
             if (!validateClientAndRequest(client, conversationVo) || StringUtils.isEmpty(conversationVo.getRoomId())) {
                 log.warn("删除好友：客户端或消息为空");
@@ -2540,7 +2807,7 @@ public class SocketIoListener {
             log.info("删除好友：roomId={}", conversationVo.getRoomId());
 
             // 补充操作人ID
-            String uid = onlineUserService.getSimpleUserByClientId(client.getSessionId().toString()).getUid();
+            String uid = sessionUid(client);
             conversationVo.setId(uid);
 
             // 转发删除通知
@@ -2558,11 +2825,18 @@ public class SocketIoListener {
      */
     @OnEvent("sendAgreeGroupValidate")
     public void sendAgreeGroupValidate(SocketIOClient client, ValidateMessageResponseVo validateMessage) {
+        dispatchByUser(client, "sendAgreeGroupValidate", () -> doSendAgreeGroupValidate(client, validateMessage));
+    }
+
+    private void doSendAgreeGroupValidate(SocketIOClient client, ValidateMessageResponseVo validateMessage) {
         try {
             if (!validateClientAndRequest(client, validateMessage)) {
                 log.warn("同意加入群聊：客户端或消息为空");
                 return;
             }
+            if (loadPendingValidateMessage(client, validateMessage, 1) == null) {
+                return;
+            }
             log.info("同意加入群聊：groupId={}, userId={}",
                     validateMessage.getRoomId(), validateMessage.getReceiverId());
 
@@ -2589,13 +2863,20 @@ public class SocketIoListener {
      */
     @OnEvent("sendDisAgreeGroupValidate")
     public void sendDisAgreeGroupValidate(SocketIOClient client, ValidateMessageResponseVo validateMessage) {
+        dispatchByUser(client, "sendDisAgreeGroupValidate", () -> doSendDisAgreeGroupValidate(client, validateMessage));
+    }
+
+    private void doSendDisAgreeGroupValidate(SocketIOClient client, ValidateMessageResponseVo validateMessage) {
         try {
             if (!validateClientAndRequest(client, validateMessage)) {
                 log.warn("拒绝加入群聊：客户端或消息为空");
                 return;
             }
+            if (loadPendingValidateMessage(client, validateMessage, 1) == null) {
+                return;
+            }
             log.info("拒绝加入群聊：id={}", validateMessage.getId());
-            validateMessageService.changeFriendValidateNewsStatus(validateMessage.getId(), 2);
+            validateMessageService.changeGroupValidateNewsStatus(validateMessage.getId(), 2);
         } catch (Exception e) {
             log.error("处理拒绝加入群聊事件异常", e);
             if (client != null) {
@@ -2609,11 +2890,20 @@ public class SocketIoListener {
      */
     @OnEvent("sendQuitGroup")
     public void sendQuitGroup(SocketIOClient client, CurrentConversationVo conversationVo) {
+        dispatchByRoom(client, conversationVo == null ? null : conversationVo.getRoomId(),
+                "sendQuitGroup", () -> doSendQuitGroup(client, conversationVo));
+    }
+
+    private void doSendQuitGroup(SocketIOClient client, CurrentConversationVo conversationVo) {
         try {
             if (!validateClientAndRequest(client, conversationVo) || StringUtils.isEmpty(conversationVo.getRoomId())) {
                 log.warn("退出群聊：客户端或消息为空");
                 return;
             }
+            // 退群通知在成员关系删除之后发出，此处只校验操作者身份
+            if (!verifyRoomActor(client, conversationVo.getRoomId(), conversationVo.getMyId(), false)) {
+                return;
+            }
             log.info("退出群聊：roomId={}", conversationVo.getRoomId());
             sendToOtherClients(client, conversationVo.getRoomId(), EVENT_RECEIVE_QUIT_GROUP, conversationVo);
         } catch (Exception e) {
@@ -2667,11 +2957,19 @@ public class SocketIoListener {
      * 通用事件转发到房间
      */
     private void forwardEventToRoom(SocketIOClient client, CurrentConversationVo conversationVo, String eventName) {
+        dispatchByRoom(client, conversationVo == null ? null : conversationVo.getRoomId(), eventName,
+                () -> doForwardEventToRoom(client, conversationVo, eventName));
+    }
+
+    private void doForwardEventToRoom(SocketIOClient client, CurrentConversationVo conversationVo, String eventName) {
         try {
             if (!validateClientAndRequest(client, conversationVo) || StringUtils.isEmpty(conversationVo.getRoomId())) {
                 log.warn("转发事件{}：客户端或消息为空", eventName);
                 return;
             }
+            if (!verifyRoomActor(client, conversationVo.getRoomId(), conversationVo.getMyId(), true)) {
+                return;
+            }
             log.debug("转发事件{}，roomId：{}", eventName, conversationVo.getRoomId());
             sendToOtherClients(client, conversationVo.getRoomId(), eventName, conversationVo);
         } catch (Exception e) {
@@ -2683,23 +2981,28 @@ public class SocketIoListener {
     }
 
     /**
-     * 发送事件给房间内其他客户端（排除自己）
+     * 发送事件给房间内其他客户端（排除自己，集群模式下包含其他节点的客户端）
+     * 单聊房间ID（"uid-uid"）直接按用户投递给对方的会话，群聊仍按房间广播
      */
     private void sendToOtherClients(SocketIOClient senderClient, String roomId, String eventName, Object data) {
         try {
-            Collection<SocketIOClient> clients = socketIOServer.getRoomOperations(roomId).getClients();
-            if (clients == null) {
-                log.debug("房间{}内无其他客户端，无需转发事件{}", roomId, eventName);
-                return;
-            }
-            // 使用迭代器遍历，避免ConcurrentModificationException
-            Iterator<SocketIOClient> iterator = clients.iterator();
-            while (iterator.hasNext()) {
-                SocketIOClient client = iterator.next();
-                if (client != null && !client.getSessionId().equals(senderClient.getSessionId())) {
-                    client.sendEvent(eventName, data);
+            String senderClientId = senderClient.getSessionId().toString();
+            if (ValidationUtil.isValidSingleRoomId(roomId)) {
+                String senderUid = userKey(senderClient);
+                List<String> members = Arrays.asList(roomId.split("-"));
+                // 发送者必须是单聊的一方，否则任意客户端都能向他人的会话投递事件
+                if (!members.contains(senderUid)) {
+                    log.warn("发送事件{}被拒绝：发送者{}不属于单聊房间{}", eventName, senderUid, roomId);
+                    return;
                 }
+                for (String uid : members) {
+                    if (!uid.equals(senderUid)) {
+                        clusterBroadcaster.sendToUser(uid, eventName, data);
+                    }
+                }
+                return;
             }
+            clusterBroadcaster.sendToRoom(roomId, eventName, senderClientId, data);
         } catch (Exception e) {
             log.error("发送事件{}给房间{}内其他客户端异常", eventName, roomId, e);
         }
@@ -20,6 +20,7 @@ public class GroupMessage {
     @Id
     private ObjectId id;
     private String roomId; // => groupId
+    private Long seq; // 房间内序号（服务端分配，单调递增，用于排序、补洞与游标分页）
     private ObjectId senderId; // 发送者Id
     private String senderName; // 发送者登录名
     private String senderNickname;// 发送者昵称
@@ -0,0 +1,26 @@
+package com.zzw.chatserver.pojo;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * 会话已读水位（每个用户每个房间一条）
+ * 有序号的消息seq不大于lastReadSeq视为已读，旧的无序号消息按_id不大于lastReadMessageId判断
+ */
+@Data
+@NoArgsConstructor
+@Document("readstates")
+public class ReadState {
+    @Id
+    private ObjectId id;
+    private String userId; // 用户ID
+    private String roomId; // 房间ID（单聊"uid-uid"或群ID）
+    private ObjectId lastReadMessageId; // 已读水位（为null表示房间内消息均未读）
+    private Long lastReadSeq; // 已读水位的房间序号（为null时全部按lastReadMessageId判断）
+    private Date updateTime; // 最后更新时间
+}
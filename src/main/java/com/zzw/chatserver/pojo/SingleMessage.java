@@ -21,6 +21,7 @@ public class SingleMessage {
     @Id
     private ObjectId id;
     private String roomId; // 房间
+    private Long seq; // 房间内序号（服务端分配，单调递增，用于排序、补洞与游标分页）
     private ObjectId senderId; // 发送者Id
     private String receiverId;     // 接收者ID
     private String senderName;  // 发送者登录名
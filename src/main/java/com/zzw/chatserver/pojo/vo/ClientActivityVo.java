@@ -0,0 +1,18 @@
+package com.zzw.chatserver.pojo.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 客户端活跃记录（心跳批量续期使用）
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ClientActivityVo {
+    private String clientId;
+    private String uid;
+    // 最后一次心跳时间（毫秒时间戳）
+    private Long lastActiveTime;
+}
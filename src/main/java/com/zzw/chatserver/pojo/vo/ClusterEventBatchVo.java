@@ -0,0 +1,20 @@
+package com.zzw.chatserver.pojo.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 集群事件批次（一个节点一个刷新窗口内的全部待转发事件，一次发布）
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ClusterEventBatchVo {
+    // 发布节点ID（节点收到自己发布的批次时忽略）
+    private String nodeId;
+    // 批次内的事件
+    private List<ClusterEventVo> events;
+}
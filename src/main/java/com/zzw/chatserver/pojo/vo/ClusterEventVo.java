@@ -0,0 +1,26 @@
+package com.zzw.chatserver.pojo.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 集群事件（节点间转发的一条Socket推送）
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ClusterEventVo {
+    // 事件类型：ROOM=房间广播，USER=推送给指定用户，其他类型由注册的处理器消费（如PRESENCE）
+    private String type;
+    // 目标：房间ID或用户ID
+    private String target;
+    // Socket事件名
+    private String eventName;
+    // 需要排除的客户端ID（发送者自己，可为空）
+    private String excludeClientId;
+    // 事件参数
+    private List<Object> args;
+}
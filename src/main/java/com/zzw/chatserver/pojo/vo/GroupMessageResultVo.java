@@ -17,6 +17,7 @@ import java.util.List;
 public class GroupMessageResultVo {
     private String id;
     private String roomId;
+    private Long seq; // 房间内序号
     private String senderId;
     private String senderName;
     private String senderNickname;
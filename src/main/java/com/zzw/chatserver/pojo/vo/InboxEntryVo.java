@@ -0,0 +1,22 @@
+package com.zzw.chatserver.pojo.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 收件箱条目（消息引用）
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class InboxEntryVo {
+    // Stream条目ID
+    private String entryId;
+    // 消息类型：S=单聊，G=群聊
+    private String type;
+    // 房间ID
+    private String roomId;
+    // 消息ID
+    private String messageId;
+}
@@ -15,6 +15,7 @@ import java.util.List;
 @NoArgsConstructor
 public class NewMessageVo {
     private String roomId;
+    private Long seq; // 房间内序号（服务端分配，客户端传入的值会被覆盖）
     private String senderId;// 发送者Id
     private String receiverId;     // 接收者ID
     private String senderName;// 发送者登录名
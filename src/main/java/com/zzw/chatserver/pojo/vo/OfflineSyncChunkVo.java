@@ -0,0 +1,24 @@
+package com.zzw.chatserver.pojo.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 离线消息同步分片
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OfflineSyncChunkVo {
+    // 消息类型：single=单聊，group=群聊（各房间混合，按消息自带的roomId区分）
+    private String type;
+    // 本分片的消息（按_id升序）
+    private List<?> messages;
+    // 续传令牌：客户端携带此令牌发送offlineSync事件可从本分片之后继续同步
+    private String continuationToken;
+    // true=全部离线消息已同步完毕
+    private Boolean finished;
+}
@@ -0,0 +1,16 @@
+package com.zzw.chatserver.pojo.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 离线消息续传请求
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OfflineSyncRequestVo {
+    // 上一个分片返回的续传令牌
+    private String continuationToken;
+}
@@ -0,0 +1,22 @@
+package com.zzw.chatserver.pojo.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 在线状态增量（一个防抖窗口内的上线/下线用户）
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PresenceDeltaVo {
+    // 上线的用户ID
+    private List<String> online;
+    // 下线的用户ID
+    private List<String> offline;
+    // 生成时间（毫秒时间戳），客户端可据此丢弃早于快照的增量
+    private Long timestamp;
+}
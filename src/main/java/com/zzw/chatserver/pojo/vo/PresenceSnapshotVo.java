@@ -0,0 +1,20 @@
+package com.zzw.chatserver.pojo.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 在线状态全量快照（客户端上线或重新同步时获取）
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PresenceSnapshotVo {
+    // 在线用户ID
+    private List<String> online;
+    // 生成时间（毫秒时间戳）
+    private Long timestamp;
+}
@@ -0,0 +1,41 @@
+package com.zzw.chatserver.pojo.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bson.types.ObjectId;
+
+/**
+ * 已读水位（已读到的消息）
+ * ObjectId由各节点按本机时钟生成，跨节点不保证与发送顺序一致；
+ * 有房间序号的消息按(seq, _id)比较，只有旧的无序号消息才按_id比较
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReadWatermarkVo {
+    // 已读到的消息ID
+    private ObjectId messageId;
+    // 该消息的房间序号（旧消息无序号时为null）
+    private Long seq;
+
+    /**
+     * 指定消息是否在水位之内（已读）
+     */
+    public boolean covers(ObjectId id, Long messageSeq) {
+        if (seq != null && messageSeq != null) {
+            return messageSeq <= seq;
+        }
+        return messageId != null && id != null && messageId.compareTo(id) >= 0;
+    }
+
+    /**
+     * 取两个水位中靠后的一个
+     */
+    public static ReadWatermarkVo later(ReadWatermarkVo a, ReadWatermarkVo b) {
+        if (a == null || b == null) {
+            return a != null ? a : b;
+        }
+        return a.covers(b.getMessageId(), b.getSeq()) ? a : b;
+    }
+}
@@ -0,0 +1,20 @@
+package com.zzw.chatserver.pojo.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 用户的会话成员索引（参与的单聊房间与群聊）
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RoomMembershipVo {
+    // 单聊房间ID（"uid-uid"，按字典序拼接）
+    private List<String> singleRoomIds;
+    // 所在群ID（即群聊房间ID）
+    private List<String> groupIds;
+}
@@ -17,6 +17,7 @@ import java.util.List;
 public class SingleMessageResultVo {
     private String id;
     private String roomId;
+    private Long seq; // 房间内序号
     private String senderId;
     private String receiverId; // 接收者ID字段
     private String senderName;
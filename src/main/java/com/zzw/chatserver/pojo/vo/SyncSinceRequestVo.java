@@ -0,0 +1,18 @@
+package com.zzw.chatserver.pojo.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * 重连增量同步请求
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SyncSinceRequestVo {
+    // 房间ID -> 客户端持有的该房间最后一条消息ID
+    private Map<String, String> cursors;
+}
@@ -0,0 +1,25 @@
+package com.zzw.chatserver.pojo.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 重连增量同步结果（单个房间）
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SyncSinceRoomVo {
+    private String roomId;
+    // 消息类型：single=单聊，group=群聊
+    private String type;
+    // 游标之后的消息（按(seq, _id)升序，无序号的旧消息在前）
+    private List<?> messages;
+    // true=本批之后还有消息，客户端以最后一条消息ID为游标再次请求
+    private Boolean hasMore;
+    // true=落后过多（或游标无效），本次不返回消息，客户端改用历史消息接口
+    private Boolean tooFarBehind;
+}
@@ -53,4 +53,11 @@ public interface GoodFriendService {
      * @return true=是好友，false=非好友
      */
     boolean checkIsFriend(String userId, String friendId);
+
+    /**
+     * 获取用户的全部好友ID（好友关系图已加载时不访问数据库）
+     * @param userId 用户ID（字符串格式）
+     * @return 好友ID列表
+     */
+    List<String> getFriendIds(String userId);
 }
\ No newline at end of file
@@ -59,6 +59,16 @@ public interface GroupMessageService {
      */
     List<GroupMessageResultVo> getRecentGroupMessages(String roomId, Integer pageIndex, Integer pageSize);
 
+    /**
+     * 按房间序号游标分页查询群聊消息（结果按序号升序）
+     * @param roomId 群聊房间ID
+     * @param afterSeq 不为null时向后查询序号大于该值的消息（补洞/追新）
+     * @param beforeSeq afterSeq为null时向前查询序号小于该值的消息，均为null时返回最新消息
+     * @param limit 最多返回条数
+     * @return 群聊消息列表
+     */
+    List<GroupMessageResultVo> getMessagesBySeq(String roomId, Long afterSeq, Long beforeSeq, int limit);
+
     /**
      * 保存新的群聊消息
      * @param groupMessage 群聊消息实体（含发送者、房间ID、消息内容等）
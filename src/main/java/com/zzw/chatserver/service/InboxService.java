@@ -0,0 +1,68 @@
+package com.zzw.chatserver.service;
+
+import com.zzw.chatserver.pojo.vo.InboxEntryVo;
+import org.bson.types.ObjectId;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 收件箱时间线服务接口（写扩散 + 读扩散混合）
+ * - 单聊与小群：写入消息时把消息引用追加到每个接收者的收件箱（Redis Stream），
+ *   重连同步只需读取收件箱中的新条目
+ * - 大群（成员数超过阈值）：不做写扩散，同步时按房间已读水位拉取
+ */
+public interface InboxService {
+
+    /**
+     * 单聊消息写入接收者收件箱
+     * @param receiverId 接收者ID
+     * @param roomId 单聊房间ID
+     * @param messageId 消息ID
+     */
+    void appendSingle(String receiverId, String roomId, ObjectId messageId);
+
+    /**
+     * 群聊消息写入除发送者外各成员的收件箱（大群跳过，改为读时拉取）
+     * @param groupId 群ID（即房间ID）
+     * @param senderId 发送者ID
+     * @param messageId 消息ID
+     */
+    void appendGroup(String groupId, String senderId, ObjectId messageId);
+
+    /**
+     * 用户收件箱是否存在（不存在表示从未初始化、已过期或超长被丢弃，需全量同步）
+     * @param uid 用户ID
+     */
+    boolean exists(String uid);
+
+    /**
+     * 初始化用户收件箱，此后的新消息开始写入
+     * @param uid 用户ID
+     */
+    void initialize(String uid);
+
+    /**
+     * 按顺序读取收件箱条目
+     * @param uid 用户ID
+     * @param afterEntryId 从该条目之后开始读取（null表示从头读取）
+     * @param count 最多读取条数
+     * @return 收件箱条目（按写入顺序）
+     */
+    List<InboxEntryVo> read(String uid, String afterEntryId, int count);
+
+    /**
+     * 删除已读或已失效的收件箱条目
+     * @param uid 用户ID
+     * @param entryIds 条目ID
+     */
+    void remove(String uid, Collection<String> entryIds);
+
+    /**
+     * 筛选出按读扩散处理的大群
+     * @param groupIds 群ID
+     * @return 其中的大群ID
+     */
+    Set<String> filterPullGroups(Collection<String> groupIds);
+}
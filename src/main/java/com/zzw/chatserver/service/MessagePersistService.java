@@ -0,0 +1,37 @@
+package com.zzw.chatserver.service;
+
+import com.zzw.chatserver.pojo.GroupMessage;
+import com.zzw.chatserver.pojo.SingleMessage;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 聊天消息持久化服务接口（写后置 + 组提交）
+ * 消息先追加到本地预写日志（WAL），再由后台线程按批次insertMany写入MongoDB
+ * 确认时机由ack模式决定：
+ * - WAL：写入WAL即确认，转发不再等待MongoDB（未开启wal-fsync时只能抵御进程崩溃，操作系统崩溃或断电可能丢失最近写入的消息）
+ * - MONGO：所在批次写入MongoDB后确认
+ * 持久化方法不阻塞调用线程等待确认，而是返回确认时完成的Future，由调用方在完成后继续转发
+ */
+public interface MessagePersistService {
+
+    /**
+     * 持久化单聊消息（未设置_id时会预先分配，便于重放去重）
+     * @param singleMessage 单聊消息实体
+     * @return 按ack模式确认后完成的Future；异常完成时消息仍保留在WAL中，下次启动重放
+     */
+    CompletableFuture<Void> persistSingleMessage(SingleMessage singleMessage);
+
+    /**
+     * 持久化群聊消息（未设置_id时会预先分配，便于重放去重）
+     * @param groupMessage 群聊消息实体
+     * @return 按ack模式确认后完成的Future；异常完成时消息仍保留在WAL中，下次启动重放
+     */
+    CompletableFuture<Void> persistGroupMessage(GroupMessage groupMessage);
+
+    /**
+     * 当前等待写入MongoDB的消息数量
+     * @return 队列中的消息数
+     */
+    int getPendingCount();
+}
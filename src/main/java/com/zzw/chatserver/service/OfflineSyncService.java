@@ -0,0 +1,33 @@
+package com.zzw.chatserver.service;
+
+import com.zzw.chatserver.pojo.vo.OfflineSyncChunkVo;
+import com.zzw.chatserver.pojo.vo.SyncSinceRoomVo;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 离线消息同步服务接口
+ * 增量同步读取用户收件箱（单聊与小群）并按房间拉取大群，收件箱缺失时回退为全量游标扫描，
+ * 按页分片推送，单次调用推送的分片数有上限，剩余部分由客户端携带续传令牌继续拉取
+ */
+public interface OfflineSyncService {
+
+    /**
+     * 同步离线消息
+     * @param uid 用户ID
+     * @param continuationToken 续传令牌（首次同步传null）
+     * @param sender 分片发送逻辑
+     */
+    void sync(String uid, String continuationToken, Consumer<OfflineSyncChunkVo> sender);
+
+    /**
+     * 按客户端持有的各房间最后一条消息ID返回之后的消息（重连增量同步）
+     * 每个房间最多返回一批，落后过多时只返回标记，由客户端改用历史消息接口
+     * @param uid 用户ID
+     * @param cursors 房间ID -> 最后一条消息ID（只处理用户所在的房间）
+     * @return 各房间的同步结果
+     */
+    List<SyncSinceRoomVo> syncSince(String uid, Map<String, String> cursors);
+}
@@ -1,7 +1,9 @@
 package com.zzw.chatserver.service;
 
+import com.zzw.chatserver.pojo.vo.ClientActivityVo;
 import com.zzw.chatserver.pojo.vo.SimpleUser;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -23,7 +25,7 @@ public interface OnlineUserService {
     String getUidByClientId(String clientId);
 
     /**
-     * 获取所有过期的客户端ID
+     * 获取一批过期的客户端ID（按活动时间升序，单次最多返回chat.presence.sweep-batch-size个）
      * @param expirationMs
      * @return
      */
@@ -37,19 +39,28 @@ public interface OnlineUserService {
      */
     void renewExpiration(String clientId, String uid, long expirationMs);
 
+    /**
+     * 批量续期客户端绑定关系（管道执行，一次往返续期整批客户端）
+     * @param activities 客户端活跃记录（活动时间取各自最后一次心跳时间）
+     * @param expirationMs 过期时间(毫秒)
+     * @return 绑定关系已不存在、未能续期的客户端ID列表
+     */
+    List<String> renewExpirationBatch(List<ClientActivityVo> activities, long expirationMs);
+
     /**
      * 清理过期的客户端绑定
      * @param expirationThresholdMs 过期阈值(毫秒)，超过此时长未活动的客户端将被清理
-     * @return 清理的客户端数量
+     * @return 因清理而离线的用户ID列表
      */
-    int cleanExpiredClients(long expirationThresholdMs);
+    List<String> cleanExpiredClients(long expirationThresholdMs);
 
     /**
      * 绑定客户端ID与用户信息（并将用户UID加入在线集合）
      * @param clientId 客户端唯一标识
      * @param simpleUser 用户简化信息（含UID、昵称等）
+     * @return true=用户由离线变为在线，false=用户原本在线或参数不完整
      */
-    void addClientIdToSimpleUser(String clientId, SimpleUser simpleUser);
+    boolean addClientIdToSimpleUser(String clientId, SimpleUser simpleUser);
 
     /**
      * 获取所有在线用户的UID集合
@@ -68,8 +79,9 @@ public interface OnlineUserService {
      * 移除客户端绑定关系并删除在线UID（用户下线时调用）
      * @param clientId 客户端唯一标识
      * @param uid 要移除的用户UID
+     * @return true=用户因此离线（没有其他客户端），false=用户仍在线或参数不完整
      */
-    void removeClientAndUidInSet(String clientId, String uid);
+    boolean removeClientAndUidInSet(String clientId, String uid);
 
     /**
      * 统计当前在线用户数量
@@ -84,6 +96,13 @@ public interface OnlineUserService {
      */
     boolean checkCurUserIsOnline(String uid);
 
+    /**
+     * 批量校验用户是否在线（管道执行，一次往返）
+     * @param uids 要校验的用户UID
+     * @return 其中在线的用户UID
+     */
+    Set<String> filterOnlineUids(Collection<String> uids);
+
     /**
      * 根据客户ID查询绑定的用户信息
      * @param uid
@@ -0,0 +1,19 @@
+package com.zzw.chatserver.service;
+
+import java.util.Set;
+
+/**
+ * 在线状态订阅关系服务接口
+ * 维护"谁能看到谁的在线状态"的反向索引：好友（goodfriends）+ 同群成员（groupusers），
+ * 在线状态变化只推送给这些用户，推送代价为O(好友数+群成员数)而非O(全部连接)
+ */
+public interface PresenceAudienceService {
+
+    /**
+     * 获取关注指定用户在线状态的用户ID集合（好友与同群成员，不含自己）
+     * 关系是对称的，因此也等于该用户需要看到的在线状态范围
+     * @param uid 用户ID
+     * @return 用户ID集合（无关系时返回空集合）
+     */
+    Set<String> getAudience(String uid);
+}
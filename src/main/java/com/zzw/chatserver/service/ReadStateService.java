@@ -0,0 +1,81 @@
+package com.zzw.chatserver.service;
+
+import com.zzw.chatserver.pojo.vo.ReadWatermarkVo;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 会话已读水位服务接口
+ * 用(userId, roomId) -> (lastReadSeq, lastReadMessageId) 取代消息文档上的isReadUser数组：
+ * 标记已读是一次upsert，未读数与已读回执是范围查询——有房间序号的消息按seq比较，
+ * 旧的无序号消息按_id比较（ObjectId跨节点不单调，不能单独作为水位）
+ */
+public interface ReadStateService {
+
+    /**
+     * 将用户在房间内的已读水位推进到指定消息（水位只增不减）
+     * @param uid 用户ID
+     * @param roomId 房间ID
+     * @param watermark 已读到的消息
+     */
+    void markRead(String uid, String roomId, ReadWatermarkVo watermark);
+
+    /**
+     * 批量推进已读水位（一次无序bulkWrite）
+     * @param watermarks 用户ID -> (房间ID -> 已读到的消息)
+     * @return 写入的水位数
+     */
+    int markReadBatch(Map<String, Map<String, ReadWatermarkVo>> watermarks);
+
+    /**
+     * 将房间内当前全部消息标记为已读
+     * @param uid 用户ID
+     * @param roomId 房间ID
+     */
+    void markRoomRead(String uid, String roomId);
+
+    /**
+     * 批量查询已读水位（尚无水位记录的房间按旧isReadUser数据推导并回写）
+     * @param uid 用户ID
+     * @param roomIds 房间ID
+     * @return 房间ID -> 已读水位（值为null表示房间内消息均未读）
+     */
+    Map<String, ReadWatermarkVo> getWatermarks(String uid, Collection<String> roomIds);
+
+    /**
+     * 构建"用户在这些房间内的未读消息"查询条件（单聊/群聊房间不可混用）
+     * @param uid 用户ID
+     * @param roomIds 房间ID
+     * @return 查询条件（roomIds为空时返回null）
+     */
+    Criteria buildUnreadCriteria(String uid, Collection<String> roomIds);
+
+    /**
+     * 统计用户在房间内的未读消息数
+     * @param uid 用户ID
+     * @param roomId 房间ID
+     * @return 未读数
+     */
+    long countUnread(String uid, String roomId);
+
+    /**
+     * 批量统计多个(用户, 房间)的未读消息数：一次查询取回水位，单聊、群聊各一次聚合
+     * @param roomsByUser 用户ID -> 房间ID集合
+     * @return 用户ID -> (房间ID -> 未读数)，未读数为0的房间也会返回
+     */
+    Map<String, Map<String, Long>> countUnreadBatch(Map<String, Set<String>> roomsByUser);
+
+    /**
+     * 判断消息是否已被用户读取（已读回执）
+     * @param uid 用户ID
+     * @param roomId 房间ID
+     * @param messageId 消息ID
+     * @param seq 消息的房间序号（旧消息为null）
+     * @return true=已读
+     */
+    boolean isRead(String uid, String roomId, ObjectId messageId, Long seq);
+}
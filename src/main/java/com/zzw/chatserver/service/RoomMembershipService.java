@@ -0,0 +1,55 @@
+package com.zzw.chatserver.service;
+
+import com.zzw.chatserver.pojo.vo.RoomMembershipVo;
+
+import java.util.List;
+
+/**
+ * 会话成员索引服务接口
+ * 按用户维护其参与的单聊房间与群聊，供连接、上线、离线消息同步使用，
+ * 避免每次重连都对好友、群成员做关联聚合查询
+ */
+public interface RoomMembershipService {
+
+    /**
+     * 获取用户的会话成员索引（本地缓存 -> Redis -> MongoDB 逐级回源）
+     * @param uid 用户ID
+     * @return 成员索引（uid非法时返回空索引）
+     */
+    RoomMembershipVo getMembership(String uid);
+
+    /**
+     * 获取群成员ID列表（本地缓存，成员变化时失效），供群消息扇出使用
+     * @param groupId 群组ID
+     * @return 成员ID（groupId非法时返回空列表）
+     */
+    List<String> getGroupMemberIds(String groupId);
+
+    /**
+     * 新增好友关系后更新双方的单聊房间
+     * @param uidA 好友关系一方
+     * @param uidB 好友关系另一方
+     */
+    void addFriendship(String uidA, String uidB);
+
+    /**
+     * 删除好友关系后移除双方的单聊房间
+     * @param uidA 好友关系一方
+     * @param uidB 好友关系另一方
+     */
+    void removeFriendship(String uidA, String uidB);
+
+    /**
+     * 用户加入群聊后更新其群聊列表
+     * @param groupId 群组ID
+     * @param uid 用户ID
+     */
+    void addGroupMember(String groupId, String uid);
+
+    /**
+     * 用户退出群聊（或群解散）后移除其群聊
+     * @param groupId 群组ID
+     * @param uid 用户ID
+     */
+    void removeGroupMember(String groupId, String uid);
+}
@@ -38,6 +38,15 @@ public interface SingleMessageService {
      */
     List<SingleMessageResultVo> getRecentMessage(String roomId, int pageIndex, int pageSize);
 
+    /**
+     * 按房间序号游标分页查询单聊消息（结果按序号升序）
+     * @param roomId 单聊房间ID
+     * @param afterSeq 不为null时向后查询序号大于该值的消息（补洞/追新）
+     * @param beforeSeq afterSeq为null时向前查询序号小于该值的消息，均为null时返回最新消息
+     * @param limit 最多返回条数
+     */
+    List<SingleMessageResultVo> getMessagesBySeq(String roomId, Long afterSeq, Long beforeSeq, int limit);
+
     /**
      * 获取单聊房间的历史消息
      */
@@ -0,0 +1,53 @@
+package com.zzw.chatserver.service;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 未读计数服务接口
+ * 每个用户一个Redis哈希（field=房间ID，value=未读数），新消息时增量自增、已读时重置，
+ * 客户端渲染角标只需读取计数，不再拉取整段未读消息列表
+ */
+public interface UnreadCounterService {
+
+    /**
+     * 单聊新消息：接收者在该房间的未读数加1
+     * @param receiverId 接收者ID
+     * @param roomId 单聊房间ID
+     */
+    void incrementSingle(String receiverId, String roomId);
+
+    /**
+     * 群聊新消息：除发送者外的群成员未读数加1
+     * @param groupId 群ID（即房间ID）
+     * @param senderId 发送者ID
+     */
+    void incrementGroup(String groupId, String senderId);
+
+    /**
+     * 按已读水位重新计算用户在房间内的未读数（部分消息被确认已读时调用）
+     * @param uid 用户ID
+     * @param roomId 房间ID
+     */
+    void refresh(String uid, String roomId);
+
+    /**
+     * 批量重新计算多个(用户, 房间)的未读数（批量已读确认后调用）：一次聚合统计、一次Redis往返写入
+     * @param roomsByUser 用户ID -> 房间ID集合
+     */
+    void refreshBatch(Map<String, Set<String>> roomsByUser);
+
+    /**
+     * 清零用户在房间内的未读数（整个会话已读时调用）
+     * @param uid 用户ID
+     * @param roomId 房间ID
+     */
+    void reset(String uid, String roomId);
+
+    /**
+     * 查询用户所有会话的未读数（计数不存在时按已读水位重建）
+     * @param uid 用户ID
+     * @return 房间ID -> 未读数（只包含未读数大于0的房间）
+     */
+    Map<String, Long> getUnreadCounts(String uid);
+}
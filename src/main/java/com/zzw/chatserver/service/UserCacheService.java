@@ -0,0 +1,24 @@
+package com.zzw.chatserver.service;
+
+import com.zzw.chatserver.pojo.User;
+
+/**
+ * 用户资料缓存服务接口
+ * 本地缓存 + Redis共享缓存两级，缓存的是未脱敏的原始文档，
+ * 每次读取都返回新的User副本，调用方可按自身权限脱敏或修改而不影响缓存
+ */
+public interface UserCacheService {
+
+    /**
+     * 查询用户资料（未脱敏，不含密码）
+     * @param uid 用户ID
+     * @return 用户资料副本，不存在时返回null
+     */
+    User getUser(String uid);
+
+    /**
+     * 用户资料变更后失效缓存（本节点、Redis及其他节点）
+     * @param uid 用户ID
+     */
+    void invalidate(String uid);
+}
@@ -41,6 +41,13 @@ public interface ValidateMessageService {
      */
     ValidateMessage findValidateMessage(String roomId, Integer status, Integer validateType);
 
+    /**
+     * 根据消息ID查询验证消息（处理申请前以库中记录为准，不信任客户端提交的内容）
+     * @param validateMessageId 验证消息ID（字符串格式）
+     * @return 验证消息（ID非法或不存在返回null）
+     */
+    ValidateMessage findValidateMessageById(String validateMessageId);
+
     /**
      * 新增验证消息（先校验是否存在未处理的同类型消息，避免重复申请）
      * @param validateMessage 验证消息实体（含发送者、接收者、消息类型等）
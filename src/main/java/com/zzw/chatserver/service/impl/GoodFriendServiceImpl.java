@@ -4,10 +4,13 @@ import com.zzw.chatserver.common.ResultEnum;
 import com.zzw.chatserver.common.exception.BusinessException;
 import com.zzw.chatserver.dao.GoodFriendDao;
 import com.zzw.chatserver.dao.UserDao;
+import com.zzw.chatserver.handler.FriendGraph;
 import com.zzw.chatserver.pojo.GoodFriend;
 import com.zzw.chatserver.pojo.User;
 import com.zzw.chatserver.pojo.vo.*;
 import com.zzw.chatserver.service.GoodFriendService;
+import com.zzw.chatserver.service.RoomMembershipService;
+import com.zzw.chatserver.service.UserCacheService;
 import com.zzw.chatserver.service.UserService;
 import com.zzw.chatserver.utils.DateUtil;
 import com.zzw.chatserver.utils.ValidationUtil;
@@ -15,6 +18,7 @@ import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
@@ -52,6 +56,15 @@ public class GoodFriendServiceImpl implements GoodFriendService {
     @Resource
     private UserService userService;
 
+    @Resource
+    private UserCacheService userCacheService;
+
+    @Resource
+    private RoomMembershipService roomMembershipService;
+
+    @Resource
+    private FriendGraph friendGraph;
+
 
     @Override
     public List<SingleRecentConversationResultVo> getRecentChatFriends(RecentConversationVo recentConversationVo) {
@@ -215,37 +228,62 @@ public class GoodFriendServiceImpl implements GoodFriendService {
             throw new IllegalArgumentException("用户ID格式错误");
         }
 
-        // 校验正向（A→B）和反向（B→A）关系是否已存在
-        Query queryForward = Query.query(
-                Criteria.where("userM").is(userM).and("userY").is(userY)
-        );
-        Query queryReverse = Query.query(
-                Criteria.where("userM").is(userY).and("userY").is(userM)
-        );
-
-        GoodFriend existingForward = mongoTemplate.findOne(queryForward, GoodFriend.class);
-        GoodFriend existingReverse = mongoTemplate.findOne(queryReverse, GoodFriend.class);
-
-        // 若双向关系都不存在，则创建并保存
-        if (existingForward == null && existingReverse == null) {
-            // 保存正向关系（A→B）
-            goodFriend.setCreateDate(String.valueOf(Instant.now())); // 补充创建时间（如果需要）
-            goodFriendDao.save(goodFriend);
-
-            // 创建并保存反向关系（B→A）
-            GoodFriend reverseFriend = new GoodFriend();
-            reverseFriend.setUserM(userY);       // 原接收方变为发起方
-            reverseFriend.setUserY(userM);       // 原发起方变为接收方
-            reverseFriend.setCreateDate(String.valueOf(Instant.now())); // 与正向关系同时间
-            // 若有其他属性（如备注、分组），也需要同步设置
-            // reverseFriend.setRemark(goodFriend.getRemark());
-
-            goodFriendDao.save(reverseFriend);
+        // 与checkIsFriend同一规则：好友关系图已加载时以内存为准，不再查询MongoDB
+        // 图与库短暂不一致（如其他节点的增量尚未到达）时，由(userM, userY)唯一索引拒绝重复记录
+        boolean created;
+        if (friendGraph.isReady()) {
+            if (friendGraph.areFriends(userM.toString(), userY.toString())) {
+                return;
+            }
+            created = saveRelation(goodFriend) | saveRelation(reverseOf(goodFriend));
+        } else {
+            Query queryForward = Query.query(
+                    Criteria.where("userM").is(userM).and("userY").is(userY)
+            );
+            Query queryReverse = Query.query(
+                    Criteria.where("userM").is(userY).and("userY").is(userM)
+            );
+            GoodFriend existingForward = mongoTemplate.findOne(queryForward, GoodFriend.class);
+            GoodFriend existingReverse = mongoTemplate.findOne(queryReverse, GoodFriend.class);
+            // 若双向关系都不存在，则创建并保存
+            created = existingForward == null && existingReverse == null
+                    && (saveRelation(goodFriend) | saveRelation(reverseOf(goodFriend)));
+        }
 
+        if (created) {
             // 双向添加到"我的好友"分组
             modifyNewUserFenZu(userM.toString(), userY.toString());
             modifyNewUserFenZu(userY.toString(), userM.toString());
         }
+        // 先更新好友关系图，会话成员索引失效后按新关系重新加载（库中已存在时也补齐内存中缺失的边）
+        friendGraph.addFriendship(userM.toString(), userY.toString());
+        roomMembershipService.addFriendship(userM.toString(), userY.toString());
+    }
+
+    /**
+     * 构造反向关系（B→A），与正向关系同时间
+     */
+    private GoodFriend reverseOf(GoodFriend goodFriend) {
+        GoodFriend reverseFriend = new GoodFriend();
+        reverseFriend.setUserM(goodFriend.getUserY());       // 原接收方变为发起方
+        reverseFriend.setUserY(goodFriend.getUserM());       // 原发起方变为接收方
+        // 若有其他属性（如备注、分组），也需要同步设置
+        // reverseFriend.setRemark(goodFriend.getRemark());
+        return reverseFriend;
+    }
+
+    /**
+     * 保存单向好友关系，记录已存在（唯一索引冲突）时返回false
+     */
+    private boolean saveRelation(GoodFriend relation) {
+        relation.setCreateDate(String.valueOf(Instant.now()));
+        try {
+            goodFriendDao.save(relation);
+            return true;
+        } catch (DuplicateKeyException e) {
+            logger.info("好友关系已存在，跳过保存：userM={}, userY={}", relation.getUserM(), relation.getUserY());
+            return false;
+        }
     }
 
 
@@ -253,6 +291,12 @@ public class GoodFriendServiceImpl implements GoodFriendService {
     @Override
     public void batchAddFriends(List<GoodFriend> friends) {
         mongoTemplate.insertAll(friends);
+        for (GoodFriend friend : friends) {
+            if (friend.getUserM() != null && friend.getUserY() != null) {
+                friendGraph.addFriendship(friend.getUserM().toString(), friend.getUserY().toString());
+                roomMembershipService.addFriendship(friend.getUserM().toString(), friend.getUserY().toString());
+            }
+        }
     }
 
     /**
@@ -280,9 +324,11 @@ public class GoodFriendServiceImpl implements GoodFriendService {
                 .and("userY").is(new ObjectId(requestVo.getUserY()));
         Criteria criteria = new Criteria().orOperator(criteriaA, criteriaB);
 
-        // 删除好友关系
+        // 删除好友关系（双向记录一并删除）
         Query query = Query.query(criteria);
-        mongoTemplate.findAndRemove(query, GoodFriend.class);
+        mongoTemplate.remove(query, GoodFriend.class);
+        friendGraph.removeFriendship(userM, userY);
+        roomMembershipService.removeFriendship(userM, userY);
 
         // 删除双方单聊记录
         delSingleHistoryMessage(requestVo.getRoomId());
@@ -311,6 +357,11 @@ public class GoodFriendServiceImpl implements GoodFriendService {
             return false;
         }
 
+        // 好友关系图已加载时直接查内存，是好友即可对话
+        if (friendGraph.isReady() && friendGraph.areFriends(userId, friendId)) {
+            return true;
+        }
+
         // 查询双方用户信息，判断是否有客服角色
         User user = userService.getUserInfo(userId);
         User friend = userService.getUserInfo(friendId);
@@ -321,7 +372,11 @@ public class GoodFriendServiceImpl implements GoodFriendService {
             return true;
         }
 
-        // 买家之间需校验实际好友关系（双向校验）
+        // 买家之间需校验实际好友关系（好友关系图已加载时上面已判定为非好友）
+        if (friendGraph.isReady()) {
+            return false;
+        }
+        // 双向校验
         ObjectId userM = new ObjectId(userId);
         ObjectId userY = new ObjectId(friendId);
         // 校验A->B的关系
@@ -337,6 +392,28 @@ public class GoodFriendServiceImpl implements GoodFriendService {
         return count1 > 0 || count2 > 0;
     }
 
+    @Override
+    public List<String> getFriendIds(String userId) {
+        if (!ValidationUtil.isValidObjectId(userId)) {
+            return Collections.emptyList();
+        }
+        if (friendGraph.isReady()) {
+            return friendGraph.getFriendIds(userId);
+        }
+        ObjectId uid = new ObjectId(userId);
+        Query query = Query.query(new Criteria().orOperator(
+                Criteria.where("userM").is(uid), Criteria.where("userY").is(uid)));
+        query.fields().include("userM").include("userY");
+        Set<String> friendIds = new LinkedHashSet<>();
+        for (GoodFriend friend : mongoTemplate.find(query, GoodFriend.class)) {
+            ObjectId other = uid.equals(friend.getUserM()) ? friend.getUserY() : friend.getUserM();
+            if (other != null) {
+                friendIds.add(other.toString());
+            }
+        }
+        return new ArrayList<>(friendIds);
+    }
+
     // -------------------------- 私有工具方法 --------------------------
 
     /**
@@ -412,6 +489,7 @@ public class GoodFriendServiceImpl implements GoodFriendService {
         Query query = Query.query(Criteria.where("_id").is(new ObjectId(uid)));
         Update update = new Update().set("friendFenZu", friendFenZuMap);
         mongoTemplate.findAndModify(query, update, User.class);
+        userCacheService.invalidate(uid);
     }
 
     /**
@@ -471,5 +549,6 @@ public class GoodFriendServiceImpl implements GoodFriendService {
                 .set("friendFenZu", friendFenZuMap)
                 .set("friendBeiZhu", friendBeiZhuMap);
         mongoTemplate.findAndModify(query, update, User.class);
+        userCacheService.invalidate(myId);
     }
 }
\ No newline at end of file
@@ -6,7 +6,10 @@ import com.zzw.chatserver.pojo.GroupMessage;
 import com.zzw.chatserver.pojo.vo.GroupHistoryResultVo;
 import com.zzw.chatserver.pojo.vo.GroupMessageResultVo;
 import com.zzw.chatserver.pojo.vo.HistoryMsgRequestVo;
+import com.zzw.chatserver.pojo.vo.ReadWatermarkVo;
 import com.zzw.chatserver.service.GroupMessageService;
+import com.zzw.chatserver.service.ReadStateService;
+import com.zzw.chatserver.service.UnreadCounterService;
 import lombok.extern.slf4j.Slf4j;
 import org.bson.types.ObjectId;
 import org.springframework.data.domain.Sort;
@@ -41,9 +44,15 @@ public class GroupMessageServiceImpl implements GroupMessageService {
     @Resource
     private MongoTemplate mongoTemplate;
 
+    @Resource
+    private ReadStateService readStateService;
+
+    @Resource
+    private UnreadCounterService unreadCounterService;
+
     /**
      * 按消息ID列表标记群聊消息为已读
-     * 逻辑：筛选指定房间+指定ID的消息，将用户ID加入isReadUser列表
+     * 逻辑：取列表中属于该房间的最大消息ID，推进用户在该房间的已读水位
      */
     @Override
     public void markGroupMessagesAsRead(String roomId, String userId, List<String> messageIds) {
@@ -62,22 +71,16 @@ public class GroupMessageServiceImpl implements GroupMessageService {
             return;
         }
 
-        // 构建查询条件：房间ID匹配 + 消息ID在列表中 + 未读（isReadUser不含当前用户）
-        Criteria criteria = Criteria.where("roomId").is(roomId)
-                .and("_id").in(objectIds)
-                .and("isReadUser").nin(userId);
-
-        // 构建更新操作：将当前用户ID加入isReadUser列表
-        Update update = new Update();
-        update.addToSet("isReadUser", userId);
-
-        // 批量更新消息状态
-        mongoTemplate.updateMulti(
-                Query.query(criteria),
-                update,
-                GroupMessage.class,
-                "groupmessages"
-        );
+        // 只认确实属于该房间的消息
+        Query query = Query.query(Criteria.where("roomId").is(roomId).and("_id").in(objectIds))
+                .with(Sort.by(Sort.Direction.DESC, "seq", "_id"))
+                .limit(1);
+        query.fields().include("_id").include("seq");
+        GroupMessage latest = mongoTemplate.findOne(query, GroupMessage.class, "groupmessages");
+        if (latest != null) {
+            readStateService.markRead(userId, roomId, new ReadWatermarkVo(latest.getId(), latest.getSeq()));
+            unreadCounterService.refresh(userId, roomId);
+        }
     }
 
     @Override
@@ -85,18 +88,8 @@ public class GroupMessageServiceImpl implements GroupMessageService {
         if (roomId == null || uid == null) {
             return; // 参数不全则不执行更新
         }
-        Criteria criteria = Criteria.where("roomId").is(roomId)
-                .and("isReadUser").nin(uid);
-
-        Update update = new Update();
-        update.addToSet("isReadUser", uid);
-
-        mongoTemplate.updateMulti(
-                Query.query(criteria),
-                update,
-                GroupMessage.class,
-                "groupmessages"
-        );
+        readStateService.markRoomRead(uid, roomId);
+        unreadCounterService.reset(uid, roomId);
     }
 
     @Override
@@ -104,11 +97,10 @@ public class GroupMessageServiceImpl implements GroupMessageService {
         if (roomId == null || uid == null) {
             return new ArrayList<>(); // 返回空列表避免null
         }
-        Criteria criteria = Criteria.where("roomId").is(roomId)
-                .and("isReadUser").nin(uid);
+        Criteria criteria = readStateService.buildUnreadCriteria(uid, Collections.singletonList(roomId));
 
         Query query = Query.query(criteria)
-                .with(Sort.by(Sort.Direction.ASC, "time"));
+                .with(Sort.by(Sort.Direction.ASC, "_id"));
 
         return mongoTemplate.find(query, GroupMessageResultVo.class, "groupmessages");
     }
@@ -215,7 +207,7 @@ public class GroupMessageServiceImpl implements GroupMessageService {
             return new GroupMessageResultVo();
         }
         Query query = Query.query(Criteria.where("roomId").is(roomId))
-                .with(Sort.by(Sort.Direction.DESC, "_id"));
+                .with(Sort.by(Sort.Direction.DESC, "seq", "_id"));
 
         GroupMessageResultVo res = mongoTemplate.findOne(query, GroupMessageResultVo.class, "groupmessages");
         return res != null ? res : new GroupMessageResultVo();
@@ -232,13 +224,40 @@ public class GroupMessageServiceImpl implements GroupMessageService {
             return new ArrayList<>();
         }
         Query query = Query.query(Criteria.where("roomId").is(roomId))
-                .with(Sort.by(Sort.Direction.DESC, "_id"))
+                .with(Sort.by(Sort.Direction.DESC, "seq", "_id"))
                 .skip((long) pageIndex * pageSize)
                 .limit(pageSize);
 
         return mongoTemplate.find(query, GroupMessageResultVo.class, "groupmessages");
     }
 
+    /**
+     * 按房间序号游标分页查询群聊消息
+     * 向前翻页按序号倒序取limit条后翻转，结果统一为序号升序
+     */
+    @Override
+    public List<GroupMessageResultVo> getMessagesBySeq(String roomId, Long afterSeq, Long beforeSeq, int limit) {
+        if (roomId == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        Criteria criteria = Criteria.where("roomId").is(roomId);
+        Sort.Direction direction = Sort.Direction.DESC;
+        if (afterSeq != null) {
+            criteria.and("seq").gt(afterSeq);
+            direction = Sort.Direction.ASC;
+        } else if (beforeSeq != null) {
+            criteria.and("seq").lt(beforeSeq);
+        } else {
+            criteria.and("seq").ne(null);
+        }
+        Query query = Query.query(criteria).with(Sort.by(direction, "seq")).limit(limit);
+        List<GroupMessageResultVo> result = mongoTemplate.find(query, GroupMessageResultVo.class, "groupmessages");
+        if (direction == Sort.Direction.DESC) {
+            Collections.reverse(result);
+        }
+        return result;
+    }
+
     /**
      * 保存新的群聊消息
      * 委托DAO层将消息实体持久化到数据库
@@ -17,6 +17,7 @@ import com.zzw.chatserver.pojo.vo.SearchGroupResponseVo;
 import com.zzw.chatserver.pojo.vo.SearchGroupResultVo;
 import com.zzw.chatserver.pojo.vo.SearchRequestVo;
 import com.zzw.chatserver.service.GroupService;
+import com.zzw.chatserver.service.RoomMembershipService;
 import org.apache.commons.lang3.StringUtils;
 import org.bson.types.ObjectId;
 import org.springframework.beans.BeanUtils;
@@ -55,6 +56,9 @@ public class GroupServiceImpl implements GroupService {
     @Resource
     private AccountPoolDao accountPoolDao;
 
+    @Resource
+    private RoomMembershipService roomMembershipService;
+
     /**
      * 根据群组ID获取群信息
      */
@@ -154,6 +158,7 @@ public class GroupServiceImpl implements GroupService {
         groupUser.setUsername(savedGroup.getHolderName());
         groupUser.setHolder(1); // 1=群主
         groupUserDao.save(groupUser);
+        roomMembershipService.addGroupMember(savedGroup.getGroupId().toString(), savedGroup.getHolderUserId().toString());
 
         // 5. 若必须冗余gid字段，使用updateFirst更新（而非upsert）
         if (savedGroup.getGid() == null) {
@@ -195,8 +200,12 @@ public class GroupServiceImpl implements GroupService {
             // 【群主退群】：删除群所有数据
             // 删除群所有消息（groupmessages集合）
             delGroupAllMessagesByGroupId(requestVo.getGroupId());
-            // 删除群所有成员（groupusers集合）
+            // 删除群所有成员（groupusers集合），先取出成员以更新其会话成员索引
+            List<String> memberIds = new ArrayList<>(roomMembershipService.getGroupMemberIds(requestVo.getGroupId()));
             delGroupAllUsersByGroupId(requestVo.getGroupId());
+            for (String memberId : memberIds) {
+                roomMembershipService.removeGroupMember(requestVo.getGroupId(), memberId);
+            }
             // 删除群本身（groups集合）
             groupDao.deleteById(new ObjectId(requestVo.getGroupId()));
         } else {
@@ -207,6 +216,7 @@ public class GroupServiceImpl implements GroupService {
             delGroupUserByGroupIdAndUserId(requestVo.getGroupId(), requestVo.getUserId());
             // 群人数减1
             decrGroupUserNum(requestVo.getGroupId());
+            roomMembershipService.removeGroupMember(requestVo.getGroupId(), requestVo.getUserId());
         }
     }
 
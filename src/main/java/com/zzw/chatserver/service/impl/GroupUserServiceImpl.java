@@ -7,6 +7,7 @@ import com.zzw.chatserver.pojo.GroupMessage;
 import com.zzw.chatserver.pojo.GroupUser;
 import com.zzw.chatserver.pojo.vo.*;
 import com.zzw.chatserver.service.GroupUserService;
+import com.zzw.chatserver.service.RoomMembershipService;
 import org.bson.types.ObjectId;
 import org.springframework.beans.BeanUtils;
 import org.springframework.data.domain.Sort;
@@ -37,6 +38,9 @@ public class GroupUserServiceImpl implements GroupUserService {
     @Resource
     private GroupMessageDao groupMessageDao;
 
+    @Resource
+    private RoomMembershipService roomMembershipService;
+
     /**
      * 检查用户是否为群成员：查询group_user关联表中是否存在匹配记录
      */
@@ -124,6 +128,7 @@ public class GroupUserServiceImpl implements GroupUserService {
             groupUser.setUserId(userId);
             groupUser.setUsername(validateMessage.getSenderName());
             groupUserDao.save(groupUser);
+            roomMembershipService.addGroupMember(groupId.toString(), userId.toString());
 
             // 群人数加1（更新groups表的userNum字段）
             Update update = new Update();
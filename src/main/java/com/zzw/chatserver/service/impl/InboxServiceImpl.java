@@ -0,0 +1,176 @@
+package com.zzw.chatserver.service.impl;
+
+import com.zzw.chatserver.pojo.vo.InboxEntryVo;
+import com.zzw.chatserver.service.InboxService;
+import com.zzw.chatserver.service.RoomMembershipService;
+import com.zzw.chatserver.utils.ValidationUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 收件箱时间线服务实现类
+ * 每个用户一个Redis Stream chat:inbox:{uid}，条目字段：type(S/G)、roomId、messageId；
+ * 收件箱只由离线同步在全量扫描前初始化，追加脚本只写入已存在的收件箱，超长时整体删除，
+ * 因此收件箱存在即代表它覆盖了初始化以来的全部消息。
+ * 大群集合 chat:inbox:pull-groups：成员数超过阈值的群一旦进入就不再退出，
+ * 读取时以该集合为准，写入端即使判断滞后多写了条目也只会在同步时被清理
+ */
+@Service
+@Slf4j
+public class InboxServiceImpl implements InboxService {
+
+    private static final String PREFIX_INBOX = "chat:inbox:";
+    private static final String KEY_PULL_GROUPS = "chat:inbox:pull-groups";
+    private static final String TYPE_SINGLE = "S";
+    private static final String TYPE_GROUP = "G";
+    // 初始化标记条目（Stream不能为空，同步时作为失效条目删除）
+    private static final String TYPE_MARKER = "M";
+
+    private static final DefaultRedisScript<Long> APPEND_SCRIPT = loadScript("lua/inbox_append.lua");
+
+    @Resource(name = "customStringRedisTemplate")
+    private RedisTemplate<String, String> stringRedisTemplate;
+
+    @Resource
+    private RoomMembershipService roomMembershipService;
+
+    // 群成员数超过该值时不再写扩散，改为读时按房间拉取
+    @Value("${chat.inbox.group-fanout-threshold:200}")
+    private int groupFanoutThreshold;
+
+    // 单个收件箱最大条目数，超出时丢弃收件箱（下次同步回退为全量扫描）
+    @Value("${chat.inbox.max-length:5000}")
+    private long maxLength;
+
+    // 收件箱过期时间（小时），每次追加时续期
+    @Value("${chat.inbox.ttl-hours:168}")
+    private long ttlHours;
+
+    // 本节点已知的大群（只增不减）
+    private final Set<String> knownPullGroups = ConcurrentHashMap.newKeySet();
+
+    private static DefaultRedisScript<Long> loadScript(String path) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource(path)));
+        script.setResultType(Long.class);
+        return script;
+    }
+
+    @Override
+    public void appendSingle(String receiverId, String roomId, ObjectId messageId) {
+        if (!ValidationUtil.isValidObjectId(receiverId) || roomId == null || messageId == null) {
+            return;
+        }
+        append(Collections.singletonList(PREFIX_INBOX + receiverId), TYPE_SINGLE, roomId, messageId);
+    }
+
+    @Override
+    public void appendGroup(String groupId, String senderId, ObjectId messageId) {
+        if (!ValidationUtil.isValidObjectId(groupId) || messageId == null || knownPullGroups.contains(groupId)) {
+            return;
+        }
+        List<String> memberIds = roomMembershipService.getGroupMemberIds(groupId);
+        if (memberIds.size() > groupFanoutThreshold) {
+            knownPullGroups.add(groupId);
+            stringRedisTemplate.opsForSet().add(KEY_PULL_GROUPS, groupId);
+            log.info("群{}成员数{}超过写扩散阈值{}，改为读时拉取", groupId, memberIds.size(), groupFanoutThreshold);
+            return;
+        }
+        List<String> keys = new ArrayList<>(memberIds.size());
+        for (String memberId : memberIds) {
+            if (!memberId.equals(senderId)) {
+                keys.add(PREFIX_INBOX + memberId);
+            }
+        }
+        if (!keys.isEmpty()) {
+            append(keys, TYPE_GROUP, groupId, messageId);
+        }
+    }
+
+    @Override
+    public boolean exists(String uid) {
+        return ValidationUtil.isValidObjectId(uid) && Boolean.TRUE.equals(stringRedisTemplate.hasKey(PREFIX_INBOX + uid));
+    }
+
+    @Override
+    public void initialize(String uid) {
+        if (!ValidationUtil.isValidObjectId(uid)) {
+            return;
+        }
+        String key = PREFIX_INBOX + uid;
+        stringRedisTemplate.opsForStream().add(key, Collections.singletonMap("type", TYPE_MARKER));
+        stringRedisTemplate.expire(key, ttlHours, TimeUnit.HOURS);
+        log.debug("初始化用户{}的收件箱", uid);
+    }
+
+    @Override
+    public List<InboxEntryVo> read(String uid, String afterEntryId, int count) {
+        List<InboxEntryVo> entries = new ArrayList<>(count);
+        if (!ValidationUtil.isValidObjectId(uid) || count <= 0) {
+            return entries;
+        }
+        // 低版本Redis的XRANGE不支持开区间，从afterEntryId（含）开始多取一条后跳过
+        Range<String> range = afterEntryId == null
+                ? Range.unbounded()
+                : Range.rightUnbounded(Range.Bound.inclusive(afterEntryId));
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(PREFIX_INBOX + uid, range, RedisZSetCommands.Limit.limit().count(count + 1));
+        if (records == null) {
+            return entries;
+        }
+        for (MapRecord<String, Object, Object> record : records) {
+            String entryId = record.getId().getValue();
+            if (entryId.equals(afterEntryId) || entries.size() >= count) {
+                continue;
+            }
+            Map<Object, Object> fields = record.getValue();
+            entries.add(new InboxEntryVo(entryId, (String) fields.get("type"),
+                    (String) fields.get("roomId"), (String) fields.get("messageId")));
+        }
+        return entries;
+    }
+
+    @Override
+    public void remove(String uid, Collection<String> entryIds) {
+        if (!ValidationUtil.isValidObjectId(uid) || entryIds == null || entryIds.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.opsForStream().delete(PREFIX_INBOX + uid, entryIds.toArray(new String[0]));
+    }
+
+    @Override
+    public Set<String> filterPullGroups(Collection<String> groupIds) {
+        Set<String> pullGroups = new HashSet<>();
+        if (groupIds == null || groupIds.isEmpty()) {
+            return pullGroups;
+        }
+        Set<String> allPullGroups = stringRedisTemplate.opsForSet().members(KEY_PULL_GROUPS);
+        if (allPullGroups != null) {
+            for (String groupId : groupIds) {
+                if (allPullGroups.contains(groupId)) {
+                    pullGroups.add(groupId);
+                }
+            }
+        }
+        return pullGroups;
+    }
+
+    private void append(List<String> keys, String type, String roomId, ObjectId messageId) {
+        stringRedisTemplate.execute(APPEND_SCRIPT, keys, type, roomId, messageId.toHexString(),
+                String.valueOf(maxLength), String.valueOf(TimeUnit.HOURS.toSeconds(ttlHours)));
+    }
+}
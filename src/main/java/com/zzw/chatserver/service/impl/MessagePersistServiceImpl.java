@@ -0,0 +1,476 @@
+package com.zzw.chatserver.service.impl;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.model.InsertManyOptions;
+import com.zzw.chatserver.pojo.GroupMessage;
+import com.zzw.chatserver.pojo.SingleMessage;
+import com.zzw.chatserver.service.MessagePersistService;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 聊天消息持久化服务实现类
+ * - 调用线程：实体转换为Document → 追加到WAL分段文件 → 放入有界队列
+ * - 刷盘线程：凑满batch-size条或等待flush-interval-ms后，按集合insertMany（无序）一次写入
+ * - WAL分段：分段内消息全部落库且已滚动到新分段后删除；启动时重放残留分段（重复_id忽略）
+ */
+@Service
+@Slf4j
+public class MessagePersistServiceImpl implements MessagePersistService {
+
+    private static final String COLLECTION_SINGLE = "singlemessages";
+    private static final String COLLECTION_GROUP = "groupmessages";
+    private static final String ACK_MODE_MONGO = "MONGO";
+    private static final String WAL_FILE_PREFIX = "msg-";
+    private static final String WAL_FILE_SUFFIX = ".wal";
+    private static final int DUPLICATE_KEY_CODE = 11000;
+    private static final long MAX_RETRY_BACKOFF_MS = 5000;
+    /** EXTENDED模式保证ObjectId、Long等类型在重放时原样还原 */
+    private static final JsonWriterSettings WAL_JSON_SETTINGS = JsonWriterSettings.builder()
+            .outputMode(JsonMode.EXTENDED)
+            .build();
+
+    @Resource
+    private MongoTemplate mongoTemplate;
+
+    @Value("${chat.persist.ack-mode:WAL}")
+    private String ackMode;
+
+    @Value("${chat.persist.batch-size:200}")
+    private int batchSize;
+
+    @Value("${chat.persist.flush-interval-ms:50}")
+    private long flushIntervalMs;
+
+    @Value("${chat.persist.queue-capacity:20000}")
+    private int queueCapacity;
+
+    @Value("${chat.persist.ack-timeout-ms:3000}")
+    private long ackTimeoutMs;
+
+    @Value("${chat.persist.wal-dir:./data/wal}")
+    private String walDir;
+
+    // 关闭时WAL只保证进程崩溃后可重放，操作系统崩溃或断电可能丢失页缓存中尚未落盘的消息
+    @Value("${chat.persist.wal-fsync:false}")
+    private boolean walFsync;
+
+    @Value("${chat.persist.wal-segment-bytes:16777216}")
+    private long walSegmentBytes;
+
+    private BlockingQueue<PendingMessage> queue;
+    private Thread flushThread;
+    private volatile boolean running;
+    private boolean ackAfterMongo;
+
+    // WAL写入与分段滚动由walLock保护
+    private final Object walLock = new Object();
+    // 分段ID -> 该分段中尚未落库的消息数
+    private final Map<Long, AtomicInteger> segmentPending = new ConcurrentHashMap<>();
+    private Path walPath;
+    private FileChannel walChannel;
+    private volatile long walSegmentId;
+
+    /**
+     * 待落库消息
+     */
+    private static class PendingMessage {
+        final String collection;
+        final Document document;
+        final long segmentId;
+        final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+        PendingMessage(String collection, Document document, long segmentId) {
+            this.collection = collection;
+            this.document = document;
+            this.segmentId = segmentId;
+        }
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        ackAfterMongo = ACK_MODE_MONGO.equalsIgnoreCase(ackMode);
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        walPath = Paths.get(walDir);
+        Files.createDirectories(walPath);
+
+        // 先重放上次未落库的WAL，再开启新分段
+        long lastSegmentId = replayWal();
+        synchronized (walLock) {
+            openSegment(lastSegmentId + 1);
+        }
+
+        running = true;
+        flushThread = new Thread(this::flushLoop, "msg-persist-flusher");
+        flushThread.start();
+        log.info("消息持久化管道启动：ackMode={}, batchSize={}, flushIntervalMs={}, walDir={}",
+                ackAfterMongo ? ACK_MODE_MONGO : "WAL", batchSize, flushIntervalMs, walPath.toAbsolutePath());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        try {
+            // 刷盘线程会在退出前清空队列
+            flushThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (walLock) {
+            closeQuietly(walChannel);
+        }
+        deleteCommittedSegments(true);
+        log.info("消息持久化管道已停止，剩余未落库消息：{}", queue.size());
+    }
+
+    @Override
+    public CompletableFuture<Void> persistSingleMessage(SingleMessage singleMessage) {
+        if (singleMessage == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (singleMessage.getId() == null) {
+            singleMessage.setId(new ObjectId());
+        }
+        return persist(COLLECTION_SINGLE, singleMessage);
+    }
+
+    @Override
+    public CompletableFuture<Void> persistGroupMessage(GroupMessage groupMessage) {
+        if (groupMessage == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (groupMessage.getId() == null) {
+            groupMessage.setId(new ObjectId());
+        }
+        return persist(COLLECTION_GROUP, groupMessage);
+    }
+
+    @Override
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * 写WAL并入队，按ack模式返回确认Future（MONGO模式不阻塞调用线程，由组提交完成Future）
+     */
+    private CompletableFuture<Void> persist(String collection, Object entity) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(entity, document);
+        PendingMessage pending = appendToWal(collection, document);
+
+        boolean queued = false;
+        if (running) {
+            try {
+                queued = queue.offer(pending, ackTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!queued) {
+            // 队列已满或管道已停止：由调用线程直接写入（与CallerRunsPolicy一致，避免丢消息）
+            log.warn("消息持久化队列不可用（容量{}），由调用线程直接写入{}", queueCapacity, collection);
+            insertDocuments(collection, Collections.singletonList(document));
+            release(pending);
+            return CompletableFuture.completedFuture(null);
+        }
+        return ackAfterMongo ? pending.committed : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * 追加一条记录到当前WAL分段（格式：集合名\tExtendedJSON）
+     */
+    private PendingMessage appendToWal(String collection, Document document) {
+        byte[] line = (collection + '\t' + document.toJson(WAL_JSON_SETTINGS) + '\n')
+                .getBytes(StandardCharsets.UTF_8);
+        synchronized (walLock) {
+            try {
+                if (walChannel.position() > 0 && walChannel.position() + line.length > walSegmentBytes) {
+                    rollSegment();
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(line);
+                while (buffer.hasRemaining()) {
+                    walChannel.write(buffer);
+                }
+                if (walFsync) {
+                    walChannel.force(false);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("写入消息WAL失败", e);
+            }
+            segmentPending.get(walSegmentId).incrementAndGet();
+            return new PendingMessage(collection, document, walSegmentId);
+        }
+    }
+
+    /**
+     * 刷盘线程主循环：凑批（条数或时间先到者触发）后组提交
+     */
+    private void flushLoop() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commitBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("消息组提交异常，批次大小={}（消息保留在WAL中）", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 按集合分组后批量写入，成功则释放WAL占用并唤醒等待方
+     */
+    private void commitBatch(List<PendingMessage> batch) {
+        Map<String, List<PendingMessage>> byCollection = batch.stream()
+                .collect(Collectors.groupingBy(p -> p.collection, LinkedHashMap::new, Collectors.toList()));
+
+        for (Map.Entry<String, List<PendingMessage>> entry : byCollection.entrySet()) {
+            List<PendingMessage> pendings = entry.getValue();
+            List<Document> documents = pendings.stream().map(p -> p.document).collect(Collectors.toList());
+            if (insertWithRetry(entry.getKey(), documents)) {
+                for (PendingMessage pending : pendings) {
+                    release(pending);
+                    pending.committed.complete(null);
+                }
+            } else {
+                IllegalStateException cause = new IllegalStateException("停机前未能写入" + entry.getKey());
+                pendings.forEach(p -> p.committed.completeExceptionally(cause));
+            }
+        }
+        log.debug("消息组提交完成，批次大小={}，队列剩余={}", batch.size(), queue.size());
+        deleteCommittedSegments(false);
+    }
+
+    /**
+     * 写入失败时指数退避重试；停机时放弃（消息保留在WAL中，下次启动重放）
+     */
+    private boolean insertWithRetry(String collection, List<Document> documents) {
+        long backoffMs = 100;
+        while (true) {
+            try {
+                insertDocuments(collection, documents);
+                return true;
+            } catch (Exception e) {
+                if (!running) {
+                    log.error("停机时批量写入{}失败，{}条消息保留在WAL中待重放", collection, documents.size(), e);
+                    return false;
+                }
+                log.error("批量写入{}失败，{}ms后重试，批次大小={}", collection, backoffMs, documents.size(), e);
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                backoffMs = Math.min(backoffMs * 2, MAX_RETRY_BACKOFF_MS);
+            }
+        }
+    }
+
+    /**
+     * 无序insertMany，重复_id（重放或重试导致）视为已写入
+     */
+    private void insertDocuments(String collection, List<Document> documents) {
+        try {
+            mongoTemplate.getCollection(collection)
+                    .insertMany(documents, new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            boolean onlyDuplicates = e.getWriteErrors().stream()
+                    .allMatch(error -> error.getCode() == DUPLICATE_KEY_CODE);
+            if (!onlyDuplicates) {
+                throw e;
+            }
+            log.debug("批量写入{}时忽略{}条重复消息", collection, e.getWriteErrors().size());
+        }
+    }
+
+    private void release(PendingMessage pending) {
+        AtomicInteger counter = segmentPending.get(pending.segmentId);
+        if (counter != null) {
+            counter.decrementAndGet();
+        }
+    }
+
+    // ======================== WAL分段管理 ========================
+
+    /**
+     * 打开新的WAL分段（调用方需持有walLock）
+     */
+    private void openSegment(long segmentId) throws IOException {
+        walChannel = FileChannel.open(segmentPath(segmentId),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentPending.put(segmentId, new AtomicInteger());
+        walSegmentId = segmentId;
+    }
+
+    /**
+     * 滚动到下一个分段（调用方需持有walLock）
+     */
+    private void rollSegment() throws IOException {
+        if (walFsync) {
+            walChannel.force(false);
+        }
+        closeQuietly(walChannel);
+        openSegment(walSegmentId + 1);
+    }
+
+    /**
+     * 删除已全部落库的分段文件
+     * 只删除ID小于walLock下快照的当前分段ID的分段：这些分段已关闭，不会再有新的写入计数；
+     * 快照之后滚动出的新分段ID更大，不会被误删
+     * @param includeActive 是否包含当前写入中的分段（仅停机时）
+     */
+    private void deleteCommittedSegments(boolean includeActive) {
+        long activeId;
+        synchronized (walLock) {
+            activeId = walSegmentId;
+        }
+        Iterator<Map.Entry<Long, AtomicInteger>> iterator = segmentPending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, AtomicInteger> entry = iterator.next();
+            boolean inactive = entry.getKey() < activeId || (includeActive && entry.getKey() == activeId);
+            if (inactive && entry.getValue().get() <= 0) {
+                try {
+                    Files.deleteIfExists(segmentPath(entry.getKey()));
+                    iterator.remove();
+                } catch (IOException e) {
+                    log.warn("删除已落库WAL分段失败：{}", entry.getKey(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 重放目录中残留的WAL分段
+     * @return 已存在的最大分段ID（无分段时为0）
+     */
+    private long replayWal() throws IOException {
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(walPath)) {
+            segments = files.filter(this::isSegmentFile)
+                    .sorted(Comparator.comparingLong(this::parseSegmentId))
+                    .collect(Collectors.toList());
+        }
+
+        long lastSegmentId = 0;
+        for (Path segment : segments) {
+            lastSegmentId = Math.max(lastSegmentId, parseSegmentId(segment));
+            try {
+                int replayed = replaySegment(segment);
+                Files.delete(segment);
+                log.info("重放WAL分段{}完成，共{}条消息", segment.getFileName(), replayed);
+            } catch (Exception e) {
+                // 保留文件，下次启动继续重放
+                log.error("重放WAL分段{}失败", segment.getFileName(), e);
+            }
+        }
+        return lastSegmentId;
+    }
+
+    private int replaySegment(Path segment) throws IOException {
+        Map<String, List<Document>> byCollection = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int split = line.indexOf('\t');
+                if (split <= 0) {
+                    continue;
+                }
+                try {
+                    byCollection.computeIfAbsent(line.substring(0, split), k -> new ArrayList<>())
+                            .add(Document.parse(line.substring(split + 1)));
+                } catch (Exception e) {
+                    // 崩溃时可能残留半行，跳过
+                    log.warn("WAL分段{}存在无法解析的记录，已跳过", segment.getFileName());
+                }
+            }
+        }
+
+        int replayed = 0;
+        for (Map.Entry<String, List<Document>> entry : byCollection.entrySet()) {
+            List<Document> documents = entry.getValue();
+            for (int from = 0; from < documents.size(); from += batchSize) {
+                List<Document> chunk = documents.subList(from, Math.min(from + batchSize, documents.size()));
+                insertDocuments(entry.getKey(), new ArrayList<>(chunk));
+                replayed += chunk.size();
+            }
+        }
+        return replayed;
+    }
+
+    private Path segmentPath(long segmentId) {
+        return walPath.resolve(String.format("%s%020d%s", WAL_FILE_PREFIX, segmentId, WAL_FILE_SUFFIX));
+    }
+
+    private boolean isSegmentFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(WAL_FILE_PREFIX) && name.endsWith(WAL_FILE_SUFFIX);
+    }
+
+    private long parseSegmentId(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(WAL_FILE_PREFIX.length(), name.length() - WAL_FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("关闭WAL文件失败", e);
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.zzw.chatserver.service.impl;
+
+import com.zzw.chatserver.pojo.vo.GroupMessageResultVo;
+import com.zzw.chatserver.pojo.vo.InboxEntryVo;
+import com.zzw.chatserver.pojo.vo.OfflineSyncChunkVo;
+import com.zzw.chatserver.pojo.vo.ReadWatermarkVo;
+import com.zzw.chatserver.pojo.vo.RoomMembershipVo;
+import com.zzw.chatserver.pojo.vo.SingleMessageResultVo;
+import com.zzw.chatserver.pojo.vo.SyncSinceRoomVo;
+import com.zzw.chatserver.service.InboxService;
+import com.zzw.chatserver.service.OfflineSyncService;
+import com.zzw.chatserver.service.ReadStateService;
+import com.zzw.chatserver.service.RoomMembershipService;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 离线消息同步服务实现类
+ * 收件箱存在时（增量同步）分两个阶段：
+ * - I：按顺序读取收件箱（单聊与小群的消息引用），回表取消息并按已读水位过滤，已读条目顺带删除
+ * - P：大群按已读水位拉取
+ * 收件箱不存在时先初始化收件箱，再全量扫描（回退路径）：
+ * - S：单聊 → G：全部群聊，未读条件由各房间的已读水位组成（ReadStateService）
+ * 扫描阶段是一次按_id升序的游标查询，游标批大小与分片大小一致，内存中最多保留一页；
+ * 续传令牌格式为"阶段:位置"（I阶段为收件箱条目ID，其余为最后一条消息_id，为空表示从该阶段开头开始）
+ */
+@Service
+@Slf4j
+public class OfflineSyncServiceImpl implements OfflineSyncService {
+
+    private static final String STAGE_SINGLE = "S";
+    private static final String STAGE_GROUP = "G";
+    private static final String STAGE_INBOX = "I";
+    private static final String STAGE_PULL = "P";
+    private static final String INBOX_TYPE_SINGLE = "S";
+    private static final String INBOX_TYPE_GROUP = "G";
+    private static final String TYPE_SINGLE = "single";
+    private static final String TYPE_GROUP = "group";
+
+    @Resource
+    private MongoTemplate mongoTemplate;
+
+    @Resource
+    private RoomMembershipService roomMembershipService;
+
+    @Resource
+    private ReadStateService readStateService;
+
+    @Resource
+    private InboxService inboxService;
+
+    // 单个分片的消息数
+    @Value("${chat.offline-sync.page-size:200}")
+    private int pageSize;
+
+    // 单次同步最多推送的分片数，超出部分由客户端续传
+    @Value("${chat.offline-sync.max-pages-per-call:10}")
+    private int maxPagesPerCall;
+
+    // 重连增量同步：单个房间单批最多返回的消息数
+    @Value("${chat.offline-sync.since-batch-size:100}")
+    private int sinceBatchSize;
+
+    // 重连增量同步：落后超过该条数的房间只返回"落后过多"标记
+    @Value("${chat.offline-sync.since-max-behind:1000}")
+    private int sinceMaxBehind;
+
+    // 重连增量同步：单次请求最多处理的房间数，其余房间返回hasMore等待下次请求
+    @Value("${chat.offline-sync.since-max-rooms:200}")
+    private int sinceMaxRooms;
+
+    @Override
+    public void sync(String uid, String continuationToken, Consumer<OfflineSyncChunkVo> sender) {
+        String stage;
+        String position = null;
+        if (continuationToken != null && !continuationToken.isEmpty()) {
+            String[] parts = continuationToken.split(":", 2);
+            if (parts.length != 2 || !isValidPosition(parts[0], parts[1])) {
+                throw new IllegalArgumentException("续传令牌格式错误");
+            }
+            stage = parts[0];
+            position = parts[1].isEmpty() ? null : parts[1];
+        } else if (inboxService.exists(uid)) {
+            stage = STAGE_INBOX;
+        } else {
+            // 先初始化收件箱再扫描：扫描期间到达的消息可能同时出现在扫描结果与下次的收件箱中（客户端按_id去重），但不会遗漏
+            inboxService.initialize(uid);
+            stage = STAGE_SINGLE;
+        }
+
+        int[] pagesLeft = {maxPagesPerCall};
+        RoomMembershipVo membership = roomMembershipService.getMembership(uid);
+        if (STAGE_INBOX.equals(stage) || STAGE_PULL.equals(stage)) {
+            syncIncremental(uid, stage, position, membership, pagesLeft, sender);
+            return;
+        }
+
+        ObjectId afterId = position == null ? null : new ObjectId(position);
+        if (STAGE_SINGLE.equals(stage)) {
+            Criteria criteria = readStateService.buildUnreadCriteria(uid, membership.getSingleRoomIds());
+            if (criteria != null && !streamStage(criteria, afterId, SingleMessageResultVo.class, "singlemessages",
+                    SingleMessageResultVo::getId, STAGE_SINGLE, TYPE_SINGLE, pagesLeft, sender)) {
+                return;
+            }
+            afterId = null;
+        }
+
+        if (pagesLeft[0] <= 0) {
+            // 单聊阶段恰好用完分片上限，群聊阶段留给续传
+            sender.accept(new OfflineSyncChunkVo(TYPE_GROUP, new ArrayList<>(), STAGE_GROUP + ":", false));
+            return;
+        }
+        Criteria groupCriteria = readStateService.buildUnreadCriteria(uid, membership.getGroupIds());
+        if (groupCriteria != null) {
+            if (!streamStage(groupCriteria, afterId, GroupMessageResultVo.class, "groupmessages",
+                    GroupMessageResultVo::getId, STAGE_GROUP, TYPE_GROUP, pagesLeft, sender)) {
+                return;
+            }
+        }
+        sender.accept(new OfflineSyncChunkVo(TYPE_GROUP, new ArrayList<>(), null, true));
+    }
+
+    @Override
+    public List<SyncSinceRoomVo> syncSince(String uid, Map<String, String> cursors) {
+        List<SyncSinceRoomVo> results = new ArrayList<>();
+        if (cursors == null || cursors.isEmpty()) {
+            return results;
+        }
+        RoomMembershipVo membership = roomMembershipService.getMembership(uid);
+        Set<String> singleRoomIds = new HashSet<>(membership.getSingleRoomIds());
+        Set<String> groupIds = new HashSet<>(membership.getGroupIds());
+        int processed = 0;
+        for (Map.Entry<String, String> cursor : cursors.entrySet()) {
+            String roomId = cursor.getKey();
+            boolean single = singleRoomIds.contains(roomId);
+            if (!single && !groupIds.contains(roomId)) {
+                log.warn("重连增量同步：用户{}不在房间{}中，跳过", uid, roomId);
+                continue;
+            }
+            String type = single ? TYPE_SINGLE : TYPE_GROUP;
+            if (++processed > sinceMaxRooms) {
+                results.add(new SyncSinceRoomVo(roomId, type, new ArrayList<>(), true, false));
+            } else if (cursor.getValue() == null || !ObjectId.isValid(cursor.getValue())) {
+                results.add(new SyncSinceRoomVo(roomId, type, new ArrayList<>(), false, true));
+            } else if (single) {
+                results.add(syncRoomSince(roomId, new ObjectId(cursor.getValue()), type,
+                        SingleMessageResultVo.class, "singlemessages"));
+            } else {
+                results.add(syncRoomSince(roomId, new ObjectId(cursor.getValue()), type,
+                        GroupMessageResultVo.class, "groupmessages"));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 单个房间的增量查询（走roomId+seq+_id索引，按(seq, _id)升序）：先多取一条判断是否还有更多，
+     * 有更多时再用带上限的计数判断是否落后过多
+     */
+    private <T> SyncSinceRoomVo syncRoomSince(String roomId, ObjectId afterId, String type,
+                                              Class<T> messageType, String collection) {
+        Criteria criteria = afterCursor(roomId, afterId, collection);
+        Query query = Query.query(criteria).with(Sort.by(Sort.Direction.ASC, "seq", "_id")).limit(sinceBatchSize + 1);
+        List<T> messages = mongoTemplate.find(query, messageType, collection);
+        if (messages.size() <= sinceBatchSize) {
+            return new SyncSinceRoomVo(roomId, type, messages, false, false);
+        }
+        long behind = mongoTemplate.count(Query.query(criteria).limit(sinceMaxBehind + 1), collection);
+        if (behind > sinceMaxBehind) {
+            log.debug("重连增量同步：房间{}落后超过{}条，改用历史消息接口", roomId, sinceMaxBehind);
+            return new SyncSinceRoomVo(roomId, type, new ArrayList<>(), false, true);
+        }
+        return new SyncSinceRoomVo(roomId, type, new ArrayList<>(messages.subList(0, sinceBatchSize)), true, false);
+    }
+
+    /**
+     * 游标之后的消息条件
+     * ObjectId由各节点按本机时钟生成，跨节点不单调，游标消息有房间序号时按seq比较（无序号的旧消息都早于它）；
+     * 游标是无序号的旧消息时，取_id更大的旧消息与全部有序号的消息；游标消息查不到时退化为按_id比较
+     */
+    private Criteria afterCursor(String roomId, ObjectId afterId, String collection) {
+        Query cursorQuery = Query.query(Criteria.where("_id").is(afterId).and("roomId").is(roomId));
+        cursorQuery.fields().include("seq");
+        Document cursor = mongoTemplate.findOne(cursorQuery, Document.class, collection);
+        Criteria criteria = Criteria.where("roomId").is(roomId);
+        if (cursor == null) {
+            return criteria.and("_id").gt(afterId);
+        }
+        Object seq = cursor.get("seq");
+        if (seq instanceof Number) {
+            return criteria.and("seq").gt(((Number) seq).longValue());
+        }
+        return criteria.orOperator(Criteria.where("seq").ne(null),
+                Criteria.where("seq").is(null).and("_id").gt(afterId));
+    }
+
+    /**
+     * 增量同步：收件箱阶段 → 大群拉取阶段
+     */
+    private void syncIncremental(String uid, String stage, String position, RoomMembershipVo membership,
+                                 int[] pagesLeft, Consumer<OfflineSyncChunkVo> sender) {
+        Set<String> pullGroups = inboxService.filterPullGroups(membership.getGroupIds());
+        ObjectId afterId = null;
+        if (STAGE_INBOX.equals(stage)) {
+            if (!inboxStage(uid, position, pullGroups, pagesLeft, sender)) {
+                return;
+            }
+            if (pagesLeft[0] <= 0) {
+                sender.accept(new OfflineSyncChunkVo(TYPE_GROUP, new ArrayList<>(), STAGE_PULL + ":", false));
+                return;
+            }
+        } else if (position != null) {
+            afterId = new ObjectId(position);
+        }
+        Criteria pullCriteria = readStateService.buildUnreadCriteria(uid, pullGroups);
+        if (pullCriteria != null && !streamStage(pullCriteria, afterId, GroupMessageResultVo.class, "groupmessages",
+                GroupMessageResultVo::getId, STAGE_PULL, TYPE_GROUP, pagesLeft, sender)) {
+            return;
+        }
+        sender.accept(new OfflineSyncChunkVo(TYPE_GROUP, new ArrayList<>(), null, true));
+    }
+
+    /**
+     * 按页读取收件箱并回表推送未读消息
+     * 已读（水位之后不再包含）、失效（初始化标记、已转为大群）的条目在读取时删除，
+     * 收件箱因此只保留未读条目，重连同步的代价与新消息数成正比；
+     * 回表未找到的消息（可能仍在持久化队列中）保留条目，下次同步再取
+     * @return true=收件箱已读取完毕，false=达到单次分片上限（最后一个分片携带续传令牌）
+     */
+    private boolean inboxStage(String uid, String afterEntryId, Set<String> pullGroups,
+                               int[] pagesLeft, Consumer<OfflineSyncChunkVo> sender) {
+        int total = 0;
+        while (true) {
+            List<InboxEntryVo> entries = inboxService.read(uid, afterEntryId, pageSize);
+            if (entries.isEmpty()) {
+                break;
+            }
+            afterEntryId = entries.get(entries.size() - 1).getEntryId();
+            boolean hasMore = entries.size() >= pageSize;
+
+            List<String> staleEntryIds = new ArrayList<>();
+            Map<ObjectId, String> singleEntries = new HashMap<>();
+            Map<ObjectId, String> groupEntries = new HashMap<>();
+            Set<String> roomIds = new HashSet<>();
+            for (InboxEntryVo entry : entries) {
+                if (entry.getRoomId() == null || entry.getMessageId() == null || !ObjectId.isValid(entry.getMessageId())) {
+                    staleEntryIds.add(entry.getEntryId());
+                } else if (INBOX_TYPE_SINGLE.equals(entry.getType())) {
+                    singleEntries.put(new ObjectId(entry.getMessageId()), entry.getEntryId());
+                    roomIds.add(entry.getRoomId());
+                } else if (INBOX_TYPE_GROUP.equals(entry.getType()) && !pullGroups.contains(entry.getRoomId())) {
+                    groupEntries.put(new ObjectId(entry.getMessageId()), entry.getEntryId());
+                    roomIds.add(entry.getRoomId());
+                } else {
+                    staleEntryIds.add(entry.getEntryId());
+                }
+            }
+            Map<String, ReadWatermarkVo> watermarks = readStateService.getWatermarks(uid, roomIds);
+            List<SingleMessageResultVo> singles = fetchUnread(singleEntries, SingleMessageResultVo.class,
+                    "singlemessages", SingleMessageResultVo::getId, SingleMessageResultVo::getSeq,
+                    SingleMessageResultVo::getRoomId, watermarks, staleEntryIds);
+            List<GroupMessageResultVo> groups = fetchUnread(groupEntries, GroupMessageResultVo.class,
+                    "groupmessages", GroupMessageResultVo::getId, GroupMessageResultVo::getSeq,
+                    GroupMessageResultVo::getRoomId, watermarks, staleEntryIds);
+            inboxService.remove(uid, staleEntryIds);
+
+            String token = STAGE_INBOX + ":" + afterEntryId;
+            boolean limitReached = --pagesLeft[0] <= 0 && hasMore;
+            if (!singles.isEmpty()) {
+                sender.accept(new OfflineSyncChunkVo(TYPE_SINGLE, singles, token, false));
+            }
+            if (!groups.isEmpty() || (limitReached && singles.isEmpty())) {
+                sender.accept(new OfflineSyncChunkVo(TYPE_GROUP, groups, token, false));
+            }
+            total += singles.size() + groups.size();
+            if (limitReached) {
+                log.info("离线消息同步达到单次分片上限，阶段={}，已推送{}条，等待客户端续传", STAGE_INBOX, total);
+                return false;
+            }
+            if (!hasMore) {
+                break;
+            }
+        }
+        log.debug("离线消息同步阶段{}完成，推送{}条", STAGE_INBOX, total);
+        return true;
+    }
+
+    /**
+     * 按收件箱条目回表查询消息，只保留已读水位之后的消息；已读消息对应的条目记入失效列表
+     */
+    private <T> List<T> fetchUnread(Map<ObjectId, String> entryByMessageId, Class<T> type, String collection,
+                                    Function<T, String> idGetter, Function<T, Long> seqGetter,
+                                    Function<T, String> roomIdGetter,
+                                    Map<String, ReadWatermarkVo> watermarks, List<String> staleEntryIds) {
+        List<T> unread = new ArrayList<>();
+        if (entryByMessageId.isEmpty()) {
+            return unread;
+        }
+        Query query = Query.query(Criteria.where("_id").in(entryByMessageId.keySet()))
+                .with(Sort.by(Sort.Direction.ASC, "_id"));
+        for (T message : mongoTemplate.find(query, type, collection)) {
+            ObjectId messageId = new ObjectId(idGetter.apply(message));
+            ReadWatermarkVo watermark = watermarks.get(roomIdGetter.apply(message));
+            if (watermark != null && watermark.covers(messageId, seqGetter.apply(message))) {
+                staleEntryIds.add(entryByMessageId.get(messageId));
+            } else {
+                unread.add(message);
+            }
+        }
+        return unread;
+    }
+
+    private boolean isValidPosition(String stage, String position) {
+        if (position.isEmpty()) {
+            return STAGE_SINGLE.equals(stage) || STAGE_GROUP.equals(stage)
+                    || STAGE_INBOX.equals(stage) || STAGE_PULL.equals(stage);
+        }
+        if (STAGE_INBOX.equals(stage)) {
+            return position.matches("\\d+-\\d+");
+        }
+        return (STAGE_SINGLE.equals(stage) || STAGE_GROUP.equals(stage) || STAGE_PULL.equals(stage))
+                && ObjectId.isValid(position);
+    }
+
+    /**
+     * 按游标分页推送一个阶段
+     * @return true=该阶段已推送完毕，false=达到单次分片上限（最后一个分片携带续传令牌）
+     */
+    private <T> boolean streamStage(Criteria criteria, ObjectId afterId, Class<T> type, String collection,
+                                    Function<T, String> idGetter, String stage, String chunkType,
+                                    int[] pagesLeft, Consumer<OfflineSyncChunkVo> sender) {
+        if (afterId != null) {
+            criteria.and("_id").gt(afterId);
+        }
+        Query query = Query.query(criteria).with(Sort.by(Sort.Direction.ASC, "_id"));
+        query.cursorBatchSize(pageSize);
+
+        int total = 0;
+        try (CloseableIterator<T> cursor = mongoTemplate.stream(query, type, collection)) {
+            List<T> page = new ArrayList<>(pageSize);
+            while (cursor.hasNext()) {
+                page.add(cursor.next());
+                if (page.size() < pageSize) {
+                    continue;
+                }
+                total += page.size();
+                String token = stage + ":" + idGetter.apply(page.get(page.size() - 1));
+                sender.accept(new OfflineSyncChunkVo(chunkType, page, token, false));
+                page = new ArrayList<>(pageSize);
+                if (--pagesLeft[0] <= 0 && cursor.hasNext()) {
+                    log.info("离线消息同步达到单次分片上限，阶段={}，已推送{}条，等待客户端续传", stage, total);
+                    return false;
+                }
+            }
+            if (!page.isEmpty()) {
+                total += page.size();
+                String token = stage + ":" + idGetter.apply(page.get(page.size() - 1));
+                sender.accept(new OfflineSyncChunkVo(chunkType, page, token, false));
+                pagesLeft[0]--;
+            }
+        }
+        log.debug("离线消息同步阶段{}完成，推送{}条", stage, total);
+        return true;
+    }
+}
@@ -249,25 +249,51 @@
 
 package com.zzw.chatserver.service.impl;
 
+import com.zzw.chatserver.handler.ClusterBroadcaster;
+import com.zzw.chatserver.handler.PresenceBitmapStore;
+import com.zzw.chatserver.handler.PresenceBroadcaster;
+import com.zzw.chatserver.handler.SessionStateRegistry;
+import com.zzw.chatserver.pojo.vo.ClientActivityVo;
 import com.zzw.chatserver.pojo.vo.SimpleUser;
 import com.zzw.chatserver.service.OnlineUserService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.DefaultTypedTuple;
 import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
 import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scripting.support.ResourceScriptSource;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 /**
  * 在线用户服务实现类
  * 基于Redis实现在线用户管理：
  * - 维护客户端与用户的双向绑定关系
- * - 支持过期客户端自动清理
- * - 提供在线状态查询与统计
+ * - 支持过期客户端自动清理（按活动时间有序集合分批扫描，只取出已过期的客户端）
+ * - 提供在线状态查询与统计（在线位图，见PresenceBitmapStore）
+ * 绑定、续期、清理均通过Lua脚本一次往返原子完成（脚本位于resources/lua），
+ * 双向映射与在线位图不会出现中间状态；脚本内按前缀拼接uid键，仅适用于单机/主从Redis
+ * 本节点的会话以SessionStateRegistry为准，同节点查询不访问Redis；
+ * 绑定/解绑由单线程按提交顺序异步写入Redis，Redis仅作为跨节点查询的副本
  */
 @Service
 @Slf4j
@@ -276,118 +302,253 @@ public class OnlineUserServiceImpl implements OnlineUserService {
     @Resource(name = "objectRedisTemplate")
     private RedisTemplate<String, Object> redisTemplate;
 
+    @Resource
+    private PresenceBitmapStore presenceBitmapStore;
+
+    @Resource
+    private PresenceBroadcaster presenceBroadcaster;
+
+    @Resource
+    private ClusterBroadcaster clusterBroadcaster;
+
+    @Resource
+    private SessionStateRegistry sessionStateRegistry;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 会话异步同步到Redis的队列容量（满时由调用线程直接写入）
+    @Value("${chat.session.replica-queue-capacity:10000}")
+    private int replicaQueueCapacity;
+
+    private ThreadPoolExecutor replicaExecutor;
+
+    // 过期清理单批次扫描的客户端数
+    @Value("${chat.presence.sweep-batch-size:500}")
+    private int sweepBatchSize;
+
+    // 单次清理最多处理的批次数（剩余的留给下一轮，避免单次清理时间过长）
+    @Value("${chat.presence.sweep-max-batches:20}")
+    private int sweepMaxBatches;
+
+    // 绑定关系过期时间（毫秒），与心跳续期使用同一配置
+    @Value("${chat.heartbeat.expiration-ms:3600000}")
+    private long expirationMs;
+
     // Redis键前缀定义
     private static final String PREFIX_CLIENT_TO_USER = "chat:client:user:";       // clientId -> SimpleUser
     private static final String PREFIX_USER_TO_CLIENT = "chat:user:client:";       // userId -> clientId
-    private static final String PREFIX_ONLINE_UID_SET = "chat:online:uids";         // 在线用户集合
     private static final String PREFIX_ALL_CLIENTS = "chat:all:clients";            // 所有客户端ID集合
     private static final String PREFIX_CLIENT_LAST_ACTIVE = "chat:client:active:";  // 客户端最后活动时间
-    // 过期时间定义（1小时，可根据业务调整）
-    private static final long EXPIRE_HOURS = 1;
+    private static final String KEY_CLIENT_ACTIVE_ZSET = "chat:client:active:zset"; // 客户端活动时间有序集合（score=最后活动时间）
+
+    // Lua脚本（参数与返回值均按字符串传递，JSON值由调用方预先按模板值序列化器序列化）
+    private static final DefaultRedisScript<Long> BIND_SCRIPT = loadScript("lua/presence_bind.lua", Long.class);
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = loadScript("lua/presence_renew.lua", Long.class);
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> UNBIND_SCRIPT = loadScript("lua/presence_unbind.lua", List.class);
+    private static final StringRedisSerializer SCRIPT_ARGS_SERIALIZER = StringRedisSerializer.UTF_8;
+    private static final GenericToStringSerializer<Long> SCRIPT_RESULT_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+
+    // 清理脚本返回状态（1=已清理但用户仍有其他客户端在线）
+    private static final int UNBIND_NO_BINDING = 0;
+    private static final int UNBIND_USER_OFFLINE = 2;
+
+    private static <T> DefaultRedisScript<T> loadScript(String path, Class<T> resultType) {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource(path)));
+        script.setResultType(resultType);
+        return script;
+    }
 
-    /**
-     * 新增：获取所有过期的客户端ID（基于Redis实现）
-     * @param expirationMs 过期时间（毫秒），超过此时长未活动的客户端视为过期
-     * @return 过期的客户端ID列表
-     */
-    @Override
-    public List<String> getExpiredClientIds(long expirationMs) {
-        if (expirationMs <= 0) {
-            log.warn("获取过期客户端：过期时间必须大于0，expirationMs={}", expirationMs);
-            return Collections.emptyList();
+    @PostConstruct
+    public void init() {
+        // 单线程保证同一客户端的绑定、解绑按提交顺序写入Redis
+        replicaExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(replicaQueueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "session-replicator");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        Gauge.builder("session.replica.queue.depth", replicaExecutor, executor -> executor.getQueue().size())
+                .description("等待同步到Redis的会话变更数")
+                .register(meterRegistry);
+        backfillActiveIndex();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        replicaExecutor.shutdown();
+        try {
+            if (!replicaExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("会话同步队列未在停机前清空，剩余{}条", replicaExecutor.getQueue().size());
+                replicaExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            replicaExecutor.shutdownNow();
         }
+    }
 
-        long currentTime = System.currentTimeMillis();
-        List<String> expiredClients = new ArrayList<>();
+    /**
+     * 异步执行Redis副本写入
+     */
+    private void replicate(String action, String clientId, Runnable task) {
+        replicaExecutor.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("会话{}同步到Redis失败，clientId={}", action, clientId, e);
+            }
+        });
+    }
 
-        // 1. 获取所有客户端ID（从维护的Set中获取，避免使用KEYS命令）
-        Set<Object> allClientObjs = redisTemplate.opsForSet().members(PREFIX_ALL_CLIENTS);
-        if (allClientObjs == null || allClientObjs.isEmpty()) {
-            return expiredClients;
+    /**
+     * 启动时补齐活动时间有序集合
+     * 有序集合为空而旧的客户端集合中仍有数据时（升级前遗留），按最后活动时间回填，
+     * 无活动时间记录的客户端以0分写入，会在下一次清理时被移除
+     */
+    private void backfillActiveIndex() {
+        try {
+            Long indexed = redisTemplate.opsForZSet().zCard(KEY_CLIENT_ACTIVE_ZSET);
+            if (indexed != null && indexed > 0) {
+                return;
+            }
+            int backfilled = 0;
+            List<Object> batch = new ArrayList<>(sweepBatchSize);
+            try (Cursor<Object> cursor = redisTemplate.opsForSet().scan(PREFIX_ALL_CLIENTS,
+                    ScanOptions.scanOptions().count(sweepBatchSize).build())) {
+                while (cursor.hasNext()) {
+                    batch.add(cursor.next());
+                    if (batch.size() >= sweepBatchSize) {
+                        backfilled += backfillBatch(batch);
+                        batch.clear();
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                backfilled += backfillBatch(batch);
+            }
+            if (backfilled > 0) {
+                log.info("活动时间有序集合回填完成，共{}个客户端", backfilled);
+            }
+        } catch (Exception e) {
+            log.error("活动时间有序集合回填失败", e);
         }
+    }
 
-        // 2. 批量查询最后活动时间（使用pipeline提升效率，显式处理字节数组转换）
+    private int backfillBatch(List<Object> clientObjs) {
+        // 批量查询最后活动时间（pipeline）
         List<Object> activeTimes = redisTemplate.executePipelined((RedisCallback<Object>) session -> {
-            // 获取Redis字符串序列化器（用于将String转换为byte[]）
             RedisSerializer<String> stringSerializer = redisTemplate.getStringSerializer();
-
-            for (Object clientObj : allClientObjs) {
-                String clientId = clientObj.toString();
-                // 构建完整键名
-                String key = PREFIX_CLIENT_LAST_ACTIVE + clientId;
-                // 将字符串键转换为byte[]
-                byte[] keyBytes = stringSerializer.serialize(key);
-
-                if (keyBytes != null) {
-                    // 执行GET命令查询最后活动时间
-                    session.get(keyBytes);
-                } else {
-                    log.warn("客户端{}的活动时间键序列化失败", clientId);
-                }
+            for (Object clientObj : clientObjs) {
+                session.get(stringSerializer.serialize(PREFIX_CLIENT_LAST_ACTIVE + clientObj));
             }
-            return null; // 管道操作无需返回值
+            return null;
         });
 
-        // 3. 过滤出过期客户端
-        Iterator<Object> clientIter = allClientObjs.iterator();
-        Iterator<Object> timeIter = activeTimes.iterator();
-        while (clientIter.hasNext() && timeIter.hasNext()) {
-            String clientId = clientIter.next().toString();
-            Object timeObj = timeIter.next();
-
-            if (timeObj == null) {
-                // 无活动时间记录，视为过期
-                expiredClients.add(clientId);
-                continue;
-            }
-
-            try {
-                long lastActiveTime = Long.parseLong(timeObj.toString());
-                if (currentTime - lastActiveTime > expirationMs) {
-                    expiredClients.add(clientId);
+        Set<ZSetOperations.TypedTuple<Object>> tuples = new HashSet<>();
+        for (int i = 0; i < clientObjs.size(); i++) {
+            Object timeObj = i < activeTimes.size() ? activeTimes.get(i) : null;
+            double score = 0;
+            if (timeObj != null) {
+                try {
+                    score = Long.parseLong(timeObj.toString());
+                } catch (NumberFormatException e) {
+                    log.error("客户端{}的活动时间格式错误：{}", clientObjs.get(i), timeObj, e);
                 }
-            } catch (NumberFormatException e) {
-                log.error("客户端{}的活动时间格式错误：{}", clientId, timeObj, e);
-                expiredClients.add(clientId); // 格式错误视为过期
             }
+            tuples.add(new DefaultTypedTuple<>(clientObjs.get(i), score));
         }
+        redisTemplate.opsForZSet().add(KEY_CLIENT_ACTIVE_ZSET, tuples);
+        return tuples.size();
+    }
 
+    /**
+     * 获取一批过期的客户端ID
+     * 通过ZRANGEBYSCORE ... LIMIT只取出活动时间早于阈值的客户端，单次最多返回sweepBatchSize个
+     * @param expirationMs 过期时间（毫秒），超过此时长未活动的客户端视为过期
+     * @return 过期的客户端ID列表
+     */
+    @Override
+    public List<String> getExpiredClientIds(long expirationMs) {
+        if (expirationMs <= 0) {
+            log.warn("获取过期客户端：过期时间必须大于0，expirationMs={}", expirationMs);
+            return Collections.emptyList();
+        }
+
+        long deadline = System.currentTimeMillis() - expirationMs;
+        Set<Object> clientObjs = redisTemplate.opsForZSet()
+                .rangeByScore(KEY_CLIENT_ACTIVE_ZSET, Double.NEGATIVE_INFINITY, deadline, 0, sweepBatchSize);
+        if (clientObjs == null || clientObjs.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<String> expiredClients = new ArrayList<>(clientObjs.size());
+        for (Object clientObj : clientObjs) {
+            expiredClients.add(clientObj.toString());
+        }
         log.debug("检测到过期客户端{}个，expirationMs={}", expiredClients.size(), expirationMs);
         return expiredClients;
     }
 
     /**
      * 绑定客户端ID与用户信息（双向绑定）
+     * 先登记到本节点注册表并立即返回，Redis副本由后台写入；
+     * 绑定脚本确认用户由离线变为在线后，才带着脚本分配的版本号记录上线增量
+     * （上线流程已先在注册表中切换会话时，重复登记同一客户端不改变状态）
+     * @return true=用户由离线变为在线（同节点重连、其他节点已在线时为false）
      */
     @Override
-    public void addClientIdToSimpleUser(String clientId, SimpleUser simpleUser) {
+    public boolean addClientIdToSimpleUser(String clientId, SimpleUser simpleUser) {
         if (clientId == null || simpleUser == null || simpleUser.getUid() == null) {
             log.warn("添加客户端绑定：参数不完整，clientId={}, user={}", clientId, simpleUser);
-            return;
+            return false;
         }
 
-        long currentTime = System.currentTimeMillis();
         String uid = simpleUser.getUid();
+        boolean becameOnline = !presenceBitmapStore.isOnline(uid);
+        sessionStateRegistry.bind(simpleUser, clientId);
+        PresenceBitmapStore.LocalChange change = presenceBitmapStore.markOnline(uid);
+        replicate("绑定", clientId, () -> {
+            long version = bindInRedis(clientId, simpleUser);
+            presenceBitmapStore.confirmReplicated(uid, change);
+            // 集群路由随会话副本一起更新，跨节点推送据此只发给持有该用户的节点
+            clusterBroadcaster.bindUser(uid);
+            if (version > 0) {
+                presenceBroadcaster.markOnline(uid, version);
+            }
+        });
 
-        // 1. 存储客户端-用户映射（带过期时间）
-        String clientKey = PREFIX_CLIENT_TO_USER + clientId;
-        redisTemplate.opsForValue().set(clientKey, simpleUser, EXPIRE_HOURS, TimeUnit.HOURS);
-
-        // 2. 存储用户-客户端映射（带过期时间）
-        String userKey = PREFIX_USER_TO_CLIENT + uid;
-        redisTemplate.opsForValue().set(userKey, clientId, EXPIRE_HOURS, TimeUnit.HOURS);
-
-        // 3. 记录客户端最后活动时间
-        String activeKey = PREFIX_CLIENT_LAST_ACTIVE + clientId;
-        redisTemplate.opsForValue().set(activeKey, currentTime, EXPIRE_HOURS, TimeUnit.HOURS);
-
-        // 4. 将客户端ID加入全局客户端集合
-        redisTemplate.opsForSet().add(PREFIX_ALL_CLIENTS, clientId);
+        log.debug("客户端{}与用户{}绑定成功", clientId, uid);
+        return becameOnline;
+    }
 
-        // 5. 将用户ID加入在线用户集合
-        redisTemplate.opsForSet().add(PREFIX_ONLINE_UID_SET, uid);
+    /**
+     * @return 用户由离线变为在线时为新的在线状态版本号，否则为0
+     */
+    private long bindInRedis(String clientId, SimpleUser simpleUser) {
+        long currentTime = System.currentTimeMillis();
+        String uid = simpleUser.getUid();
 
-        log.debug("客户端{}与用户{}绑定成功", clientId, uid);
+        // 双向映射、活动时间、客户端集合、在线位图一次写入
+        List<String> keys = Arrays.asList(
+                PREFIX_CLIENT_TO_USER + clientId,
+                PREFIX_USER_TO_CLIENT + uid,
+                PREFIX_CLIENT_LAST_ACTIVE + clientId,
+                PREFIX_ALL_CLIENTS,
+                PresenceBitmapStore.KEY_ONLINE_BITMAP,
+                KEY_CLIENT_ACTIVE_ZSET,
+                PresenceBitmapStore.KEY_UID_TO_INDEX,
+                PresenceBitmapStore.KEY_INDEX_TO_UID,
+                PresenceBitmapStore.KEY_INDEX_SEQ,
+                PresenceBitmapStore.KEY_PRESENCE_VERSION);
+        Long version = redisTemplate.execute(BIND_SCRIPT, SCRIPT_ARGS_SERIALIZER, SCRIPT_RESULT_SERIALIZER, keys,
+                toJson(simpleUser), toJson(clientId), toJson(currentTime),
+                String.valueOf(expirationMs), uid, String.valueOf(currentTime));
+        return version != null ? version : 0L;
     }
 
     /**
@@ -404,80 +565,169 @@ public class OnlineUserServiceImpl implements OnlineUserService {
         }
 
         long currentTime = System.currentTimeMillis();
-        // 1. 更新最后活动时间
-        String activeKey = PREFIX_CLIENT_LAST_ACTIVE + clientId;
-        redisTemplate.opsForValue().set(activeKey, currentTime, expirationMs, TimeUnit.MILLISECONDS);
-
-        // 2. 续期客户端-用户映射
-        String clientKey = PREFIX_CLIENT_TO_USER + clientId;
-        redisTemplate.expire(clientKey, expirationMs, TimeUnit.MILLISECONDS);
-
-        // 3. 续期用户-客户端映射
-        String userKey = PREFIX_USER_TO_CLIENT + uid;
-        redisTemplate.expire(userKey, expirationMs, TimeUnit.MILLISECONDS);
+        // 更新最后活动时间并续期双向映射（用户映射已指向其他客户端时不续期）
+        List<String> keys = Arrays.asList(
+                PREFIX_CLIENT_LAST_ACTIVE + clientId,
+                PREFIX_CLIENT_TO_USER + clientId,
+                PREFIX_USER_TO_CLIENT + uid,
+                KEY_CLIENT_ACTIVE_ZSET);
+        Long renewed = redisTemplate.execute(RENEW_SCRIPT, SCRIPT_ARGS_SERIALIZER, SCRIPT_RESULT_SERIALIZER, keys,
+                toJson(currentTime), String.valueOf(expirationMs), toJson(clientId), String.valueOf(currentTime));
+        if (renewed == null || renewed == 0) {
+            log.debug("客户端{}续期跳过：绑定关系已不存在", clientId);
+            return;
+        }
 
         log.trace("客户端{}续期成功，剩余过期时间{}ms", clientId, expirationMs);
     }
 
     /**
-     * 清理过期的客户端绑定（基于getExpiredClientIds实现）
-     * @param expirationThresholdMs 过期阈值(毫秒)
-     * @return 清理的客户端数量
+     * 批量续期客户端绑定关系
+     * 先SCRIPT LOAD确保续期脚本已缓存（一次往返），再在管道内对整批客户端执行EVALSHA
      */
     @Override
-    public int cleanExpiredClients(long expirationThresholdMs) {
-        // 1. 获取所有过期客户端
-        List<String> expiredClientIds = getExpiredClientIds(expirationThresholdMs);
-        if (expiredClientIds.isEmpty()) {
-            return 0;
+    public List<String> renewExpirationBatch(List<ClientActivityVo> activities, long expirationMs) {
+        if (activities == null || activities.isEmpty() || expirationMs <= 0) {
+            return Collections.emptyList();
+        }
+
+        RedisSerializer<String> stringSerializer = redisTemplate.getStringSerializer();
+        byte[] scriptBytes = stringSerializer.serialize(RENEW_SCRIPT.getScriptAsString());
+        String sha = redisTemplate.execute((RedisCallback<String>) connection -> connection.scriptLoad(scriptBytes));
+        byte[] expirationArg = stringSerializer.serialize(String.valueOf(expirationMs));
+        byte[] zsetKey = stringSerializer.serialize(KEY_CLIENT_ACTIVE_ZSET);
+
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ClientActivityVo activity : activities) {
+                String clientId = activity.getClientId();
+                long activeTime = activity.getLastActiveTime();
+                connection.evalSha(sha, ReturnType.INTEGER, 4,
+                        stringSerializer.serialize(PREFIX_CLIENT_LAST_ACTIVE + clientId),
+                        stringSerializer.serialize(PREFIX_CLIENT_TO_USER + clientId),
+                        stringSerializer.serialize(PREFIX_USER_TO_CLIENT + activity.getUid()),
+                        zsetKey,
+                        stringSerializer.serialize(toJson(activeTime)),
+                        expirationArg,
+                        stringSerializer.serialize(toJson(clientId)),
+                        stringSerializer.serialize(String.valueOf(activeTime)));
+            }
+            return null;
+        });
+
+        List<String> missingClientIds = new ArrayList<>();
+        for (int i = 0; i < activities.size(); i++) {
+            Object result = i < results.size() ? results.get(i) : null;
+            if (!(result instanceof Long) || (Long) result == 0) {
+                missingClientIds.add(activities.get(i).getClientId());
+            }
         }
+        log.debug("批量续期客户端{}个，未续期{}个", activities.size(), missingClientIds.size());
+        return missingClientIds;
+    }
 
-        // 2. 批量清理过期客户端
+    /**
+     * 增量清理过期的客户端绑定
+     * 每批取出一批过期客户端并逐个清理（清理脚本会将其移出有序集合），
+     * 直到没有过期客户端或达到单次最大批次数，剩余的留给下一轮
+     * @param expirationThresholdMs 过期阈值(毫秒)
+     * @return 因清理而离线的用户ID列表
+     */
+    @Override
+    public List<String> cleanExpiredClients(long expirationThresholdMs) {
+        List<String> offlineUids = new ArrayList<>();
         int cleanedCount = 0;
-        for (String clientId : expiredClientIds) {
-            if (cleanClientBinding(clientId)) {
-                cleanedCount++;
+        int scannedCount = 0;
+        for (int batchNo = 0; batchNo < sweepMaxBatches; batchNo++) {
+            List<String> expiredClientIds = getExpiredClientIds(expirationThresholdMs);
+            if (expiredClientIds.isEmpty()) {
+                break;
+            }
+            for (String clientId : expiredClientIds) {
+                sessionStateRegistry.unbind(null, clientId);
+                UnbindResult result = cleanClientBinding(clientId, null);
+                if (result.status != UNBIND_NO_BINDING) {
+                    cleanedCount++;
+                }
+                if (result.status == UNBIND_USER_OFFLINE) {
+                    offlineUids.add(result.uid);
+                }
+            }
+            scannedCount += expiredClientIds.size();
+            if (expiredClientIds.size() < sweepBatchSize) {
+                break;
             }
         }
 
-        log.info("清理过期客户端完成，共清理{}个", cleanedCount);
-        return cleanedCount;
+        if (scannedCount > 0) {
+            log.info("清理过期客户端完成，扫描{}个，清理绑定{}个，离线用户{}个",
+                    scannedCount, cleanedCount, offlineUids.size());
+        }
+        return offlineUids;
     }
 
     /**
      * 清理单个客户端的所有绑定关系
-     * @return true=清理成功，false=客户端不存在
+     * 脚本内读取客户端绑定的用户，比较用户-客户端映射后再删除（已被新客户端覆盖时保留），
+     * 用户不再有客户端时清除其在线位，全部在一次往返内完成；
+     * 只有脚本确认用户映射正是此客户端并因此离线时，才带着脚本分配的版本号记录下线增量
+     * @param clientId 客户端ID
+     * @param uid 已知的用户ID（可为null，为null时由脚本从客户端映射中解析）
+     * @return 清理结果（状态及解析出的用户ID）
      */
-    private boolean cleanClientBinding(String clientId) {
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private UnbindResult cleanClientBinding(String clientId, String uid) {
         if (clientId == null) {
-            return false;
+            return new UnbindResult(UNBIND_NO_BINDING, null);
         }
 
-        // 1. 获取客户端绑定的用户信息
-        SimpleUser user = getSimpleUserByClientId(clientId);
-        String uid = user != null ? user.getUid() : null;
-
-        // 2. 批量删除相关键
-        List<String> keysToDelete = new ArrayList<>();
-        keysToDelete.add(PREFIX_CLIENT_TO_USER + clientId);
-        keysToDelete.add(PREFIX_CLIENT_LAST_ACTIVE + clientId);
-        if (uid != null) {
-            keysToDelete.add(PREFIX_USER_TO_CLIENT + uid);
+        List<String> keys = Arrays.asList(
+                PREFIX_CLIENT_TO_USER + clientId,
+                PREFIX_CLIENT_LAST_ACTIVE + clientId,
+                PREFIX_ALL_CLIENTS,
+                PresenceBitmapStore.KEY_ONLINE_BITMAP,
+                KEY_CLIENT_ACTIVE_ZSET,
+                PresenceBitmapStore.KEY_UID_TO_INDEX,
+                PresenceBitmapStore.KEY_PRESENCE_VERSION);
+        // 列表结果中的字符串元素按结果序列化器逐个反序列化，整数元素原样返回
+        List<?> result = redisTemplate.execute(UNBIND_SCRIPT, SCRIPT_ARGS_SERIALIZER, (RedisSerializer) SCRIPT_ARGS_SERIALIZER, keys,
+                toJson(clientId), PREFIX_USER_TO_CLIENT, uid != null ? uid : "");
+        if (result == null || result.isEmpty()) {
+            return new UnbindResult(UNBIND_NO_BINDING, null);
         }
-        redisTemplate.delete(keysToDelete);
-
-        // 3. 从集合中移除
-        redisTemplate.opsForSet().remove(PREFIX_ALL_CLIENTS, clientId);
-        if (uid != null) {
-            // 检查用户是否还有其他客户端（如果没有则从在线集合移除）
-            String userKey = PREFIX_USER_TO_CLIENT + uid;
-            if (!redisTemplate.hasKey(userKey)) {
-                redisTemplate.opsForSet().remove(PREFIX_ONLINE_UID_SET, uid);
-            }
+
+        int status = ((Number) result.get(0)).intValue();
+        String resolvedUid = result.size() > 1 && result.get(1) != null ? result.get(1).toString() : null;
+        // 用户已在本节点重新上线时不回写离线状态
+        if (status == UNBIND_USER_OFFLINE && sessionStateRegistry.get(resolvedUid) == null) {
+            presenceBitmapStore.confirmReplicated(resolvedUid, presenceBitmapStore.markOffline(resolvedUid));
+            long version = result.size() > 2 && result.get(2) != null ? ((Number) result.get(2)).longValue() : 0L;
+            presenceBroadcaster.markOffline(resolvedUid, version);
+            clusterBroadcaster.unbindUser(resolvedUid);
         }
+        log.debug("客户端{}的绑定关系已清理，状态={}", clientId, status);
+        return new UnbindResult(status, resolvedUid);
+    }
+
+    /**
+     * 清理脚本结果
+     */
+    private static final class UnbindResult {
+        private final int status;
+        private final String uid;
 
-        log.debug("客户端{}的绑定关系已清理", clientId);
-        return true;
+        UnbindResult(int status, String uid) {
+            this.status = status;
+            this.uid = uid;
+        }
+    }
+
+    /**
+     * 按模板的值序列化器序列化脚本参数，保证脚本写入的值与opsForValue/opsForSet读写的格式一致
+     */
+    @SuppressWarnings("unchecked")
+    private String toJson(Object value) {
+        byte[] bytes = ((RedisSerializer<Object>) redisTemplate.getValueSerializer()).serialize(value);
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : "";
     }
 
     /**
@@ -485,31 +735,38 @@ public class OnlineUserServiceImpl implements OnlineUserService {
      */
     @Override
     public Set<Object> getOnlineUidSet() {
-        Set<Object> onlineUids = redisTemplate.opsForSet().members(PREFIX_ONLINE_UID_SET);
-        return onlineUids != null ? onlineUids : Collections.emptySet();
+        return new HashSet<>(presenceBitmapStore.getOnlineUids());
     }
 
     /**
-     * 根据客户端ID查询绑定的用户信息
+     * 根据客户端ID查询绑定的用户信息（本节点会话直接读内存，其余查询Redis副本）
      */
     @Override
     public SimpleUser getSimpleUserByClientId(String clientId) {
         if (clientId == null) {
             return null;
         }
+        SimpleUser localUser = sessionStateRegistry.getUser(clientId);
+        if (localUser != null) {
+            return localUser;
+        }
         String clientKey = PREFIX_CLIENT_TO_USER + clientId;
         Object userObj = redisTemplate.opsForValue().get(clientKey);
         return userObj instanceof SimpleUser ? (SimpleUser) userObj : null;
     }
 
     /**
-     * 根据用户ID查询绑定的客户端ID
+     * 根据用户ID查询绑定的客户端ID（本节点会话直接读内存，其余查询Redis副本）
      */
     @Override
     public String getClientIdByUid(String uid) {
         if (uid == null) {
             return null;
         }
+        String localClientId = sessionStateRegistry.getClientId(uid);
+        if (localClientId != null) {
+            return localClientId;
+        }
         String userKey = PREFIX_USER_TO_CLIENT + uid;
         Object clientObj = redisTemplate.opsForValue().get(userKey);
         return clientObj instanceof String ? (String) clientObj : null;
@@ -519,15 +776,23 @@ public class OnlineUserServiceImpl implements OnlineUserService {
      * 移除客户端绑定关系并处理用户下线
      */
     @Override
-    public void removeClientAndUidInSet(String clientId, String uid) {
+    public boolean removeClientAndUidInSet(String clientId, String uid) {
         if (clientId == null || uid == null) {
             log.warn("移除绑定参数不完整：clientId={}, uid={}", clientId, uid);
-            return;
+            return false;
         }
 
-        // 直接调用清理方法
-        cleanClientBinding(clientId);
+        // 本节点注册表决定是否离线，Redis副本后台清理（下线增量在清理脚本确认后记录）
+        boolean wentOffline = sessionStateRegistry.unbind(uid, clientId) != null;
+        PresenceBitmapStore.LocalChange change = wentOffline ? presenceBitmapStore.markOffline(uid) : null;
+        replicate("解绑", clientId, () -> {
+            // 用户在Redis中已离线时清理脚本会重新记录并确认离线；其他节点仍有会话时撤销本地的离线判断，以镜像为准
+            if (cleanClientBinding(clientId, uid).status != UNBIND_USER_OFFLINE) {
+                presenceBitmapStore.discard(uid, change);
+            }
+        });
         log.info("用户{}的客户端{}已下线", uid, clientId);
+        return wentOffline;
     }
 
     /**
@@ -535,20 +800,32 @@ public class OnlineUserServiceImpl implements OnlineUserService {
      */
     @Override
     public int countOnlineUser() {
-        Long count = redisTemplate.opsForSet().size(PREFIX_ONLINE_UID_SET);
-        return count != null ? count.intValue() : 0;
+        return presenceBitmapStore.countOnline();
     }
 
     /**
-     * 校验指定用户是否在线
+     * 校验指定用户是否在线（本节点注册表 + 本地位图镜像）
      */
     @Override
     public boolean checkCurUserIsOnline(String uid) {
-        if (uid == null) {
-            return false;
+        return sessionStateRegistry.get(uid) != null || presenceBitmapStore.isOnline(uid);
+    }
+
+    /**
+     * 批量校验用户是否在线（本节点注册表 + 本地位图镜像）
+     */
+    @Override
+    public Set<String> filterOnlineUids(Collection<String> uids) {
+        if (uids == null || uids.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> onlineUids = new HashSet<>(presenceBitmapStore.filterOnline(uids));
+        for (String uid : uids) {
+            if (sessionStateRegistry.get(uid) != null) {
+                onlineUids.add(uid);
+            }
         }
-        Boolean isMember = redisTemplate.opsForSet().isMember(PREFIX_ONLINE_UID_SET, uid);
-        return Boolean.TRUE.equals(isMember); // 处理null情况
+        return onlineUids;
     }
 
     /**
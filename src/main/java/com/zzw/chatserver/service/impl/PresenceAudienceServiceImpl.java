@@ -0,0 +1,61 @@
+package com.zzw.chatserver.service.impl;
+
+import com.zzw.chatserver.handler.FriendGraph;
+import com.zzw.chatserver.pojo.vo.RoomMembershipVo;
+import com.zzw.chatserver.service.PresenceAudienceService;
+import com.zzw.chatserver.service.RoomMembershipService;
+import com.zzw.chatserver.utils.ValidationUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.*;
+
+/**
+ * 在线状态订阅关系服务实现类
+ * 不单独缓存关系，直接读取已有的索引并在查询时合并：
+ * - 用户 -> 好友ID（内存好友关系图；未加载完成时由会话成员索引中的单聊房间ID还原）
+ * - 用户 -> 所在群ID
+ * - 群 -> 成员ID
+ * 关系变化时的本地失效与集群通知都由会话成员索引统一完成
+ */
+@Service
+public class PresenceAudienceServiceImpl implements PresenceAudienceService {
+
+    @Resource
+    private RoomMembershipService roomMembershipService;
+
+    @Resource
+    private FriendGraph friendGraph;
+
+    // 成员数超过此值的群不参与在线状态推送（大群成员在线状态意义不大且推送代价高）
+    @Value("${chat.presence.group-fanout-max-size:500}")
+    private int groupFanoutMaxSize;
+
+    @Override
+    public Set<String> getAudience(String uid) {
+        if (!ValidationUtil.isValidObjectId(uid)) {
+            return Collections.emptySet();
+        }
+        RoomMembershipVo membership = roomMembershipService.getMembership(uid);
+        Set<String> audience = new HashSet<>();
+        if (friendGraph.isReady()) {
+            audience.addAll(friendGraph.getFriendIds(uid));
+        } else {
+            for (String roomId : membership.getSingleRoomIds()) {
+                // 单聊房间ID为两个uid按字典序以"-"拼接
+                for (String member : roomId.split("-")) {
+                    audience.add(member);
+                }
+            }
+        }
+        for (String groupId : membership.getGroupIds()) {
+            List<String> members = roomMembershipService.getGroupMemberIds(groupId);
+            if (members.size() <= groupFanoutMaxSize) {
+                audience.addAll(members);
+            }
+        }
+        audience.remove(uid);
+        return audience;
+    }
+}
@@ -0,0 +1,319 @@
+package com.zzw.chatserver.service.impl;
+
+import com.zzw.chatserver.pojo.ReadState;
+import com.zzw.chatserver.pojo.vo.ReadWatermarkVo;
+import com.zzw.chatserver.service.ReadStateService;
+import com.zzw.chatserver.utils.ValidationUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.FacetOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.*;
+
+/**
+ * 会话已读水位服务实现类
+ * 水位存储在readstates集合（userId+roomId唯一索引），序号与消息ID分别使用$max保证只增不减；
+ * 有序号的消息按seq判断是否已读，旧的无序号消息按_id判断（旧消息都早于有序号的消息）；
+ * 在线迁移：某个(用户, 房间)首次访问时若没有水位记录，按旧的isReadUser数组推导水位
+ * （第一条未读消息之前的最后一条消息）并写入，此后只读写水位，旧数组不再更新
+ */
+@Service
+@Slf4j
+public class ReadStateServiceImpl implements ReadStateService {
+
+    private static final String COLLECTION_SINGLE = "singlemessages";
+    private static final String COLLECTION_GROUP = "groupmessages";
+
+    @Resource
+    private MongoTemplate mongoTemplate;
+
+    // 批量统计未读数时单次聚合最多包含的(用户, 房间)数
+    @Value("${chat.unread.count-batch-size:100}")
+    private int countBatchSize;
+
+    @Override
+    public void markRead(String uid, String roomId, ReadWatermarkVo watermark) {
+        if (uid == null || roomId == null || watermark == null || watermark.getMessageId() == null) {
+            return;
+        }
+        Query query = Query.query(Criteria.where("userId").is(uid).and("roomId").is(roomId));
+        mongoTemplate.upsert(query, advanceUpdate(watermark, new Date()), ReadState.class);
+    }
+
+    @Override
+    public int markReadBatch(Map<String, Map<String, ReadWatermarkVo>> watermarks) {
+        if (watermarks == null || watermarks.isEmpty()) {
+            return 0;
+        }
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ReadState.class);
+        Date now = new Date();
+        int count = 0;
+        for (Map.Entry<String, Map<String, ReadWatermarkVo>> userEntry : watermarks.entrySet()) {
+            for (Map.Entry<String, ReadWatermarkVo> roomEntry : userEntry.getValue().entrySet()) {
+                if (roomEntry.getValue() == null || roomEntry.getValue().getMessageId() == null) {
+                    continue;
+                }
+                Query query = Query.query(Criteria.where("userId").is(userEntry.getKey())
+                        .and("roomId").is(roomEntry.getKey()));
+                bulkOps.upsert(query, advanceUpdate(roomEntry.getValue(), now));
+                count++;
+            }
+        }
+        if (count > 0) {
+            bulkOps.execute();
+        }
+        return count;
+    }
+
+    @Override
+    public void markRoomRead(String uid, String roomId) {
+        if (uid == null || roomId == null) {
+            return;
+        }
+        ReadWatermarkVo latest = findLatestMessage(roomId, null);
+        if (latest != null) {
+            markRead(uid, roomId, latest);
+        }
+    }
+
+    @Override
+    public Map<String, ReadWatermarkVo> getWatermarks(String uid, Collection<String> roomIds) {
+        Map<String, ReadWatermarkVo> watermarks = new HashMap<>();
+        if (uid == null || roomIds == null || roomIds.isEmpty()) {
+            return watermarks;
+        }
+        Query query = Query.query(Criteria.where("userId").is(uid).and("roomId").in(roomIds));
+        query.fields().include("roomId").include("lastReadMessageId").include("lastReadSeq");
+        for (ReadState state : mongoTemplate.find(query, ReadState.class)) {
+            watermarks.put(state.getRoomId(), toWatermark(state));
+        }
+        for (String roomId : roomIds) {
+            if (!watermarks.containsKey(roomId)) {
+                watermarks.put(roomId, migrateLegacyWatermark(uid, roomId));
+            }
+        }
+        return watermarks;
+    }
+
+    @Override
+    public Criteria buildUnreadCriteria(String uid, Collection<String> roomIds) {
+        if (uid == null || roomIds == null || roomIds.isEmpty()) {
+            return null;
+        }
+        Map<String, ReadWatermarkVo> watermarks = getWatermarks(uid, roomIds);
+        List<Criteria> branches = new ArrayList<>(watermarks.size());
+        for (Map.Entry<String, ReadWatermarkVo> entry : watermarks.entrySet()) {
+            branches.add(afterWatermark(entry.getKey(), entry.getValue()));
+        }
+        return new Criteria().andOperator(unreadOwnerCriteria(uid, roomIds.iterator().next()),
+                new Criteria().orOperator(branches.toArray(new Criteria[0])));
+    }
+
+    @Override
+    public long countUnread(String uid, String roomId) {
+        if (uid == null || roomId == null) {
+            return 0;
+        }
+        Criteria criteria = buildUnreadCriteria(uid, Collections.singletonList(roomId));
+        return mongoTemplate.count(Query.query(criteria), collectionOf(roomId));
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> countUnreadBatch(Map<String, Set<String>> roomsByUser) {
+        Map<String, Map<String, Long>> counts = new HashMap<>();
+        if (roomsByUser == null || roomsByUser.isEmpty()) {
+            return counts;
+        }
+        // 一次查询取回所有(用户, 房间)的当前水位
+        List<Criteria> owners = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : roomsByUser.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null && !entry.getValue().isEmpty()) {
+                owners.add(Criteria.where("userId").is(entry.getKey()).and("roomId").in(entry.getValue()));
+            }
+        }
+        if (owners.isEmpty()) {
+            return counts;
+        }
+        Map<String, Map<String, ReadWatermarkVo>> watermarks = new HashMap<>();
+        Query query = Query.query(new Criteria().orOperator(owners.toArray(new Criteria[0])));
+        query.fields().include("userId").include("roomId").include("lastReadMessageId").include("lastReadSeq");
+        for (ReadState state : mongoTemplate.find(query, ReadState.class)) {
+            watermarks.computeIfAbsent(state.getUserId(), key -> new HashMap<>())
+                    .put(state.getRoomId(), toWatermark(state));
+        }
+
+        List<String[]> singlePairs = new ArrayList<>();
+        List<String[]> groupPairs = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : roomsByUser.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                continue;
+            }
+            for (String roomId : entry.getValue()) {
+                if (roomId != null) {
+                    String[] pair = {entry.getKey(), roomId};
+                    (ValidationUtil.isValidSingleRoomId(roomId) ? singlePairs : groupPairs).add(pair);
+                }
+            }
+        }
+        countByFacets(singlePairs, watermarks, COLLECTION_SINGLE, counts);
+        countByFacets(groupPairs, watermarks, COLLECTION_GROUP, counts);
+        return counts;
+    }
+
+    /**
+     * 每个(用户, 房间)一个$facet分支计数：外层$match用各分支条件的并集走roomId+seq+_id索引，
+     * 分支内再按各自的水位与归属条件筛选
+     */
+    private void countByFacets(List<String[]> pairs, Map<String, Map<String, ReadWatermarkVo>> watermarks,
+                               String collection, Map<String, Map<String, Long>> counts) {
+        for (int from = 0; from < pairs.size(); from += countBatchSize) {
+            List<String[]> batch = pairs.subList(from, Math.min(from + countBatchSize, pairs.size()));
+            List<Criteria> branches = new ArrayList<>(batch.size());
+            FacetOperation facet = null;
+            for (int i = 0; i < batch.size(); i++) {
+                String uid = batch.get(i)[0];
+                String roomId = batch.get(i)[1];
+                ReadWatermarkVo watermark = watermarks.getOrDefault(uid, Collections.emptyMap()).get(roomId);
+                Criteria branch = unreadBranch(uid, roomId, watermark);
+                branches.add(branch);
+                AggregationOperation[] operations = {
+                        Aggregation.match(branch), Aggregation.count().as("count")};
+                facet = facet == null
+                        ? Aggregation.facet(operations).as("f" + i)
+                        : facet.and(operations).as("f" + i);
+            }
+            Aggregation aggregation = Aggregation.newAggregation(
+                    Aggregation.match(new Criteria().orOperator(branches.toArray(new Criteria[0]))), facet);
+            Document result = mongoTemplate.aggregate(aggregation, collection, Document.class).getUniqueMappedResult();
+            for (int i = 0; i < batch.size(); i++) {
+                long count = 0;
+                List<?> facetResult = result != null ? result.get("f" + i, List.class) : null;
+                if (facetResult != null && !facetResult.isEmpty()) {
+                    count = ((Number) ((Document) facetResult.get(0)).get("count")).longValue();
+                }
+                counts.computeIfAbsent(batch.get(i)[0], key -> new HashMap<>()).put(batch.get(i)[1], count);
+            }
+        }
+    }
+
+    private Criteria unreadBranch(String uid, String roomId, ReadWatermarkVo watermark) {
+        return new Criteria().andOperator(afterWatermark(roomId, watermark), unreadOwnerCriteria(uid, roomId));
+    }
+
+    /**
+     * 房间内位于水位之后的消息：有序号的消息按seq比较；无序号的旧消息按_id比较；
+     * 水位本身没有序号（旧水位）时全部按_id比较
+     */
+    private Criteria afterWatermark(String roomId, ReadWatermarkVo watermark) {
+        Criteria branch = Criteria.where("roomId").is(roomId);
+        if (watermark == null || watermark.getMessageId() == null) {
+            return branch;
+        }
+        if (watermark.getSeq() == null) {
+            return branch.and("_id").gt(watermark.getMessageId());
+        }
+        // seq为null同时匹配缺少该字段的旧消息
+        return branch.orOperator(Criteria.where("seq").gt(watermark.getSeq()),
+                Criteria.where("seq").is(null).and("_id").gt(watermark.getMessageId()));
+    }
+
+    @Override
+    public boolean isRead(String uid, String roomId, ObjectId messageId, Long seq) {
+        if (uid == null || roomId == null || messageId == null) {
+            return false;
+        }
+        ReadWatermarkVo watermark = getWatermarks(uid, Collections.singletonList(roomId)).get(roomId);
+        return watermark != null && watermark.covers(messageId, seq);
+    }
+
+    private Update advanceUpdate(ReadWatermarkVo watermark, Date now) {
+        Update update = new Update()
+                .max("lastReadMessageId", watermark.getMessageId())
+                .set("updateTime", now);
+        if (watermark.getSeq() != null) {
+            update.max("lastReadSeq", watermark.getSeq());
+        }
+        return update;
+    }
+
+    private static ReadWatermarkVo toWatermark(ReadState state) {
+        return state.getLastReadMessageId() != null
+                ? new ReadWatermarkVo(state.getLastReadMessageId(), state.getLastReadSeq())
+                : null;
+    }
+
+    /**
+     * 按旧isReadUser数据推导水位并写入（仅插入，已有记录时保留现值）
+     */
+    private ReadWatermarkVo migrateLegacyWatermark(String uid, String roomId) {
+        String collection = collectionOf(roomId);
+        Query firstUnread = Query.query(new Criteria().andOperator(
+                        Criteria.where("roomId").is(roomId), unreadOwnerCriteria(uid, roomId),
+                        Criteria.where("isReadUser").nin(uid)))
+                .with(Sort.by(Sort.Direction.ASC, "seq", "_id"))
+                .limit(1);
+        firstUnread.fields().include("_id").include("seq");
+        Document unread = mongoTemplate.findOne(firstUnread, Document.class, collection);
+
+        ReadWatermarkVo watermark = findLatestMessage(roomId, unread != null ? toWatermark(unread) : null);
+
+        Query query = Query.query(Criteria.where("userId").is(uid).and("roomId").is(roomId));
+        Update update = new Update()
+                .setOnInsert("lastReadMessageId", watermark != null ? watermark.getMessageId() : null)
+                .setOnInsert("lastReadSeq", watermark != null ? watermark.getSeq() : null)
+                .setOnInsert("updateTime", new Date());
+        ReadState state = mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().upsert(true).returnNew(true), ReadState.class);
+        log.debug("迁移用户{}在房间{}的已读水位：{}", uid, roomId, watermark);
+        return state != null ? toWatermark(state) : watermark;
+    }
+
+    /**
+     * 按(seq, _id)查询房间内最新的消息（无序号的旧消息排在有序号的消息之前）
+     * @param before 不为null时只查询排在该消息之前的消息
+     */
+    private ReadWatermarkVo findLatestMessage(String roomId, ReadWatermarkVo before) {
+        Criteria criteria = Criteria.where("roomId").is(roomId);
+        if (before != null && before.getSeq() != null) {
+            criteria.orOperator(Criteria.where("seq").lt(before.getSeq()), Criteria.where("seq").is(null));
+        } else if (before != null) {
+            criteria.and("seq").is(null).and("_id").lt(before.getMessageId());
+        }
+        Query query = Query.query(criteria).with(Sort.by(Sort.Direction.DESC, "seq", "_id")).limit(1);
+        query.fields().include("_id").include("seq");
+        Document latest = mongoTemplate.findOne(query, Document.class, collectionOf(roomId));
+        return latest != null ? toWatermark(latest) : null;
+    }
+
+    private static ReadWatermarkVo toWatermark(Document message) {
+        Object seq = message.get("seq");
+        return new ReadWatermarkVo(message.getObjectId("_id"), seq instanceof Number ? ((Number) seq).longValue() : null);
+    }
+
+    /**
+     * 未读消息的归属条件：单聊为发给该用户的消息，群聊为他人发送的消息
+     */
+    private Criteria unreadOwnerCriteria(String uid, String roomId) {
+        if (ValidationUtil.isValidSingleRoomId(roomId)) {
+            return Criteria.where("receiverId").is(uid);
+        }
+        return Criteria.where("senderId").ne(new ObjectId(uid));
+    }
+
+    private String collectionOf(String roomId) {
+        return ValidationUtil.isValidSingleRoomId(roomId) ? COLLECTION_SINGLE : COLLECTION_GROUP;
+    }
+}
@@ -0,0 +1,305 @@
+package com.zzw.chatserver.service.impl;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.zzw.chatserver.handler.ClusterBroadcaster;
+import com.zzw.chatserver.handler.FriendGraph;
+import com.zzw.chatserver.pojo.GoodFriend;
+import com.zzw.chatserver.pojo.GroupUser;
+import com.zzw.chatserver.pojo.vo.RoomMembershipVo;
+import com.zzw.chatserver.service.RoomMembershipService;
+import com.zzw.chatserver.utils.ValidationUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话成员索引服务实现类
+ * 两级缓存：
+ * - 本地：Guava缓存，关系变化时失效（并经集群总线通知其他节点）
+ * - Redis：每个用户一个哈希 chat:membership:{uid}，field=房间ID，value=S(单聊)/G(群聊)，
+ *   关系变化时增量HSET/HDEL；哈希不存在（或缺少完整标记）时从MongoDB单表查询重建。
+ *   重建通过Lua脚本原子替换整个哈希；写入后立即复核一次，补上查询与写入之间落空的增量更新
+ */
+@Service
+@Slf4j
+public class RoomMembershipServiceImpl implements RoomMembershipService {
+
+    private static final String PREFIX_MEMBERSHIP = "chat:membership:";
+    // 完整标记：只有由重建写入的哈希才带此字段，增量更新不会凭空创建不完整的索引；
+    // 值为版本号，重建写入REBUILT_VERSION，每次增量更新加一
+    private static final String FIELD_COMPLETE = "_";
+    private static final String REBUILT_VERSION = "1";
+    private static final String TYPE_SINGLE = "S";
+    private static final String TYPE_GROUP = "G";
+    // 集群事件类型：成员索引本地缓存失效（target=uid）
+    private static final String CLUSTER_TYPE_INVALIDATE = "MEMBERSHIP_INVALIDATE";
+    // 集群事件类型：群成员列表本地缓存失效（target=groupId）
+    private static final String CLUSTER_TYPE_GROUP_INVALIDATE = "GROUP_MEMBERS_INVALIDATE";
+
+    private static final DefaultRedisScript<Long> REPLACE_SCRIPT = loadScript("lua/hash_replace.lua");
+    private static final DefaultRedisScript<Long> UPDATE_SCRIPT = loadScript("lua/membership_update.lua");
+
+    @Resource
+    private MongoTemplate mongoTemplate;
+
+    @Resource(name = "customStringRedisTemplate")
+    private RedisTemplate<String, String> stringRedisTemplate;
+
+    @Resource
+    private ClusterBroadcaster clusterBroadcaster;
+
+    @Resource
+    private FriendGraph friendGraph;
+
+    // 本地缓存过期时间（秒）
+    @Value("${chat.membership.cache-ttl-seconds:600}")
+    private long cacheTtlSeconds;
+
+    // 本地缓存最大条目数
+    @Value("${chat.membership.cache-size:100000}")
+    private long cacheSize;
+
+    // Redis索引过期时间（小时），过期后下次访问重建
+    @Value("${chat.membership.redis-ttl-hours:72}")
+    private long redisTtlHours;
+
+    private LoadingCache<String, RoomMembershipVo> membershipCache;
+    private LoadingCache<String, List<String>> groupMemberCache;
+
+    private static DefaultRedisScript<Long> loadScript(String path) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource(path)));
+        script.setResultType(Long.class);
+        return script;
+    }
+
+    @PostConstruct
+    public void init() {
+        membershipCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtlSeconds, TimeUnit.SECONDS)
+                .build(new CacheLoader<String, RoomMembershipVo>() {
+                    @Override
+                    public RoomMembershipVo load(String uid) {
+                        return loadMembership(uid);
+                    }
+                });
+        groupMemberCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtlSeconds, TimeUnit.SECONDS)
+                .build(new CacheLoader<String, List<String>>() {
+                    @Override
+                    public List<String> load(String groupId) {
+                        return loadGroupMemberIds(groupId);
+                    }
+                });
+        clusterBroadcaster.registerHandler(CLUSTER_TYPE_INVALIDATE,
+                event -> membershipCache.invalidate(event.getTarget()));
+        clusterBroadcaster.registerHandler(CLUSTER_TYPE_GROUP_INVALIDATE,
+                event -> groupMemberCache.invalidate(event.getTarget()));
+    }
+
+    @Override
+    public RoomMembershipVo getMembership(String uid) {
+        if (!ValidationUtil.isValidObjectId(uid)) {
+            return new RoomMembershipVo(Collections.emptyList(), Collections.emptyList());
+        }
+        return membershipCache.getUnchecked(uid);
+    }
+
+    @Override
+    public List<String> getGroupMemberIds(String groupId) {
+        if (!ValidationUtil.isValidObjectId(groupId)) {
+            return Collections.emptyList();
+        }
+        return groupMemberCache.getUnchecked(groupId);
+    }
+
+    @Override
+    public void addFriendship(String uidA, String uidB) {
+        if (!ValidationUtil.isValidObjectId(uidA) || !ValidationUtil.isValidObjectId(uidB)) {
+            return;
+        }
+        String roomId = singleRoomId(uidA, uidB);
+        putEntry(uidA, roomId, TYPE_SINGLE);
+        putEntry(uidB, roomId, TYPE_SINGLE);
+    }
+
+    @Override
+    public void removeFriendship(String uidA, String uidB) {
+        if (!ValidationUtil.isValidObjectId(uidA) || !ValidationUtil.isValidObjectId(uidB)) {
+            return;
+        }
+        String roomId = singleRoomId(uidA, uidB);
+        removeEntry(uidA, roomId);
+        removeEntry(uidB, roomId);
+    }
+
+    @Override
+    public void addGroupMember(String groupId, String uid) {
+        if (groupId != null && ValidationUtil.isValidObjectId(uid)) {
+            putEntry(uid, groupId, TYPE_GROUP);
+            invalidateGroupMembers(groupId);
+        }
+    }
+
+    @Override
+    public void removeGroupMember(String groupId, String uid) {
+        if (groupId != null && ValidationUtil.isValidObjectId(uid)) {
+            removeEntry(uid, groupId);
+            invalidateGroupMembers(groupId);
+        }
+    }
+
+    /**
+     * 增量写入：Redis索引不存在时跳过（下次访问时整体重建）
+     */
+    private void putEntry(String uid, String roomId, String type) {
+        stringRedisTemplate.execute(UPDATE_SCRIPT, Collections.singletonList(PREFIX_MEMBERSHIP + uid),
+                FIELD_COMPLETE, roomId, type);
+        invalidateLocal(uid);
+    }
+
+    private void removeEntry(String uid, String roomId) {
+        stringRedisTemplate.execute(UPDATE_SCRIPT, Collections.singletonList(PREFIX_MEMBERSHIP + uid),
+                FIELD_COMPLETE, roomId, "");
+        invalidateLocal(uid);
+    }
+
+    private void invalidateLocal(String uid) {
+        membershipCache.invalidate(uid);
+        clusterBroadcaster.publish(CLUSTER_TYPE_INVALIDATE, uid, uid);
+    }
+
+    private void invalidateGroupMembers(String groupId) {
+        groupMemberCache.invalidate(groupId);
+        clusterBroadcaster.publish(CLUSTER_TYPE_GROUP_INVALIDATE, groupId, groupId);
+    }
+
+    private List<String> loadGroupMemberIds(String groupId) {
+        Query query = Query.query(Criteria.where("groupId").is(new ObjectId(groupId)));
+        query.fields().include("userId");
+        List<String> memberIds = new ArrayList<>();
+        for (GroupUser groupUser : mongoTemplate.find(query, GroupUser.class)) {
+            if (groupUser.getUserId() != null) {
+                memberIds.add(groupUser.getUserId().toString());
+            }
+        }
+        return Collections.unmodifiableList(memberIds);
+    }
+
+    /**
+     * 从Redis读取索引，缺失或不完整时从MongoDB重建并回写
+     * 查询与写入之间发生的关系变化，其增量更新会因标记不存在而落空；写入后重新查询一次，
+     * 结果不同且期间没有新的增量更新时再次替换，否则删除索引交给下次访问重建
+     */
+    private RoomMembershipVo loadMembership(String uid) {
+        String key = PREFIX_MEMBERSHIP + uid;
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+        if (entries.containsKey(FIELD_COMPLETE)) {
+            return toMembership(entries);
+        }
+        Map<String, String> rebuilt = rebuildFromMongo(uid);
+        replace(key, rebuilt, "");
+        Map<String, String> recounted = rebuildFromMongo(uid);
+        if (!recounted.equals(rebuilt)) {
+            if (!replace(key, recounted, REBUILT_VERSION)) {
+                stringRedisTemplate.delete(key);
+            }
+            rebuilt = recounted;
+        }
+        log.debug("重建用户{}的会话成员索引，共{}项", uid, rebuilt.size() - 1);
+        return toMembership(new HashMap<>(rebuilt));
+    }
+
+    /**
+     * 原子替换索引哈希
+     * @param expectedVersion 期望的标记值（为空时无条件替换）
+     * @return 是否已替换
+     */
+    private boolean replace(String key, Map<String, String> entries, String expectedVersion) {
+        Object[] args = new Object[3 + entries.size() * 2];
+        args[0] = String.valueOf(TimeUnit.HOURS.toSeconds(redisTtlHours));
+        args[1] = FIELD_COMPLETE;
+        args[2] = expectedVersion;
+        int i = 3;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            args[i++] = entry.getKey();
+            args[i++] = entry.getValue();
+        }
+        Long replaced = stringRedisTemplate.execute(REPLACE_SCRIPT, Collections.singletonList(key), args);
+        return replaced != null && replaced == 1L;
+    }
+
+    private Map<String, String> rebuildFromMongo(String uid) {
+        ObjectId userId = new ObjectId(uid);
+        Map<String, String> entries = new HashMap<>();
+        entries.put(FIELD_COMPLETE, REBUILT_VERSION);
+
+        // 单聊房间：好友关系图已加载时直接读取，否则查库（好友关系可能为单向或双向存储，两个方向都查）
+        if (friendGraph.isReady()) {
+            for (String friendId : friendGraph.getFriendIds(uid)) {
+                entries.put(singleRoomId(uid, friendId), TYPE_SINGLE);
+            }
+        } else {
+            addFriendRoomsFromMongo(uid, userId, entries);
+        }
+
+        // 群聊
+        Query groupQuery = Query.query(Criteria.where("userId").is(userId));
+        groupQuery.fields().include("groupId");
+        for (GroupUser groupUser : mongoTemplate.find(groupQuery, GroupUser.class)) {
+            if (groupUser.getGroupId() != null) {
+                entries.put(groupUser.getGroupId().toString(), TYPE_GROUP);
+            }
+        }
+        return entries;
+    }
+
+    private void addFriendRoomsFromMongo(String uid, ObjectId userId, Map<String, String> entries) {
+        Query friendQuery = Query.query(new Criteria().orOperator(
+                Criteria.where("userM").is(userId), Criteria.where("userY").is(userId)));
+        friendQuery.fields().include("userM").include("userY");
+        for (GoodFriend friend : mongoTemplate.find(friendQuery, GoodFriend.class)) {
+            ObjectId other = userId.equals(friend.getUserM()) ? friend.getUserY() : friend.getUserM();
+            if (other != null) {
+                entries.put(singleRoomId(uid, other.toString()), TYPE_SINGLE);
+            }
+        }
+    }
+
+    private RoomMembershipVo toMembership(Map<Object, Object> entries) {
+        List<String> singleRoomIds = new ArrayList<>();
+        List<String> groupIds = new ArrayList<>();
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            if (TYPE_SINGLE.equals(entry.getValue())) {
+                singleRoomIds.add(entry.getKey().toString());
+            } else if (TYPE_GROUP.equals(entry.getValue())) {
+                groupIds.add(entry.getKey().toString());
+            }
+        }
+        return new RoomMembershipVo(Collections.unmodifiableList(singleRoomIds), Collections.unmodifiableList(groupIds));
+    }
+
+    /**
+     * 单聊房间ID（按字典序拼接两个uid）
+     */
+    private static String singleRoomId(String uidA, String uidB) {
+        return uidA.compareTo(uidB) < 0 ? uidA + "-" + uidB : uidB + "-" + uidA;
+    }
+}
@@ -3,9 +3,13 @@ package com.zzw.chatserver.service.impl;
 import com.zzw.chatserver.pojo.SingleMessage;
 import com.zzw.chatserver.pojo.vo.HistoryMsgRequestVo;
 import com.zzw.chatserver.pojo.vo.IsReadMessageRequestVo;
+import com.zzw.chatserver.pojo.vo.ReadWatermarkVo;
 import com.zzw.chatserver.pojo.vo.SingleHistoryResultVo;
 import com.zzw.chatserver.pojo.vo.SingleMessageResultVo;
+import com.zzw.chatserver.service.ReadStateService;
+import com.zzw.chatserver.service.RoomMembershipService;
 import com.zzw.chatserver.service.SingleMessageService;
+import com.zzw.chatserver.service.UnreadCounterService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Sort;
 import org.bson.types.ObjectId;
@@ -24,9 +28,12 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Service
@@ -36,9 +43,18 @@ public class SingleMessageServiceImpl implements SingleMessageService {
     @Resource
     private MongoTemplate mongoTemplate;
 
+    @Resource
+    private ReadStateService readStateService;
+
+    @Resource
+    private RoomMembershipService roomMembershipService;
+
+    @Resource
+    private UnreadCounterService unreadCounterService;
+
     /**
      * 按消息ID列表标记单聊消息为已读
-     * 逻辑：筛选指定ID的消息 + 接收者匹配当前用户，将用户ID加入isReadUser列表
+     * 逻辑：筛选指定ID且接收者为当前用户的消息，按房间取最大消息ID推进已读水位
      */
     @Override
     public void markMessagesAsRead(String userId, List<String> messageIds) {
@@ -56,22 +72,19 @@ public class SingleMessageServiceImpl implements SingleMessageService {
             return;
         }
 
-        // 构建查询条件：消息ID在列表中 + 接收者是当前用户（避免标记其他用户的消息）
-        Criteria criteria = Criteria.where("_id").in(objectIds)
-                .and("receiverId").is(userId)
-                .and("isReadUser").nin(userId); // 只更新未读的消息
-
-        // 构建更新操作：将当前用户ID加入isReadUser列表
-        Update update = new Update();
-        update.addToSet("isReadUser", userId);
-
-        // 批量更新消息状态
-        mongoTemplate.updateMulti(
-                Query.query(criteria),
-                update,
-                SingleMessage.class,
-                "singlemessages"
-        );
+        // 只认接收者是当前用户的消息（避免标记其他用户的消息）
+        Query query = Query.query(Criteria.where("_id").in(objectIds).and("receiverId").is(userId));
+        query.fields().include("roomId").include("seq");
+        // 每个房间取(seq, _id)最大的消息作为水位
+        Map<String, ReadWatermarkVo> latestByRoom = new HashMap<>();
+        for (SingleMessage message : mongoTemplate.find(query, SingleMessage.class, "singlemessages")) {
+            latestByRoom.merge(message.getRoomId(), new ReadWatermarkVo(message.getId(), message.getSeq()),
+                    ReadWatermarkVo::later);
+        }
+        for (Map.Entry<String, ReadWatermarkVo> entry : latestByRoom.entrySet()) {
+            readStateService.markRead(userId, entry.getKey(), entry.getValue());
+            unreadCounterService.refresh(userId, entry.getKey());
+        }
     }
 
     @Override
@@ -79,12 +92,15 @@ public class SingleMessageServiceImpl implements SingleMessageService {
         if (uid == null) {
             return new ArrayList<>(); // 避免返回null，返回空列表
         }
-        // 条件：接收者为当前用户，且未读（isReadUser不包含当前用户UID）
-        Criteria criteria = Criteria.where("receiverId").is(uid)
-                .and("isReadUser").nin(uid);
+        // 条件：用户参与的单聊房间中，发给当前用户且位于已读水位之后的消息
+        Criteria criteria = readStateService.buildUnreadCriteria(uid,
+                roomMembershipService.getMembership(uid).getSingleRoomIds());
+        if (criteria == null) {
+            return new ArrayList<>();
+        }
 
         Query query = Query.query(criteria)
-                .with(Sort.by(Sort.Direction.ASC, "time"));
+                .with(Sort.by(Sort.Direction.ASC, "_id"));
 
         return mongoTemplate.find(query, SingleMessageResultVo.class, "singlemessages");
     }
@@ -103,7 +119,7 @@ public class SingleMessageServiceImpl implements SingleMessageService {
             return new SingleMessageResultVo(); // 返回空VO
         }
         Query query = Query.query(Criteria.where("roomId").is(roomId))
-                .with(Sort.by(Sort.Direction.DESC, "_id"))
+                .with(Sort.by(Sort.Direction.DESC, "seq", "_id"))
                 .limit(1);
 
         SingleMessage message = mongoTemplate.findOne(query, SingleMessage.class, "singlemessages");
@@ -118,9 +134,9 @@ public class SingleMessageServiceImpl implements SingleMessageService {
             return Collections.emptyList(); // 返回空列表而非new ArrayList()，更高效
         }
 
-        // 构建查询条件：按房间ID匹配，按消息发送时间倒序（最新消息优先）
+        // 构建查询条件：按房间ID匹配，按房间序号倒序（最新消息优先，无序号的历史消息按_id排在其后）
         Query query = Query.query(Criteria.where("roomId").is(roomId.trim())) // trim()处理避免空格问题
-                .with(Sort.by(Sort.Direction.DESC, "time")) // 核心修改：按time字段倒序
+                .with(Sort.by(Sort.Direction.DESC, "seq", "_id"))
                 .skip((long) (pageIndex - 1) * pageSize) // 修正分页：pageIndex从1开始时，跳过前(pageIndex-1)*pageSize条
                 .limit(pageSize);
 
@@ -133,6 +149,31 @@ public class SingleMessageServiceImpl implements SingleMessageService {
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public List<SingleMessageResultVo> getMessagesBySeq(String roomId, Long afterSeq, Long beforeSeq, int limit) {
+        if (StringUtils.isEmpty(roomId) || limit <= 0) {
+            return Collections.emptyList();
+        }
+        Criteria criteria = Criteria.where("roomId").is(roomId);
+        Sort.Direction direction = Sort.Direction.DESC;
+        if (afterSeq != null) {
+            criteria.and("seq").gt(afterSeq);
+            direction = Sort.Direction.ASC;
+        } else if (beforeSeq != null) {
+            criteria.and("seq").lt(beforeSeq);
+        } else {
+            criteria.and("seq").ne(null);
+        }
+        Query query = Query.query(criteria).with(Sort.by(direction, "seq")).limit(limit);
+        List<SingleMessageResultVo> result = mongoTemplate.find(query, SingleMessage.class, "singlemessages").stream()
+                .map(this::convertToVo)
+                .collect(Collectors.toList());
+        if (direction == Sort.Direction.DESC) {
+            Collections.reverse(result);
+        }
+        return result;
+    }
+
 
     @Override
     public SingleHistoryResultVo getSingleHistoryMsg(HistoryMsgRequestVo requestVo) {
@@ -165,19 +206,13 @@ public class SingleMessageServiceImpl implements SingleMessageService {
         if (requestVo == null || StringUtils.isEmpty(requestVo.getUserId()) || StringUtils.isEmpty(requestVo.getRoomId())) {
             return; // 参数不全则不执行更新
         }
-        Criteria criteria = Criteria.where("roomId").is(requestVo.getRoomId())
-                .and("receiverId").is(requestVo.getUserId())
-                .and("isReadUser").nin(requestVo.getUserId());
-
-        Update update = new Update();
-        update.addToSet("isReadUser", requestVo.getUserId());
-
-        mongoTemplate.updateMulti(
-                Query.query(criteria),
-                update,
-                SingleMessage.class,
-                "singlemessages"
-        );
+        // 只允许标记自己参与的单聊房间
+        if (!Arrays.asList(requestVo.getRoomId().split("-")).contains(requestVo.getUserId())) {
+            log.warn("标记已读失败：用户{}不属于房间{}", requestVo.getUserId(), requestVo.getRoomId());
+            return;
+        }
+        readStateService.markRoomRead(requestVo.getUserId(), requestVo.getRoomId());
+        unreadCounterService.reset(requestVo.getUserId(), requestVo.getRoomId());
     }
 
     private SingleMessageResultVo convertToVo(SingleMessage message) {
@@ -187,6 +222,7 @@ public class SingleMessageServiceImpl implements SingleMessageService {
         SingleMessageResultVo vo = new SingleMessageResultVo();
         vo.setId(message.getId().toString());
         vo.setRoomId(message.getRoomId());
+        vo.setSeq(message.getSeq());
         vo.setSenderId(message.getSenderId().toString());
         vo.setReceiverId(message.getReceiverId());
         vo.setSenderName(message.getSenderName());
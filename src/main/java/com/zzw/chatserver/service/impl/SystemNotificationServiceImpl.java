@@ -1,10 +1,10 @@
 package com.zzw.chatserver.service.impl;
 
+import com.zzw.chatserver.handler.ClusterBroadcaster;
 import com.zzw.chatserver.pojo.SystemNotification;
 import com.zzw.chatserver.pojo.vo.SimpleUser;
 import com.zzw.chatserver.service.OnlineUserService;
 import com.zzw.chatserver.service.SystemNotificationService;
-import com.corundumstudio.socketio.SocketIOServer;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
@@ -22,7 +22,7 @@ public class SystemNotificationServiceImpl implements SystemNotificationService
     private MongoTemplate mongoTemplate;
 
     @Resource
-    private SocketIOServer socketIOServer;
+    private ClusterBroadcaster clusterBroadcaster;
 
     @Resource
     private OnlineUserService onlineUserService;
@@ -38,9 +38,9 @@ public class SystemNotificationServiceImpl implements SystemNotificationService
 
         // 检查接收用户是否在线
         if (onlineUserService.checkCurUserIsOnline(notification.getReceiverUid())) {
-            // 在线用户：通过SocketIO实时推送
-            socketIOServer.getBroadcastOperations()
-                    .sendEvent("systemNotification", notification.getReceiverUid(), notification);
+            // 在线用户：推送给接收者所在节点的客户端
+            clusterBroadcaster.sendToUser(notification.getReceiverUid(),
+                    "systemNotification", notification.getReceiverUid(), notification);
         }
     }
 
@@ -0,0 +1,231 @@
+package com.zzw.chatserver.service.impl;
+
+import com.zzw.chatserver.pojo.vo.RoomMembershipVo;
+import com.zzw.chatserver.service.ReadStateService;
+import com.zzw.chatserver.service.RoomMembershipService;
+import com.zzw.chatserver.service.UnreadCounterService;
+import com.zzw.chatserver.utils.ValidationUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 未读计数服务实现类
+ * Redis哈希 chat:unread:{uid}，field=房间ID，value=未读数（为0时删除字段）；
+ * 完整标记字段只由重建写入，增量自增/覆盖写入都要求标记存在，
+ * 因此计数丢失或过期后不会出现"只有部分房间"的计数，下次读取时按已读水位整体重建。
+ * 重建通过Lua脚本原子替换整个哈希；聚合到写入之间的自增会因标记不存在而落空，
+ * 且WAL模式下消息入库晚于自增，因此重建后延迟复核一次，按重新统计的结果补齐漏记
+ */
+@Service
+@Slf4j
+public class UnreadCounterServiceImpl implements UnreadCounterService {
+
+    private static final String PREFIX_UNREAD = "chat:unread:";
+    private static final String FIELD_COMPLETE = "_";
+
+    private static final DefaultRedisScript<Long> INCR_SCRIPT = loadScript("lua/unread_incr.lua");
+    private static final DefaultRedisScript<Long> SET_SCRIPT = loadScript("lua/unread_set.lua");
+    private static final DefaultRedisScript<Long> SET_BATCH_SCRIPT = loadScript("lua/unread_set_batch.lua");
+    private static final DefaultRedisScript<Long> REBUILD_SCRIPT = loadScript("lua/hash_replace.lua");
+    private static final DefaultRedisScript<Long> MERGE_SCRIPT = loadScript("lua/unread_merge.lua");
+
+    // 待复核的用户 -> 复核时间
+    private final ConcurrentMap<String, Long> pendingRecounts = new ConcurrentHashMap<>();
+
+    @Resource
+    private MongoTemplate mongoTemplate;
+
+    @Resource(name = "customStringRedisTemplate")
+    private RedisTemplate<String, String> stringRedisTemplate;
+
+    @Resource
+    private ReadStateService readStateService;
+
+    @Resource
+    private RoomMembershipService roomMembershipService;
+
+    // Redis计数过期时间（小时），过期后下次读取时重建
+    @Value("${chat.unread.redis-ttl-hours:72}")
+    private long redisTtlHours;
+
+    // 重建后延迟复核的时间（毫秒），应大于WAL落库延迟，使重建时仍在队列中的消息被统计到
+    @Value("${chat.unread.recount-delay-ms:2000}")
+    private long recountDelayMs;
+
+    private static DefaultRedisScript<Long> loadScript(String path) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource(path)));
+        script.setResultType(Long.class);
+        return script;
+    }
+
+    @Override
+    public void incrementSingle(String receiverId, String roomId) {
+        if (!ValidationUtil.isValidObjectId(receiverId) || roomId == null) {
+            return;
+        }
+        stringRedisTemplate.execute(INCR_SCRIPT, Collections.singletonList(PREFIX_UNREAD + receiverId),
+                roomId, FIELD_COMPLETE);
+    }
+
+    @Override
+    public void incrementGroup(String groupId, String senderId) {
+        if (!ValidationUtil.isValidObjectId(groupId)) {
+            return;
+        }
+        List<String> keys = new ArrayList<>();
+        for (String memberId : roomMembershipService.getGroupMemberIds(groupId)) {
+            if (!memberId.equals(senderId)) {
+                keys.add(PREFIX_UNREAD + memberId);
+            }
+        }
+        if (!keys.isEmpty()) {
+            stringRedisTemplate.execute(INCR_SCRIPT, keys, groupId, FIELD_COMPLETE);
+        }
+    }
+
+    @Override
+    public void refresh(String uid, String roomId) {
+        if (!ValidationUtil.isValidObjectId(uid) || roomId == null) {
+            return;
+        }
+        long unread = readStateService.countUnread(uid, roomId);
+        stringRedisTemplate.execute(SET_SCRIPT, Collections.singletonList(PREFIX_UNREAD + uid),
+                roomId, String.valueOf(unread), FIELD_COMPLETE);
+    }
+
+    @Override
+    public void refreshBatch(Map<String, Set<String>> roomsByUser) {
+        if (roomsByUser == null || roomsByUser.isEmpty()) {
+            return;
+        }
+        Map<String, Map<String, Long>> counts = readStateService.countUnreadBatch(roomsByUser);
+        List<String> keys = new ArrayList<>();
+        List<Object> args = new ArrayList<>();
+        args.add(FIELD_COMPLETE);
+        for (Map.Entry<String, Map<String, Long>> userEntry : counts.entrySet()) {
+            for (Map.Entry<String, Long> roomEntry : userEntry.getValue().entrySet()) {
+                keys.add(PREFIX_UNREAD + userEntry.getKey());
+                args.add(roomEntry.getKey());
+                args.add(String.valueOf(roomEntry.getValue()));
+            }
+        }
+        if (!keys.isEmpty()) {
+            stringRedisTemplate.execute(SET_BATCH_SCRIPT, keys, args.toArray());
+        }
+    }
+
+    @Override
+    public void reset(String uid, String roomId) {
+        if (!ValidationUtil.isValidObjectId(uid) || roomId == null) {
+            return;
+        }
+        stringRedisTemplate.opsForHash().delete(PREFIX_UNREAD + uid, roomId);
+    }
+
+    @Override
+    public Map<String, Long> getUnreadCounts(String uid) {
+        if (!ValidationUtil.isValidObjectId(uid)) {
+            return Collections.emptyMap();
+        }
+        String key = PREFIX_UNREAD + uid;
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+        if (!entries.containsKey(FIELD_COMPLETE)) {
+            Map<String, String> rebuilt = rebuild(uid);
+            stringRedisTemplate.execute(REBUILD_SCRIPT, Collections.singletonList(key),
+                    toArgs(rebuilt, String.valueOf(TimeUnit.HOURS.toSeconds(redisTtlHours)), FIELD_COMPLETE, ""));
+            pendingRecounts.putIfAbsent(uid, System.currentTimeMillis() + recountDelayMs);
+            log.debug("重建用户{}的未读计数，共{}个房间有未读", uid, rebuilt.size() - 1);
+            entries = new HashMap<>(rebuilt);
+        }
+        Map<String, Long> counts = new HashMap<>();
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            if (FIELD_COMPLETE.equals(entry.getKey())) {
+                continue;
+            }
+            long count = Long.parseLong(entry.getValue().toString());
+            if (count > 0) {
+                counts.put(entry.getKey().toString(), count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 复核到期的重建结果：重新统计并按较大值合并，补齐重建期间漏记的自增
+     */
+    @Scheduled(fixedDelayString = "${chat.unread.recount-interval-ms:1000}")
+    public void recountRebuilt() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> entry : pendingRecounts.entrySet()) {
+            if (entry.getValue() > now || !pendingRecounts.remove(entry.getKey(), entry.getValue())) {
+                continue;
+            }
+            String uid = entry.getKey();
+            try {
+                Map<String, String> recounted = rebuild(uid);
+                recounted.remove(FIELD_COMPLETE);
+                if (!recounted.isEmpty()) {
+                    stringRedisTemplate.execute(MERGE_SCRIPT, Collections.singletonList(PREFIX_UNREAD + uid),
+                            toArgs(recounted, FIELD_COMPLETE));
+                }
+            } catch (Exception e) {
+                log.warn("复核用户{}的未读计数失败: {}", uid, e.getMessage());
+            }
+        }
+    }
+
+    private static Object[] toArgs(Map<String, String> entries, String... leading) {
+        Object[] args = new Object[leading.length + entries.size() * 2];
+        System.arraycopy(leading, 0, args, 0, leading.length);
+        int i = leading.length;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            args[i++] = entry.getKey();
+            args[i++] = entry.getValue();
+        }
+        return args;
+    }
+
+    /**
+     * 按已读水位统计各房间未读数（单聊、群聊各一次聚合）
+     */
+    private Map<String, String> rebuild(String uid) {
+        Map<String, String> entries = new HashMap<>();
+        entries.put(FIELD_COMPLETE, "1");
+        RoomMembershipVo membership = roomMembershipService.getMembership(uid);
+        countByRoom(readStateService.buildUnreadCriteria(uid, membership.getSingleRoomIds()), "singlemessages", entries);
+        countByRoom(readStateService.buildUnreadCriteria(uid, membership.getGroupIds()), "groupmessages", entries);
+        return entries;
+    }
+
+    private void countByRoom(Criteria criteria, String collection, Map<String, String> entries) {
+        if (criteria == null) {
+            return;
+        }
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.group("roomId").count().as("count"));
+        for (Document result : mongoTemplate.aggregate(aggregation, collection, Document.class).getMappedResults()) {
+            Number count = (Number) result.get("count");
+            if (result.getString("_id") != null && count != null && count.longValue() > 0) {
+                entries.put(result.getString("_id"), String.valueOf(count.longValue()));
+            }
+        }
+    }
+}
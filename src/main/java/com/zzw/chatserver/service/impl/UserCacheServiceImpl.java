@@ -0,0 +1,125 @@
+package com.zzw.chatserver.service.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.zzw.chatserver.handler.ClusterBroadcaster;
+import com.zzw.chatserver.pojo.User;
+import com.zzw.chatserver.service.UserCacheService;
+import com.zzw.chatserver.utils.ValidationUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用户资料缓存服务实现类
+ * 两级缓存：
+ * - 本地：Guava缓存（容量上限 + 写入后过期），存放BSON文档
+ * - Redis：chat:user:v2:{uid}，值为扩展JSON（保留ObjectId、日期等类型）
+ * 读取时由MongoDB转换器把文档转换为新的User对象；资料变更时删除两级缓存并经集群总线通知其他节点。
+ * 缓存文档不含密码字段（password始终为null），需要校验密码的场景直接查询MongoDB
+ */
+@Service
+@Slf4j
+public class UserCacheServiceImpl implements UserCacheService {
+
+    // 带版本号：旧版本缓存含密码字段，换前缀后不再读取，由过期时间自然清理
+    private static final String PREFIX_USER = "chat:user:v2:";
+    private static final String COLLECTION_USERS = "users";
+    // 集群事件类型：用户资料本地缓存失效（target=uid）
+    private static final String CLUSTER_TYPE_INVALIDATE = "USER_INVALIDATE";
+    private static final JsonWriterSettings JSON_SETTINGS =
+            JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build();
+
+    @Resource
+    private MongoTemplate mongoTemplate;
+
+    @Resource(name = "customStringRedisTemplate")
+    private RedisTemplate<String, String> stringRedisTemplate;
+
+    @Resource
+    private ClusterBroadcaster clusterBroadcaster;
+
+    // 本地缓存最大条目数
+    @Value("${chat.user-cache.local-size:50000}")
+    private long localSize;
+
+    // 本地缓存过期时间（秒），兜底集群失效通知丢失的情况
+    @Value("${chat.user-cache.local-ttl-seconds:60}")
+    private long localTtlSeconds;
+
+    // Redis缓存过期时间（分钟）
+    @Value("${chat.user-cache.redis-ttl-minutes:30}")
+    private long redisTtlMinutes;
+
+    private Cache<String, Document> localCache;
+
+    @PostConstruct
+    public void init() {
+        localCache = CacheBuilder.newBuilder()
+                .maximumSize(localSize)
+                .expireAfterWrite(localTtlSeconds, TimeUnit.SECONDS)
+                .build();
+        clusterBroadcaster.registerHandler(CLUSTER_TYPE_INVALIDATE,
+                event -> localCache.invalidate(event.getTarget()));
+    }
+
+    @Override
+    public User getUser(String uid) {
+        if (!ValidationUtil.isValidObjectId(uid)) {
+            return null;
+        }
+        Document document = localCache.getIfPresent(uid);
+        if (document == null) {
+            document = loadDocument(uid);
+            if (document == null) {
+                return null;
+            }
+            localCache.put(uid, document);
+        }
+        return mongoTemplate.getConverter().read(User.class, document);
+    }
+
+    @Override
+    public void invalidate(String uid) {
+        if (!ValidationUtil.isValidObjectId(uid)) {
+            return;
+        }
+        localCache.invalidate(uid);
+        stringRedisTemplate.delete(PREFIX_USER + uid);
+        clusterBroadcaster.publish(CLUSTER_TYPE_INVALIDATE, uid, uid);
+    }
+
+    /**
+     * 先读Redis，未命中再查MongoDB并回填Redis（不存在的用户不缓存）
+     */
+    private Document loadDocument(String uid) {
+        String key = PREFIX_USER + uid;
+        String json = stringRedisTemplate.opsForValue().get(key);
+        if (json != null) {
+            try {
+                return Document.parse(json);
+            } catch (Exception e) {
+                log.warn("用户{}的Redis缓存内容无法解析，重新加载", uid, e);
+            }
+        }
+        Query query = Query.query(Criteria.where("_id").is(new ObjectId(uid)));
+        query.fields().exclude("password");
+        Document document = mongoTemplate.findOne(query, Document.class, COLLECTION_USERS);
+        if (document != null) {
+            stringRedisTemplate.opsForValue().set(key, document.toJson(JSON_SETTINGS), redisTtlMinutes, TimeUnit.MINUTES);
+        }
+        return document;
+    }
+}
@@ -88,6 +88,8 @@ public class UserDetailsServiceImpl implements UserDetailsService {
             // 示例：超级用户无 userId，可将 sid 转为 ObjectId 作为 userId
             jwtAuthUser.setUserId(new ObjectId(superUser.getSid().toString()));
             jwtAuthUser.setStatus(0); // 超级用户默认正常状态
+            jwtAuthUser.setRole(roleCode);
+            jwtAuthUser.setSuperUserRole(superUser.getRole());
         }
 
         // 校验密码
@@ -1,5 +1,7 @@
 package com.zzw.chatserver.service.impl;
 
+import com.zzw.chatserver.auth.AuthContextHolder;
+import com.zzw.chatserver.auth.entity.AuthPrincipal;
 import com.zzw.chatserver.common.ConstValueEnum;
 import com.zzw.chatserver.common.ResultEnum;
 import com.zzw.chatserver.common.UserRoleEnum;
@@ -7,6 +9,7 @@ import com.zzw.chatserver.common.UserStatusEnum;
 import com.zzw.chatserver.common.exception.BusinessException;
 import com.zzw.chatserver.dao.AccountPoolDao;
 import com.zzw.chatserver.dao.UserDao;
+import com.zzw.chatserver.handler.JwtAuthCache;
 import com.zzw.chatserver.pojo.AccountPool;
 import com.zzw.chatserver.pojo.GoodFriend;
 import com.zzw.chatserver.pojo.SuperUser;
@@ -14,6 +17,7 @@ import com.zzw.chatserver.pojo.User;
 import com.zzw.chatserver.pojo.vo.*;
 import com.zzw.chatserver.service.GoodFriendService;
 import com.zzw.chatserver.service.SuperUserService;
+import com.zzw.chatserver.service.UserCacheService;
 import com.zzw.chatserver.service.UserService;
 import com.zzw.chatserver.utils.ChatServerUtil;
 import com.zzw.chatserver.utils.DateUtil;
@@ -62,12 +66,24 @@ public class UserServiceImpl implements UserService {
     @Resource
     private SuperUserService superUserService;
 
+    @Resource
+    private UserCacheService userCacheService;
+
+    @Resource
+    private JwtAuthCache jwtAuthCache;
+
     /**
      * 获取当前登录用户的ID（uid或超级管理员sid的字符串形式）
+     * 优先读取JWT过滤器解析好的请求级认证主体，没有时（如登录流程）才按用户名查询
      * @return 当前登录用户ID，未登录或认证失败时返回null
      */
     @Override
     public String getCurrentUserId() {
+        AuthPrincipal principal = AuthContextHolder.get();
+        if (principal != null) {
+            return principal.getUid();
+        }
+
         // 1. 从Spring Security上下文获取认证信息
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
 
@@ -207,6 +223,11 @@ public class UserServiceImpl implements UserService {
 
     // 判断操作者是否为超级管理员
     public boolean isSuperAdmin(String operatorId) {
+        // 操作者就是当前请求的认证主体时，直接使用认证时解析的身份
+        AuthPrincipal principal = AuthContextHolder.get();
+        if (principal != null && principal.getUid() != null && principal.getUid().equals(operatorId)) {
+            return principal.isSuperAdmin();
+        }
         try {
             // operatorId应为uid（即ObjectId的字符串形式），转换为ObjectId查询
             ObjectId sid = new ObjectId(operatorId);
@@ -391,10 +412,12 @@ public class UserServiceImpl implements UserService {
         friendFenZuMap.computeIfAbsent("我的好友", k -> new ArrayList<>())
                 .add(friendUid);
         mongoTemplate.save(user);
+        userCacheService.invalidate(user.getUid());
     }
 
     /**
      * 根据用户ID（uid字符串）查询用户信息
+     * 资料来自两级缓存（未脱敏的副本），按当前调用者权限在读取时脱敏
      */
     @Override
     public User getUserInfo(String userId) {
@@ -402,7 +425,7 @@ public class UserServiceImpl implements UserService {
             throw new BusinessException("用户ID格式错误，需为有效的ObjectId字符串（24位十六进制）");
         }
 
-        User user = userDao.findById(new ObjectId(userId)).orElse(null);
+        User user = userCacheService.getUser(userId);
         if (user != null) {
             // 1. 获取当前登录用户ID
             String currentUserId = getCurrentUserId();
@@ -444,6 +467,7 @@ public class UserServiceImpl implements UserService {
         Update update = new Update().set("friendBeiZhu", friendBeiZhuMap);
         Query query = Query.query(Criteria.where("_id").is(new ObjectId(requestVo.getUserId())));
         mongoTemplate.findAndModify(query, update, User.class);
+        userCacheService.invalidate(requestVo.getUserId());
     }
 
 
@@ -464,6 +488,7 @@ public class UserServiceImpl implements UserService {
             Update update = new Update().set("friendFenZu", friendFenZuMap);
             Query query = Query.query(Criteria.where("_id").is(new ObjectId(requestVo.getUserId())));
             mongoTemplate.findAndModify(query, update, User.class);
+            userCacheService.invalidate(requestVo.getUserId());
         }
     }
 
@@ -504,6 +529,7 @@ public class UserServiceImpl implements UserService {
         Update update = new Update().set("friendFenZu", friendFenZuMap);
         Query query = Query.query(Criteria.where("_id").is(new ObjectId(requestVo.getUserId())));
         mongoTemplate.findAndModify(query, update, User.class);
+        userCacheService.invalidate(requestVo.getUserId());
     }
 
     /**
@@ -559,6 +585,7 @@ public class UserServiceImpl implements UserService {
         if (updatedUser == null) {
             throw new BusinessException("删除分组失败：数据库更新操作未生效");
         }
+        userCacheService.invalidate(userId);
     }
 
 
@@ -580,6 +607,7 @@ public class UserServiceImpl implements UserService {
             Update update = new Update().set("friendFenZu", friendFenZuMap);
             Query query = Query.query(Criteria.where("_id").is(new ObjectId(requestVo.getUserId())));
             mongoTemplate.findAndModify(query, update, User.class);
+            userCacheService.invalidate(requestVo.getUserId());
         }
     }
 
@@ -618,6 +646,7 @@ public class UserServiceImpl implements UserService {
         Update update = new Update().set("onlineTime", onlineTime);
         Query query = Query.query(Criteria.where("_id").is(new ObjectId(uid)));
         mongoTemplate.upsert(query, update, User.class);
+        userCacheService.invalidate(uid);
     }
 
     @Override
@@ -758,6 +787,7 @@ public class UserServiceImpl implements UserService {
             if (!hasError) {
                 Query query = Query.query(Criteria.where("_id").is(new ObjectId(requestVo.getUserId())));
                 mongoTemplate.upsert(query, update, User.class);
+                userCacheService.invalidate(requestVo.getUserId());
 
                 // 敏感字段日志脱敏记录
                 String logValue = sensitiveFields.contains(requestVo.getField())
@@ -801,8 +831,11 @@ public class UserServiceImpl implements UserService {
             return map;
         }
 
-        User userInfo = getUserInfo(requestVo.getUserId());
-        if (!bCryptPasswordEncoder.matches(requestVo.getOldPwd(), userInfo.getPassword())) {
+        // 用户资料缓存不含密码，旧密码直接从MongoDB读取校验
+        Query pwdQuery = Query.query(Criteria.where("_id").is(new ObjectId(requestVo.getUserId())));
+        pwdQuery.fields().include("password");
+        User userInfo = mongoTemplate.findOne(pwdQuery, User.class);
+        if (userInfo == null || !bCryptPasswordEncoder.matches(requestVo.getOldPwd(), userInfo.getPassword())) {
             code = ResultEnum.OLD_PASSWORD_ERROR.getCode();
             msg = ResultEnum.OLD_PASSWORD_ERROR.getMessage();
             map.put("code", code);
@@ -814,6 +847,7 @@ public class UserServiceImpl implements UserService {
         Update update = new Update().set("password", encryptedNewPwd);
         Query query = Query.query(Criteria.where("_id").is(new ObjectId(requestVo.getUserId())));
         mongoTemplate.upsert(query, update, User.class);
+        userCacheService.invalidate(requestVo.getUserId());
 
         code = ResultEnum.SUCCESS.getCode();
         msg = "更新成功，请牢记你的新密码";
@@ -834,7 +868,9 @@ public class UserServiceImpl implements UserService {
                 .set("color", requestVo.getColor())
                 .set("bgColor", requestVo.getBgColor());
 
-        return mongoTemplate.upsert(query, update, User.class).getModifiedCount() > 0;
+        boolean modified = mongoTemplate.upsert(query, update, User.class).getModifiedCount() > 0;
+        userCacheService.invalidate(uid);
+        return modified;
     }
 
     @Override
@@ -915,10 +951,17 @@ public class UserServiceImpl implements UserService {
         Update update = new Update().set("status", status);
         Query query = Query.query(Criteria.where("_id").is(new ObjectId(uid)));
         mongoTemplate.findAndModify(query, update, User.class);
+        userCacheService.invalidate(uid);
+        // 冻结、注销等状态变更立即清除该用户的Token认证缓存，下次请求按新状态重新认证
+        jwtAuthCache.evictUser(uid);
     }
 
     // 判断是否为超级管理员或普通管理员
     private boolean isSuperAdminOrAdmin(String operatorId) {
+        AuthPrincipal principal = AuthContextHolder.get();
+        if (principal != null && principal.getUid() != null && principal.getUid().equals(operatorId)) {
+            return principal.isSuperAdminOrAdmin();
+        }
         try {
             ObjectId sid = new ObjectId(operatorId);
             SuperUser superUser = superUserService.findBySid(sid);
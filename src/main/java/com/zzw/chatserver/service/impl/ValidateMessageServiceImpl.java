@@ -113,6 +113,18 @@ public class ValidateMessageServiceImpl implements ValidateMessageService {
         return validateMessageDao.findValidateMessageByRoomIdAndStatusAndValidateType(roomId, status, validateType);
     }
 
+    /**
+     * 根据消息ID查询验证消息
+     */
+    @Override
+    public ValidateMessage findValidateMessageById(String validateMessageId) {
+        if (validateMessageId == null || !ObjectId.isValid(validateMessageId)) {
+            logger.error("查询验证消息失败：消息ID格式非法，id={}", validateMessageId);
+            return null;
+        }
+        return mongoTemplate.findById(new ObjectId(validateMessageId), ValidateMessage.class);
+    }
+
     /**
      * 验证消息（避免重复申请）
      */
@@ -0,0 +1,8 @@
+-- 哈希字段的值等于期望值时删除（已被其他写入方覆盖时保留）
+-- KEYS[1] 哈希
+-- ARGV[1] 字段  ARGV[2] 期望值
+-- 返回 1=已删除，0=值不匹配或不存在
+if redis.call('HGET', KEYS[1], ARGV[1]) == ARGV[2] then
+    return redis.call('HDEL', KEYS[1], ARGV[1])
+end
+return 0
@@ -0,0 +1,14 @@
+-- 哈希整体替换（删除、写入、设置过期在一个脚本内完成，读取方不会看到半成品哈希）
+-- KEYS[1] 目标哈希
+-- ARGV[1] 过期时间（秒）  ARGV[2] 完整标记字段  ARGV[3] 期望的标记值（为空时无条件替换）
+-- ARGV[4..] 字段、值交替排列（含完整标记字段）
+-- 有期望值时只在标记仍等于期望值（期间没有增量更新）时替换，否则返回0
+if ARGV[3] ~= '' and redis.call('HGET', KEYS[1], ARGV[2]) ~= ARGV[3] then
+    return 0
+end
+redis.call('DEL', KEYS[1])
+for i = 4, #ARGV, 2 do
+    redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])
+end
+redis.call('EXPIRE', KEYS[1], ARGV[1])
+return 1
@@ -0,0 +1,18 @@
+-- 收件箱追加消息引用（一次往返覆盖所有接收者）
+-- KEYS[1..n] 接收者的收件箱Stream
+-- ARGV[1] 类型(S/G)  ARGV[2] 房间ID  ARGV[3] 消息ID  ARGV[4] 最大长度  ARGV[5] 过期时间(秒)
+-- 只追加到已初始化的收件箱；超过最大长度时删除整个收件箱（不截断），
+-- 保证收件箱要么完整、要么不存在，不存在时由离线同步回退为全量扫描
+local appended = 0
+for i = 1, #KEYS do
+    if redis.call('EXISTS', KEYS[i]) == 1 then
+        redis.call('XADD', KEYS[i], '*', 'type', ARGV[1], 'roomId', ARGV[2], 'messageId', ARGV[3])
+        if redis.call('XLEN', KEYS[i]) > tonumber(ARGV[4]) then
+            redis.call('DEL', KEYS[i])
+        else
+            redis.call('EXPIRE', KEYS[i], ARGV[5])
+            appended = appended + 1
+        end
+    end
+end
+return appended
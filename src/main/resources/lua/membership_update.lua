@@ -0,0 +1,15 @@
+-- 会话成员索引增量更新
+-- KEYS[1] 用户的成员索引哈希
+-- ARGV[1] 完整标记字段  ARGV[2] 房间ID  ARGV[3] 房间类型（为空时删除）
+-- 只更新已由重建初始化过的哈希，并递增标记值，供重建复核判断期间是否有增量更新
+if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then
+    redis.call('HDEL', KEYS[1], ARGV[2])
+    return 0
+end
+if ARGV[3] == '' then
+    redis.call('HDEL', KEYS[1], ARGV[2])
+else
+    redis.call('HSET', KEYS[1], ARGV[2], ARGV[3])
+end
+redis.call('HINCRBY', KEYS[1], ARGV[1], 1)
+return 1
@@ -0,0 +1,34 @@
+-- 绑定客户端与用户（一次往返完成双向映射、活动时间、在线位图与集合维护）
+-- KEYS[1] clientId -> SimpleUser
+-- KEYS[2] uid -> clientId
+-- KEYS[3] clientId -> 最后活动时间
+-- KEYS[4] 全部客户端集合
+-- KEYS[5] 在线位图（第index位=1表示在线）
+-- KEYS[6] 客户端活动时间有序集合（score=最后活动时间，供过期清理按分值范围扫描）
+-- KEYS[7] uid -> 位图下标 哈希
+-- KEYS[8] index -> uid 哈希
+-- KEYS[9] 位图下标分配序列
+-- KEYS[10] uid -> 在线状态版本号 哈希
+-- ARGV[1] SimpleUser(JSON)  ARGV[2] clientId(JSON)  ARGV[3] 当前时间(JSON)
+-- ARGV[4] 过期时间(毫秒)    ARGV[5] uid  ARGV[6] 当前时间(毫秒)
+-- 返回 用户由离线变为在线时为新的在线状态版本号（>0），否则为0
+redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[4])
+redis.call('SET', KEYS[2], ARGV[2], 'PX', ARGV[4])
+redis.call('SET', KEYS[3], ARGV[3], 'PX', ARGV[4])
+redis.call('SADD', KEYS[4], ARGV[2])
+redis.call('ZADD', KEYS[6], ARGV[6], ARGV[2])
+
+-- 首次上线的用户分配稠密下标（从0开始，之后固定不变）
+local index = redis.call('HGET', KEYS[7], ARGV[5])
+if not index then
+    index = redis.call('INCR', KEYS[9]) - 1
+    redis.call('HSET', KEYS[7], ARGV[5], index)
+    redis.call('HSET', KEYS[8], index, ARGV[5])
+end
+
+-- SETBIT返回旧值：0表示用户由离线变为在线，此时递增版本号（每次上下线翻转递增一次）
+local previous = redis.call('SETBIT', KEYS[5], index, 1)
+if previous == 0 then
+    return redis.call('HINCRBY', KEYS[10], ARGV[5], 1)
+end
+return 0
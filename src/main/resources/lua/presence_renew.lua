@@ -0,0 +1,17 @@
+-- 心跳续期（一次往返）
+-- KEYS[1] clientId -> 最后活动时间
+-- KEYS[2] clientId -> SimpleUser
+-- KEYS[3] uid -> clientId
+-- KEYS[4] 客户端活动时间有序集合
+-- ARGV[1] 当前时间(JSON)  ARGV[2] 过期时间(毫秒)  ARGV[3] clientId(JSON)  ARGV[4] 当前时间(毫秒)
+-- 客户端绑定已被清理（如已被过期清理扫描移除）时不再续期，返回0由调用方决定是否重新绑定
+if redis.call('PEXPIRE', KEYS[2], ARGV[2]) == 0 then
+    return 0
+end
+redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+redis.call('ZADD', KEYS[4], ARGV[4], ARGV[3])
+-- 用户映射已指向其他客户端时不续期，避免延长新绑定之外的旧状态
+if redis.call('GET', KEYS[3]) == ARGV[3] then
+    redis.call('PEXPIRE', KEYS[3], ARGV[2])
+end
+return 1
@@ -0,0 +1,40 @@
+-- 清理客户端绑定（一次往返，双向映射要么同时存在要么同时删除）
+-- KEYS[1] clientId -> SimpleUser
+-- KEYS[2] clientId -> 最后活动时间
+-- KEYS[3] 全部客户端集合
+-- KEYS[4] 在线位图
+-- KEYS[5] 客户端活动时间有序集合
+-- KEYS[6] uid -> 位图下标 哈希
+-- KEYS[7] uid -> 在线状态版本号 哈希
+-- ARGV[1] clientId(JSON)  ARGV[2] uid -> clientId 键前缀  ARGV[3] uid（可为空，为空时从SimpleUser中解析）
+-- 返回 {状态, uid, 版本号}：0=客户端无绑定用户，1=已清理且用户仍在线（有其他客户端），2=已清理且用户因此离线
+-- 版本号仅在状态为2时返回（离线翻转后递增的在线状态版本号）
+local uid = ARGV[3]
+local userJson = redis.call('GET', KEYS[1])
+if userJson then
+    local ok, user = pcall(cjson.decode, userJson)
+    if ok and type(user) == 'table' and type(user['uid']) == 'string' then
+        uid = user['uid']
+    end
+end
+
+redis.call('DEL', KEYS[1], KEYS[2])
+redis.call('SREM', KEYS[3], ARGV[1])
+redis.call('ZREM', KEYS[5], ARGV[1])
+if uid == nil or uid == '' then
+    return {0, ''}
+end
+
+local userKey = ARGV[2] .. uid
+-- 用户映射已被新客户端覆盖时保留
+if redis.call('GET', userKey) == ARGV[1] then
+    redis.call('DEL', userKey)
+end
+if redis.call('EXISTS', userKey) == 0 then
+    local index = redis.call('HGET', KEYS[6], uid)
+    -- SETBIT返回旧值：1表示用户因此离线
+    if index and redis.call('SETBIT', KEYS[4], index, 0) == 1 then
+        return {2, uid, redis.call('HINCRBY', KEYS[7], uid, 1)}
+    end
+end
+return {1, uid}
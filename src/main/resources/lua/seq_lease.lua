@@ -0,0 +1,11 @@
+-- 房间序号段租约
+-- KEYS[1] 房间序号计数器
+-- ARGV[1] 序号段大小  ARGV[2] 初始值（计数器不存在时使用，为空表示由调用方先查询已持久化的最大序号）
+-- 返回本次租到的序号段上界，计数器不存在且未提供初始值时返回-1
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    if ARGV[2] == '' then
+        return -1
+    end
+    redis.call('SETNX', KEYS[1], ARGV[2])
+end
+return redis.call('INCRBY', KEYS[1], ARGV[1])
@@ -0,0 +1,12 @@
+-- 未读计数自增（一次往返覆盖所有接收者）
+-- KEYS[1..n] 接收者的未读计数哈希
+-- ARGV[1] 房间ID  ARGV[2] 完整标记字段
+-- 只更新已由重建初始化过的哈希，避免凭空创建不完整的计数
+local updated = 0
+for i = 1, #KEYS do
+    if redis.call('HEXISTS', KEYS[i], ARGV[2]) == 1 then
+        redis.call('HINCRBY', KEYS[i], ARGV[1], 1)
+        updated = updated + 1
+    end
+end
+return updated
@@ -0,0 +1,16 @@
+-- 重建后复核：用重新统计的未读数补齐重建期间漏记的自增
+-- KEYS[1] 用户的未读计数哈希
+-- ARGV[1] 完整标记字段  ARGV[2..] 房间ID、未读数交替排列
+-- 只取较大值：重建写入后的自增已计入哈希，复核结果只用于补上重建与写入之间漏掉的消息
+if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then
+    return 0
+end
+local updated = 0
+for i = 2, #ARGV, 2 do
+    local current = tonumber(redis.call('HGET', KEYS[1], ARGV[i]) or '0')
+    if tonumber(ARGV[i + 1]) > current then
+        redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])
+        updated = updated + 1
+    end
+end
+return updated
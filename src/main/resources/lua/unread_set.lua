@@ -0,0 +1,13 @@
+-- 未读计数覆盖写入
+-- KEYS[1] 用户的未读计数哈希
+-- ARGV[1] 房间ID  ARGV[2] 未读数  ARGV[3] 完整标记字段
+-- 未读数为0时删除字段；哈希未初始化时跳过（下次读取时整体重建）
+if redis.call('HEXISTS', KEYS[1], ARGV[3]) == 0 then
+    return 0
+end
+if tonumber(ARGV[2]) <= 0 then
+    redis.call('HDEL', KEYS[1], ARGV[1])
+else
+    redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+end
+return 1
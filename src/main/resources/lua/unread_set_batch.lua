@@ -0,0 +1,16 @@
+-- 未读计数批量覆盖写入（一次往返覆盖一批(用户, 房间)）
+-- KEYS[1..n] 用户的未读计数哈希（同一用户可重复出现）
+-- ARGV[1] 完整标记字段  ARGV[2i], ARGV[2i+1] 对应KEYS[i]的房间ID与未读数
+-- 未读数为0时删除字段；哈希未初始化时跳过（下次读取时整体重建）
+local updated = 0
+for i = 1, #KEYS do
+    if redis.call('HEXISTS', KEYS[i], ARGV[1]) == 1 then
+        if tonumber(ARGV[2 * i + 1]) <= 0 then
+            redis.call('HDEL', KEYS[i], ARGV[2 * i])
+        else
+            redis.call('HSET', KEYS[i], ARGV[2 * i], ARGV[2 * i + 1])
+        end
+        updated = updated + 1
+    end
+end
+return updated
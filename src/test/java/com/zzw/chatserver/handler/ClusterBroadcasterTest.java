@@ -0,0 +1,172 @@
+package com.zzw.chatserver.handler;
+
+import com.corundumstudio.socketio.BroadcastOperations;
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.SocketIOServer;
+import com.zzw.chatserver.pojo.vo.ClusterEventVo;
+import com.zzw.chatserver.pojo.vo.SimpleUser;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 集群推送：两个节点共用一条进程内总线与路由索引，验证跨节点的房间、用户与扩展事件投递
+ */
+class ClusterBroadcasterTest {
+
+    private LocalClusterEventBus bus;
+    private LocalClusterRouteIndex routeIndex;
+    private Node nodeA;
+    private Node nodeB;
+
+    /**
+     * 模拟一个节点：独立的SocketIOServer与会话注册表
+     */
+    private static final class Node {
+        final SocketIOServer server = mock(SocketIOServer.class);
+        final SessionStateRegistry registry = new SessionStateRegistry();
+        final Map<String, List<SocketIOClient>> rooms = new HashMap<>();
+        final ClusterBroadcaster broadcaster = new ClusterBroadcaster();
+
+        Node(ClusterEventBus bus, ClusterRouteIndex routeIndex) {
+            when(server.getRoomOperations(anyString())).thenAnswer(invocation -> {
+                BroadcastOperations operations = mock(BroadcastOperations.class);
+                when(operations.getClients()).thenReturn(
+                        rooms.getOrDefault(invocation.<String>getArgument(0), Collections.emptyList()));
+                return operations;
+            });
+            ReflectionTestUtils.setField(broadcaster, "socketIOServer", server);
+            ReflectionTestUtils.setField(broadcaster, "sessionStateRegistry", registry);
+            ReflectionTestUtils.setField(broadcaster, "clusterEventBus", bus);
+            ReflectionTestUtils.setField(broadcaster, "clusterRouteIndex", routeIndex);
+            ReflectionTestUtils.setField(broadcaster, "meterRegistry", new SimpleMeterRegistry());
+            ReflectionTestUtils.setField(broadcaster, "clusterEnabled", true);
+            ReflectionTestUtils.setField(broadcaster, "batchSize", 2);
+            ReflectionTestUtils.setField(broadcaster, "outboundCapacity", 100);
+            broadcaster.init();
+        }
+
+        SocketIOClient connect(String roomId) {
+            SocketIOClient client = mock(SocketIOClient.class);
+            UUID sessionId = UUID.randomUUID();
+            when(client.getSessionId()).thenReturn(sessionId);
+            when(server.getClient(sessionId)).thenReturn(client);
+            if (roomId != null) {
+                rooms.computeIfAbsent(roomId, key -> new ArrayList<>()).add(client);
+                broadcaster.joinRooms(Collections.singletonList(roomId));
+            }
+            return client;
+        }
+
+        void bind(String uid, SocketIOClient client) {
+            SimpleUser user = new SimpleUser();
+            user.setUid(uid);
+            registry.bind(user, client.getSessionId().toString());
+            broadcaster.bindUser(uid);
+        }
+
+        int outboundSize() {
+            return ((Number) ReflectionTestUtils.getField(broadcaster, "outboundSize")).intValue();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        bus = new LocalClusterEventBus();
+        routeIndex = new LocalClusterRouteIndex();
+        nodeA = new Node(bus, routeIndex);
+        nodeB = new Node(bus, routeIndex);
+    }
+
+    @Test
+    void roomEventsReachClientsOnOtherNode() {
+        SocketIOClient sender = nodeA.connect("room");
+        SocketIOClient localMember = nodeA.connect("room");
+        SocketIOClient remoteMember = nodeB.connect("room");
+        SocketIOClient remoteOutsider = nodeB.connect("other");
+
+        nodeA.broadcaster.sendToRoom("room", "receiveMessage", sender.getSessionId().toString(), "hello");
+        // 本节点成员立即收到，跨节点的要等批次发布
+        verify(localMember).sendEvent("receiveMessage", "hello");
+        verify(remoteMember, never()).sendEvent(anyString(), any());
+
+        nodeA.broadcaster.flush();
+
+        verify(remoteMember).sendEvent("receiveMessage", "hello");
+        verify(sender, never()).sendEvent(anyString(), any());
+        verify(remoteOutsider, never()).sendEvent(anyString(), any());
+        // 发布节点忽略自己的批次，本节点成员不会重复收到
+        verify(localMember, times(1)).sendEvent("receiveMessage", "hello");
+    }
+
+    @Test
+    void userEventsAreRoutedToTheOwningNode() {
+        SocketIOClient remoteClient = nodeB.connect(null);
+        nodeB.bind("u1", remoteClient);
+
+        nodeA.broadcaster.sendToUser("u1", "receiveValidateMessage", "v");
+        nodeA.broadcaster.flush();
+
+        verify(remoteClient).sendEvent("receiveValidateMessage", "v");
+    }
+
+    @Test
+    void skipsEnqueueWhenNoOtherNodeHoldsRecipients() {
+        SocketIOClient localMember = nodeA.connect("room");
+        // 先发出登记房间路由产生的失效通知
+        nodeA.broadcaster.flush();
+        nodeA.broadcaster.sendToRoom("room", "receiveMessage", null, "hello");
+        nodeA.broadcaster.sendToUser("offline-user", "receiveValidateMessage", "v");
+        verify(localMember).sendEvent("receiveMessage", "hello");
+        Assertions.assertEquals(0, nodeA.outboundSize());
+
+        // B上的成员全部离开后，核对移除B的房间路由，A不再向B发送该房间的事件
+        SocketIOClient remoteMember = nodeB.connect("room");
+        nodeB.rooms.get("room").clear();
+        nodeB.broadcaster.reconcileRooms();
+        nodeA.broadcaster.sendToRoom("room", "receiveMessage", null, "again");
+        Assertions.assertEquals(0, nodeA.outboundSize());
+        verify(remoteMember, never()).sendEvent(anyString(), any());
+    }
+
+    @Test
+    void publishesSynchronouslyWhenQueueIsFull() {
+        ReflectionTestUtils.setField(nodeA.broadcaster, "outboundCapacity", 1);
+        SocketIOClient remoteMember = nodeB.connect("room");
+
+        nodeA.broadcaster.sendToRoom("room", "receiveMessage", null, "queued");
+        nodeA.broadcaster.sendToRoom("room", "receiveMessage", null, "overflow");
+        // 超出容量的事件不丢弃，立即发布
+        verify(remoteMember).sendEvent("receiveMessage", "overflow");
+        verify(remoteMember, never()).sendEvent("receiveMessage", "queued");
+
+        nodeA.broadcaster.flush();
+        verify(remoteMember).sendEvent("receiveMessage", "queued");
+    }
+
+    @Test
+    void extensionEventsInvokeHandlersOnOtherNodesOnly() {
+        List<ClusterEventVo> receivedByA = new ArrayList<>();
+        List<ClusterEventVo> receivedByB = new ArrayList<>();
+        nodeA.broadcaster.registerHandler("USER_INVALIDATE", receivedByA::add);
+        nodeB.broadcaster.registerHandler("USER_INVALIDATE", receivedByB::add);
+
+        // 超过单批次大小，验证分批发布
+        nodeA.broadcaster.publish("USER_INVALIDATE", "u1", null);
+        nodeA.broadcaster.publish("USER_INVALIDATE", "u2", null);
+        nodeA.broadcaster.publish("USER_INVALIDATE", "u3", null);
+        nodeA.broadcaster.flush();
+
+        Assertions.assertTrue(receivedByA.isEmpty());
+        List<String> targets = new ArrayList<>();
+        receivedByB.forEach(event -> targets.add(event.getTarget()));
+        Assertions.assertEquals(Arrays.asList("u1", "u2", "u3"), targets);
+    }
+}
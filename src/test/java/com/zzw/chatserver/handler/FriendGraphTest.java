@@ -0,0 +1,181 @@
+package com.zzw.chatserver.handler;
+
+import com.zzw.chatserver.pojo.vo.ClusterEventVo;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 内存好友关系图：加载、增量插入/删除、集群同步与重建期间的增量重放
+ */
+class FriendGraphTest {
+
+    private final String uidA = new ObjectId().toHexString();
+    private final String uidB = new ObjectId().toHexString();
+    private final String uidC = new ObjectId().toHexString();
+
+    private MongoTemplate mongoTemplate;
+    private ClusterBroadcaster clusterBroadcaster;
+    private FriendGraph graph;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        clusterBroadcaster = mock(ClusterBroadcaster.class);
+        graph = new FriendGraph();
+        ReflectionTestUtils.setField(graph, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(graph, "clusterBroadcaster", clusterBroadcaster);
+    }
+
+    @Test
+    void loadsRelationsInBothDirections() {
+        // 同一关系双向存储、自环与缺字段的记录都不应产生重复或错误的边
+        stubStream(null, relation(uidA, uidB), relation(uidB, uidA), relation(uidB, uidC),
+                relation(uidC, uidC), new Document("userM", new ObjectId(uidA)));
+        graph.init();
+
+        Assertions.assertTrue(graph.isReady());
+        Assertions.assertTrue(graph.areFriends(uidA, uidB));
+        Assertions.assertTrue(graph.areFriends(uidB, uidA));
+        Assertions.assertFalse(graph.areFriends(uidA, uidC));
+        Assertions.assertEquals(Collections.singletonList(uidB), graph.getFriendIds(uidA));
+        Assertions.assertEquals(new HashSet<>(Arrays.asList(uidA, uidC)), new HashSet<>(graph.getFriendIds(uidB)));
+        Assertions.assertTrue(graph.getFriendIds(uidC).contains(uidB));
+        Assertions.assertEquals(1, graph.getFriendIds(uidC).size());
+    }
+
+    @Test
+    void insertsAndRemovesEdgesAndNotifiesCluster() {
+        stubStream(null, relation(uidA, uidB));
+        graph.init();
+
+        graph.addFriendship(uidA, uidC);
+        Assertions.assertTrue(graph.areFriends(uidA, uidC));
+        Assertions.assertTrue(graph.areFriends(uidC, uidA));
+        Assertions.assertEquals(2, graph.getFriendIds(uidA).size());
+
+        graph.removeFriendship(uidB, uidA);
+        Assertions.assertFalse(graph.areFriends(uidA, uidB));
+        Assertions.assertEquals(Collections.singletonList(uidC), graph.getFriendIds(uidA));
+        Assertions.assertTrue(graph.getFriendIds(uidB).isEmpty());
+
+        verify(clusterBroadcaster).publish(eq("FRIEND_EDGE_ADD"), eq(edgeKey(uidA, uidC)), isNull());
+        verify(clusterBroadcaster).publish(eq("FRIEND_EDGE_REMOVE"), eq(edgeKey(uidA, uidB)), isNull());
+
+        // 非法uid与自环不修改图，也不通知其他节点
+        graph.addFriendship(uidA, "not-an-id");
+        graph.addFriendship(uidA, uidA);
+        verify(clusterBroadcaster, times(2)).publish(anyString(), anyString(), any());
+    }
+
+    @Test
+    void appliesEdgesFromOtherNodes() {
+        stubStream(null);
+        graph.init();
+
+        Map<String, Consumer<ClusterEventVo>> handlers = capturedHandlers();
+        handlers.get("FRIEND_EDGE_ADD").accept(new ClusterEventVo("FRIEND_EDGE_ADD", edgeKey(uidA, uidB), null, null, null));
+        Assertions.assertTrue(graph.areFriends(uidA, uidB));
+
+        handlers.get("FRIEND_EDGE_REMOVE").accept(new ClusterEventVo("FRIEND_EDGE_REMOVE", edgeKey(uidA, uidB), null, null, null));
+        Assertions.assertFalse(graph.areFriends(uidA, uidB));
+        // 远端事件只在本节点生效，不再转发
+        verify(clusterBroadcaster, never()).publish(anyString(), anyString(), any());
+    }
+
+    @Test
+    void replaysChangesMadeDuringReload() {
+        stubStream(null, relation(uidA, uidB));
+        graph.init();
+
+        // 重建读到的是旧快照（仍有A-B、没有A-C），读取过程中发生的增量变更需在替换后重放
+        stubStream(() -> {
+            graph.addFriendship(uidA, uidC);
+            graph.removeFriendship(uidA, uidB);
+        }, relation(uidA, uidB));
+        graph.reload();
+
+        Assertions.assertTrue(graph.areFriends(uidA, uidC));
+        Assertions.assertFalse(graph.areFriends(uidA, uidB));
+        Assertions.assertNull(ReflectionTestUtils.getField(graph, "journal"));
+
+        // 重放结束后的变更直接作用于新图
+        graph.addFriendship(uidB, uidC);
+        Assertions.assertTrue(graph.areFriends(uidC, uidB));
+    }
+
+    @Test
+    void keepsCurrentGraphWhenReloadFails() {
+        stubStream(null, relation(uidA, uidB));
+        graph.init();
+
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("goodfriends")))
+                .thenThrow(new IllegalStateException("mongo down"));
+        graph.reload();
+
+        Assertions.assertTrue(graph.isReady());
+        Assertions.assertTrue(graph.areFriends(uidA, uidB));
+        Assertions.assertNull(ReflectionTestUtils.getField(graph, "journal"));
+    }
+
+    /**
+     * 模拟goodfriends集合的游标；duringRead不为null时在读取第一条记录前执行（模拟重建期间的并发变更）
+     */
+    private void stubStream(Runnable duringRead, Document... relations) {
+        Iterator<Document> source = Arrays.asList(relations).iterator();
+        boolean[] fired = new boolean[1];
+        CloseableIterator<Document> cursor = new CloseableIterator<Document>() {
+            @Override
+            public boolean hasNext() {
+                if (duringRead != null && !fired[0]) {
+                    fired[0] = true;
+                    duringRead.run();
+                }
+                return source.hasNext();
+            }
+
+            @Override
+            public Document next() {
+                return source.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        doReturn(cursor).when(mongoTemplate).stream(any(Query.class), eq(Document.class), eq("goodfriends"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Consumer<ClusterEventVo>> capturedHandlers() {
+        ArgumentCaptor<String> types = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Consumer<ClusterEventVo>> handlers = ArgumentCaptor.forClass(Consumer.class);
+        verify(clusterBroadcaster, atLeastOnce()).registerHandler(types.capture(), handlers.capture());
+        Map<String, Consumer<ClusterEventVo>> result = new HashMap<>();
+        for (int i = 0; i < types.getAllValues().size(); i++) {
+            result.put(types.getAllValues().get(i), handlers.getAllValues().get(i));
+        }
+        return result;
+    }
+
+    private static Document relation(String userM, String userY) {
+        return new Document("userM", new ObjectId(userM)).append("userY", new ObjectId(userY));
+    }
+
+    private static String edgeKey(String uidA, String uidB) {
+        return uidA.compareTo(uidB) < 0 ? uidA + "-" + uidB : uidB + "-" + uidA;
+    }
+}
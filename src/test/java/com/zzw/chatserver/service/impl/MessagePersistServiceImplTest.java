@@ -0,0 +1,162 @@
+package com.zzw.chatserver.service.impl;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import com.zzw.chatserver.pojo.SingleMessage;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * 消息持久化服务：WAL重放与分段删除
+ */
+class MessagePersistServiceImplTest {
+
+    @TempDir
+    Path walDir;
+
+    private MessagePersistServiceImpl service;
+    // 按集合记录写入MongoDB的_id
+    private final Map<String, Set<Object>> inserted = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        converter.afterPropertiesSet();
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        when(mongoTemplate.getCollection(anyString())).thenAnswer(invocation -> {
+            String collection = invocation.getArgument(0);
+            MongoCollection<Document> mongoCollection = mock(MongoCollection.class);
+            doAnswer(insert -> {
+                List<Document> documents = insert.getArgument(0);
+                Set<Object> ids = inserted.computeIfAbsent(collection, key -> ConcurrentHashMap.newKeySet());
+                documents.forEach(document -> ids.add(document.get("_id")));
+                return null;
+            }).when(mongoCollection).insertMany(anyList(), any(InsertManyOptions.class));
+            return mongoCollection;
+        });
+
+        service = new MessagePersistServiceImpl();
+        ReflectionTestUtils.setField(service, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(service, "ackMode", "MONGO");
+        ReflectionTestUtils.setField(service, "batchSize", 50);
+        ReflectionTestUtils.setField(service, "flushIntervalMs", 5L);
+        ReflectionTestUtils.setField(service, "queueCapacity", 10000);
+        ReflectionTestUtils.setField(service, "ackTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(service, "walDir", walDir.toString());
+        ReflectionTestUtils.setField(service, "walSegmentBytes", 16777216L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void replaysLeftoverSegmentsOnStartup() throws IOException {
+        ObjectId first = new ObjectId();
+        ObjectId second = new ObjectId();
+        List<String> lines = Arrays.asList(
+                "singlemessages\t" + new Document("_id", first).append("roomId", "r").toJson(),
+                "groupmessages\t" + new Document("_id", second).append("roomId", "g").toJson(),
+                // 崩溃时残留的半行
+                "singlemessages\t{\"_id\": ");
+        Files.write(walDir.resolve(String.format("msg-%020d.wal", 7)), lines, StandardCharsets.UTF_8);
+
+        service.init();
+
+        Assertions.assertEquals(Collections.singleton(first), inserted.get("singlemessages"));
+        Assertions.assertEquals(Collections.singleton(second), inserted.get("groupmessages"));
+        // 重放完成的分段被删除，新分段ID接在其后
+        Assertions.assertEquals(Collections.singletonList(String.format("msg-%020d.wal", 8)), segmentNames());
+    }
+
+    @Test
+    void deletesCommittedSegmentsWhileWritersRoll() throws Exception {
+        // 每条记录都会滚动到新分段，放大刷盘线程删除与写入线程滚动之间的竞争
+        ReflectionTestUtils.setField(service, "walSegmentBytes", 1L);
+        service.init();
+
+        int threads = 4;
+        int perThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<ObjectId>>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                List<ObjectId> ids = new ArrayList<>();
+                for (int i = 0; i < perThread; i++) {
+                    SingleMessage message = new SingleMessage();
+                    message.setRoomId("room");
+                    message.setMessage("m" + i);
+                    // MONGO模式下Future在所在批次落库后完成
+                    service.persistSingleMessage(message).get(10, TimeUnit.SECONDS);
+                    ids.add(message.getId());
+                }
+                return ids;
+            }));
+        }
+        Set<Object> expected = new HashSet<>();
+        for (Future<List<ObjectId>> future : futures) {
+            expected.addAll(future.get(30, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        Assertions.assertEquals(expected, inserted.get("singlemessages"));
+        // 最后一批落库后，除当前分段外的分段都应被删除
+        long deadline = System.currentTimeMillis() + 5000;
+        while (segmentNames().size() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(1, segmentNames().size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void keepsSegmentsOpenedAfterActiveSnapshot() throws Exception {
+        service.init();
+        long activeId = (long) ReflectionTestUtils.getField(service, "walSegmentId");
+        Map<Long, AtomicInteger> segmentPending =
+                (Map<Long, AtomicInteger>) ReflectionTestUtils.getField(service, "segmentPending");
+        // 模拟写入线程刚滚动出、尚未登记写入计数的新分段
+        Path next = walDir.resolve(String.format("msg-%020d.wal", activeId + 1));
+        Files.createFile(next);
+        segmentPending.put(activeId + 1, new AtomicInteger());
+
+        ReflectionTestUtils.invokeMethod(service, "deleteCommittedSegments", false);
+
+        Assertions.assertTrue(segmentPending.containsKey(activeId + 1));
+        Assertions.assertTrue(Files.exists(next));
+    }
+
+    private List<String> segmentNames() throws IOException {
+        try (Stream<Path> files = Files.list(walDir)) {
+            return files.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+}